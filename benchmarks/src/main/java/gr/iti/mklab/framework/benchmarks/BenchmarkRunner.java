@@ -0,0 +1,31 @@
+package gr.iti.mklab.framework.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks that match the given pattern with the gc profiler,
+ * and writes the results to jmh-results.json.
+ * 
+ * Usage: java -cp target/benchmarks.jar gr.iti.mklab.framework.benchmarks.BenchmarkRunner [pattern]
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class BenchmarkRunner {
+
+	public static void main(String...args) throws Exception {
+		String pattern = args.length > 0 ? args[0] : ".*Benchmark.*";
+		
+		Options options = new OptionsBuilder()
+				.include(pattern)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-results.json")
+				.build();
+		
+		new Runner(options).run();
+	}
+}
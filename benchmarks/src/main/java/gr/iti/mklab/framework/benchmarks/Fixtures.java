@@ -0,0 +1,142 @@
+package gr.iti.mklab.framework.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+
+import com.flickr4java.flickr.people.User;
+import com.flickr4java.flickr.photos.Photo;
+import com.flickr4java.flickr.photos.PhotoUtils;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.plus.model.Activity;
+import com.google.api.services.plus.model.Person;
+import com.google.api.services.youtube.model.Channel;
+import com.google.api.services.youtube.model.Video;
+import com.google.gson.Gson;
+import com.restfb.DefaultJsonMapper;
+import com.restfb.types.Page;
+import com.restfb.types.Post;
+import com.tumblr.jumblr.types.Blog;
+import com.tumblr.jumblr.types.PhotoPost;
+
+import org.jinstagram.entity.users.basicinfo.UserInfoData;
+import org.jinstagram.entity.users.feed.MediaFeedData;
+
+import twitter4j.Status;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * Loads the API responses under /fixtures into the objects of each SDK, 
+ * using the same deserializers as the SDK clients.
+ * 
+ * The fixtures follow the documented response format of each API, with all 
+ * the fields that the mappers read.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class Fixtures {
+
+	public static String read(String name) throws IOException {
+		InputStream input = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if(input == null) {
+			throw new IOException("Fixture " + name + " not found");
+		}
+		
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = input.read(buffer)) != -1) {
+				output.write(buffer, 0, n);
+			}
+			return new String(output.toByteArray(), StandardCharsets.UTF_8);
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	public static Status twitterStatus() throws Exception {
+		return TwitterObjectFactory.createStatus(read("twitter-status.json"));
+	}
+	
+	public static Post facebookPost() throws Exception {
+		return new DefaultJsonMapper().toJavaObject(read("facebook-post.json"), Post.class);
+	}
+	
+	public static Page facebookPage() throws Exception {
+		return new DefaultJsonMapper().toJavaObject(read("facebook-page.json"), Page.class);
+	}
+	
+	public static MediaFeedData instagramMedia() throws Exception {
+		return new Gson().fromJson(read("instagram-media.json"), MediaFeedData.class);
+	}
+	
+	public static UserInfoData instagramUser() throws Exception {
+		return new Gson().fromJson(read("instagram-user.json"), UserInfoData.class);
+	}
+	
+	public static Activity googlePlusActivity() throws Exception {
+		return JacksonFactory.getDefaultInstance().fromString(read("googleplus-activity.json"), Activity.class);
+	}
+	
+	public static Person googlePlusPerson() throws Exception {
+		return JacksonFactory.getDefaultInstance().fromString(read("googleplus-person.json"), Person.class);
+	}
+	
+	public static Video youtubeVideo() throws Exception {
+		return JacksonFactory.getDefaultInstance().fromString(read("youtube-video.json"), Video.class);
+	}
+	
+	public static Channel youtubeChannel() throws Exception {
+		return JacksonFactory.getDefaultInstance().fromString(read("youtube-channel.json"), Channel.class);
+	}
+	
+	public static PhotoPost tumblrPhotoPost() throws Exception {
+		return new Gson().fromJson(read("tumblr-photo-post.json"), PhotoPost.class);
+	}
+	
+	public static Blog tumblrBlog() throws Exception {
+		return new Gson().fromJson(read("tumblr-blog.json"), Blog.class);
+	}
+	
+	public static Photo flickrPhoto() throws Exception {
+		InputStream input = Fixtures.class.getResourceAsStream("/fixtures/flickr-photo.xml");
+		try {
+			Element element = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(input).getDocumentElement();
+			return PhotoUtils.createPhoto(element);
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * An HTML fragment of the kind found in feed descriptions, with links, hashtags, images and character references.
+	 */
+	public static String htmlFragment() throws IOException {
+		return read("html-fragment.html");
+	}
+	
+	/**
+	 * flickr4java parses the people.getInfo response inside PeopleInterface, 
+	 * so the user is built from the values of the photo owner instead.
+	 */
+	public static User flickrUser() {
+		User user = new User();
+		user.setId("61021753@N02");
+		user.setUsername("The Library of Congress");
+		user.setRealName("Library of Congress");
+		user.setLocation("Washington, DC, USA");
+		user.setIconFarm(5);
+		user.setIconServer(4001);
+		user.setPhotosCount(23456);
+		
+		return user;
+	}
+}
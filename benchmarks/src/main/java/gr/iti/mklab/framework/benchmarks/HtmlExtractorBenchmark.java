@@ -0,0 +1,57 @@
+package gr.iti.mklab.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.iti.mklab.framework.abstractions.socialmedia.items.HtmlExtractor;
+
+/**
+ * Throughput of the single pass HtmlExtractor against the Jsoup path that it replaces, 
+ * i.e. a parse for the text and one for the images of a fragment.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class HtmlExtractorBenchmark {
+
+	private String html;
+	
+	@Setup
+	public void setup() throws Exception {
+		html = Fixtures.htmlFragment();
+		
+		HtmlExtractor.Content content = HtmlExtractor.extract(html);
+		if(!content.getText().equals(Jsoup.parse(html).body().text())) {
+			throw new IllegalStateException("HtmlExtractor and Jsoup extract a different text");
+		}
+	}
+	
+	@Benchmark
+	public HtmlExtractor.Content extractor() {
+		return HtmlExtractor.extract(html);
+	}
+	
+	@Benchmark
+	public int jsoup() {
+		String text = Jsoup.parse(html).body().text();
+		Elements images = Jsoup.parse(html).getElementsByTag("img");
+		return text.length() + images.size();
+	}
+}
@@ -0,0 +1,100 @@
+package gr.iti.mklab.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jinstagram.entity.users.feed.MediaFeedData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.flickr4java.flickr.photos.Photo;
+import com.google.api.services.plus.model.Activity;
+import com.google.api.services.youtube.model.Video;
+import com.restfb.types.Post;
+import com.tumblr.jumblr.types.PhotoPost;
+
+import twitter4j.Status;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.FacebookItem;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.FlickrItem;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.GooglePlusItem;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.InstagramItem;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.TumblrItem;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.TwitterItem;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.YoutubeItem;
+import gr.iti.mklab.framework.common.domain.Item;
+
+/**
+ * Throughput of the constructors that map the objects of each SDK to Items. 
+ * Run with the gc profiler to get the allocation rate per mapping, see BenchmarkRunner.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ItemMapperBenchmark {
+
+	private Status status;
+	private Post post;
+	private MediaFeedData media;
+	private Activity activity;
+	private Photo photo;
+	private PhotoPost photoPost;
+	private Video video;
+	
+	@Setup
+	public void setup() throws Exception {
+		status = Fixtures.twitterStatus();
+		post = Fixtures.facebookPost();
+		media = Fixtures.instagramMedia();
+		activity = Fixtures.googlePlusActivity();
+		photo = Fixtures.flickrPhoto();
+		photoPost = Fixtures.tumblrPhotoPost();
+		video = Fixtures.youtubeVideo();
+	}
+	
+	@Benchmark
+	public Item twitterItem() {
+		return new TwitterItem(status);
+	}
+	
+	@Benchmark
+	public Item facebookItem() {
+		return new FacebookItem(post);
+	}
+	
+	@Benchmark
+	public Item instagramItem() throws Exception {
+		return new InstagramItem(media);
+	}
+	
+	@Benchmark
+	public Item googlePlusItem() {
+		return new GooglePlusItem(activity);
+	}
+	
+	@Benchmark
+	public Item flickrItem() {
+		return new FlickrItem(photo);
+	}
+	
+	@Benchmark
+	public Item tumblrItem() throws Exception {
+		return new TumblrItem(photoPost);
+	}
+	
+	@Benchmark
+	public Item youtubeItem() {
+		return new YoutubeItem(video);
+	}
+}
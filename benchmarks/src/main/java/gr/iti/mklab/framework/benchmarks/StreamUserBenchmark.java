@@ -0,0 +1,101 @@
+package gr.iti.mklab.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jinstagram.entity.users.basicinfo.UserInfoData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.flickr4java.flickr.people.User;
+import com.google.api.services.plus.model.Person;
+import com.google.api.services.youtube.model.Channel;
+import com.restfb.types.Page;
+import com.tumblr.jumblr.types.Blog;
+
+import twitter4j.Status;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.FacebookStreamUser;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.FlickrStreamUser;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.GooglePlusStreamUser;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.InstagramStreamUser;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.TumblrStreamUser;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.TwitterStreamUser;
+import gr.iti.mklab.framework.abstractions.socialmedia.users.YoutubeStreamUser;
+import gr.iti.mklab.framework.common.domain.StreamUser;
+
+/**
+ * Throughput of the constructors that map the users of each SDK to StreamUsers.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class StreamUserBenchmark {
+
+	private twitter4j.User twitterUser;
+	private Page page;
+	private UserInfoData instagramUser;
+	private Person person;
+	private User flickrUser;
+	private Blog blog;
+	private Channel channel;
+	
+	@Setup
+	public void setup() throws Exception {
+		Status status = Fixtures.twitterStatus();
+		twitterUser = status.getUser();
+		
+		page = Fixtures.facebookPage();
+		instagramUser = Fixtures.instagramUser();
+		person = Fixtures.googlePlusPerson();
+		flickrUser = Fixtures.flickrUser();
+		blog = Fixtures.tumblrBlog();
+		channel = Fixtures.youtubeChannel();
+	}
+	
+	@Benchmark
+	public StreamUser twitterStreamUser() {
+		return new TwitterStreamUser(twitterUser);
+	}
+	
+	@Benchmark
+	public StreamUser facebookStreamUser() {
+		return new FacebookStreamUser(page);
+	}
+	
+	@Benchmark
+	public StreamUser instagramStreamUser() {
+		return new InstagramStreamUser(instagramUser);
+	}
+	
+	@Benchmark
+	public StreamUser googlePlusStreamUser() {
+		return new GooglePlusStreamUser(person);
+	}
+	
+	@Benchmark
+	public StreamUser flickrStreamUser() {
+		return new FlickrStreamUser(flickrUser);
+	}
+	
+	@Benchmark
+	public StreamUser tumblrStreamUser() {
+		return new TumblrStreamUser(blog);
+	}
+	
+	@Benchmark
+	public StreamUser youtubeStreamUser() {
+		return new YoutubeStreamUser(channel);
+	}
+}
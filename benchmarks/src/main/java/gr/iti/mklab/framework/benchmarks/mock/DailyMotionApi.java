@@ -0,0 +1,37 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * DailyMotion API: video/{id}
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class DailyMotionApi extends MockHandler {
+
+	public DailyMotionApi(MockApiServer server) {
+		super("DailyMotion", "/dailymotion/video/", server);
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		String id = escapeJson(path);
+		
+		String body = "{\"id\":\"" + id + "\",\"title\":\"Thessaloniki waterfront at dusk\","
+				+ "\"url\":\"https://www.dailymotion.com/video/" + id + "\","
+				+ "\"embed_url\":\"https://www.dailymotion.com/embed/video/" + id + "\","
+				+ "\"thumbnail_url\":\"https://s1.dmcdn.net/" + id + ".jpg\","
+				+ "\"tags\":[\"thessaloniki\",\"greece\",\"aerial\"],"
+				+ "\"rating\":4,\"ratings_total\":52,\"views_total\":10234,\"comments_total\":12,"
+				+ "\"created_time\":1493744401,\"geoloc\":[40.626446,22.948426]}";
+		
+		return MockResponse.json(body);
+	}
+	
+	@Override
+	protected MockResponse rateLimited() {
+		return MockResponse.json(429, "{\"error\":{\"code\":429,\"message\":\"Rate limit exceeded\",\"type\":\"rate_limit_exceeded\"}}");
+	}
+}
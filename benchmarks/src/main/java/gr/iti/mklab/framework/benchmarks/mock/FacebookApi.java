@@ -0,0 +1,95 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+
+import gr.iti.mklab.framework.benchmarks.Fixtures;
+
+/**
+ * Facebook Graph API: objects and their posts, feed and comments connections, paginated with the after cursor.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class FacebookApi extends MockHandler {
+
+	private static final String TEMPLATE_PAGE_ID = "20531316728";
+	private static final String TEMPLATE_POST_ID = "20531316728_10154926476881729";
+	
+	private String page;
+	private String post;
+	
+	public FacebookApi(MockApiServer server) throws IOException {
+		super("Facebook", "/facebook/", server);
+		page = Fixtures.read("facebook-page.json");
+		post = Fixtures.read("facebook-post.json");
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		// the first segment is the version of the api
+		String[] segments = path.split("/");
+		if(segments.length == 2) {
+			return MockResponse.json(page.replace(TEMPLATE_PAGE_ID, segments[1]));
+		}
+		
+		if(segments.length == 3 && (segments[2].equals("posts") || segments[2].equals("feed"))) {
+			String id = segments[1];
+			int limit = intParam(params, "limit", 25);
+			int after = intParam(params, "after", 0);
+			
+			StringBuffer body = new StringBuffer("{\"data\":[");
+			if(after < server.getPages()) {
+				for(int i = 0; i < limit; i++) {
+					if(i > 0) {
+						body.append(",");
+					}
+					String postId = id + "_" + (after * limit + i);
+					body.append(post.replace(TEMPLATE_POST_ID, postId).replace(TEMPLATE_PAGE_ID, id));
+				}
+			}
+			body.append("]");
+			
+			if(after + 1 < server.getPages()) {
+				Map<String, String> next = new LinkedHashMap<String, String>(params);
+				next.put("after", Integer.toString(after + 1));
+				body.append(",\"paging\":{\"cursors\":{\"before\":\"").append(after).append("\",\"after\":\"").append(after + 1).append("\"},")
+					.append("\"next\":\"").append(escapeJson(url(path, next))).append("\"}");
+			}
+			body.append("}");
+			
+			return MockResponse.json(body.toString());
+		}
+		
+		if(segments.length == 3) {
+			// comments and other connections are empty
+			return MockResponse.json("{\"data\":[],\"summary\":{\"total_count\":0}}");
+		}
+		
+		return MockResponse.json(404, error("Unknown path components: /" + path, "OAuthException", 2500));
+	}
+	
+	@Override
+	protected MockResponse rateLimited() {
+		return MockResponse.json(400, error("(#4) Application request limit reached", "OAuthException", 4));
+	}
+	
+	@Override
+	protected MockResponse failed() {
+		return MockResponse.json(500, error("An unexpected error has occurred. Please retry your request later.", "OAuthException", 2));
+	}
+	
+	@Override
+	protected void rateLimitHeaders(MockResponse response, int limit, int remaining, long reset) {
+		// the Graph API reports the usage as a percentage of the limit
+		int usage = (int) (100l * (limit - remaining) / Math.max(limit, 1));
+		response.header("x-app-usage", "{\"call_count\":" + usage + ",\"total_cputime\":" + usage + ",\"total_time\":" + usage + "}");
+	}
+	
+	private static String error(String message, String type, int code) {
+		return "{\"error\":{\"message\":\"" + escapeJson(message) + "\",\"type\":\"" + type + "\",\"code\":" + code 
+				+ ",\"is_transient\":true,\"fbtrace_id\":\"mock\"}}";
+	}
+}
@@ -0,0 +1,93 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Flickr REST API: flickr.photos.search, paginated with page and per_page, and flickr.people.getInfo.
+ * 
+ * The photos of a search belong to a fixed set of owners, so that the lookups of the owners 
+ * repeat as they do for real queries.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class FlickrApi extends MockHandler {
+
+	private static final int OWNERS = 50;
+	
+	public FlickrApi(MockApiServer server) {
+		super("Flickr", "/services/rest/", server);
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		String method = params.get("method");
+		if("flickr.photos.search".equals(method)) {
+			int perPage = intParam(params, "per_page", 100);
+			int page = intParam(params, "page", 1);
+			int pages = server.getPages();
+			
+			StringBuffer body = new StringBuffer("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"ok\">\n");
+			body.append("<photos page=\"").append(page).append("\" pages=\"").append(pages).append("\" perpage=\"").append(perPage)
+				.append("\" total=\"").append(pages * perPage).append("\">\n");
+			if(page <= pages) {
+				long now = System.currentTimeMillis() / 1000;
+				for(int i = 0; i < perPage; i++) {
+					long id = 34097539512l + (page - 1) * perPage + i;
+					photo(id, "6102" + (id % OWNERS) + "@N02", now - (page - 1) * perPage - i, body);
+				}
+			}
+			body.append("</photos>\n</rsp>");
+			
+			return MockResponse.xml(body.toString());
+		}
+		
+		if("flickr.people.getInfo".equals(method)) {
+			String userId = escapeXml(params.containsKey("user_id") ? params.get("user_id") : "");
+			
+			StringBuffer body = new StringBuffer("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"ok\">\n");
+			body.append("<person id=\"").append(userId).append("\" nsid=\"").append(userId)
+				.append("\" ispro=\"0\" can_buy_pro=\"0\" iconserver=\"4001\" iconfarm=\"5\" path_alias=\"\" has_stats=\"0\">\n")
+				.append("<username>user ").append(userId).append("</username>\n")
+				.append("<realname>Mock User ").append(userId).append("</realname>\n")
+				.append("<location>Thessaloniki, Greece</location>\n")
+				.append("<description>Synthetic user of the mock Flickr API</description>\n")
+				.append("<photosurl>https://www.flickr.com/photos/").append(userId).append("/</photosurl>\n")
+				.append("<profileurl>https://www.flickr.com/people/").append(userId).append("/</profileurl>\n")
+				.append("<photos><firstdatetaken>2010-01-01 00:00:00</firstdatetaken><firstdate>1262304000</firstdate><count>1234</count></photos>\n")
+				.append("</person>\n</rsp>");
+			
+			return MockResponse.xml(body.toString());
+		}
+		
+		return MockResponse.xml(fail(112, "Method \"" + method + "\" not found"));
+	}
+	
+	@Override
+	protected MockResponse failed() {
+		return MockResponse.xml(fail(105, "Service currently unavailable"));
+	}
+	
+	private static void photo(long id, String owner, long uploaded, StringBuffer body) {
+		body.append("<photo id=\"").append(id).append("\" owner=\"").append(owner)
+			.append("\" secret=\"4b8c3f0d57\" server=\"4160\" farm=\"5\" title=\"Aerial view of the Thessaloniki waterfront ").append(id)
+			.append("\" ispublic=\"1\" isfriend=\"0\" isfamily=\"0\" license=\"4\"")
+			.append(" dateupload=\"").append(uploaded).append("\" lastupdate=\"").append(uploaded)
+			.append("\" datetaken=\"2017-05-01 19:42:10\" datetakengranularity=\"0\" datetakenunknown=\"0\"")
+			.append(" ownername=\"user ").append(owner).append("\" iconserver=\"4001\" iconfarm=\"5\" views=\"2841\"")
+			.append(" tags=\"thessaloniki greece whitetower aerial dusk\" machine_tags=\"\"")
+			.append(" originalsecret=\"8a9f3c1e2b\" originalformat=\"jpg\"")
+			.append(" latitude=\"40.626446\" longitude=\"22.948426\" accuracy=\"16\" context=\"0\" place_id=\"ZcpFCL9TVr_Vq_3B\" woeid=\"963291\"")
+			.append(" geo_is_public=\"1\" geo_is_contact=\"0\" geo_is_friend=\"0\" geo_is_family=\"0\"")
+			.append(" media=\"photo\" media_status=\"ready\"")
+			.append(" url_m=\"https://farm5.staticflickr.com/4160/").append(id).append("_4b8c3f0d57.jpg\" height_m=\"333\" width_m=\"500\"")
+			.append(" pathalias=\"\">\n")
+			.append("<description>The White Tower and the promenade along Nikis Avenue, photographed from a drone in early May.</description>\n")
+			.append("</photo>\n");
+	}
+	
+	private static String fail(int code, String message) {
+		return "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"fail\">\n<err code=\"" + code + "\" msg=\"" + escapeXml(message) + "\" />\n</rsp>";
+	}
+}
@@ -0,0 +1,51 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.Arrays;
+
+/**
+ * Records latencies and reports their percentiles. All the values are kept, 
+ * which is fine for the length of a load test.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class LatencyRecorder {
+
+	private long[] values = new long[1024];
+	private int size = 0;
+	
+	/**
+	 * @param nanos the latency in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		if(size == values.length) {
+			values = Arrays.copyOf(values, 2 * size);
+		}
+		values[size++] = nanos;
+	}
+	
+	public synchronized int count() {
+		return size;
+	}
+	
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency in milliseconds, or 0 if nothing was recorded
+	 */
+	public synchronized double percentile(double percentile) {
+		if(size == 0) {
+			return 0;
+		}
+		
+		long[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		
+		int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+		index = Math.max(0, Math.min(size - 1, index));
+		
+		return sorted[index] / 1000000.0;
+	}
+	
+	public synchronized void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,76 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+/**
+ * The results of a load test of a retriever.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class LoadReport {
+
+	private String source;
+	private int threads;
+	private double seconds;
+	
+	private long retrievals;
+	private long failedRetrievals;
+	private long items;
+	
+	private long requests;
+	private long errors;
+	private long rateLimited;
+	
+	private LatencyRecorder retrievalLatencies;
+	private LatencyRecorder requestLatencies;
+	
+	public LoadReport(String source, int threads, long nanos, long retrievals, long failedRetrievals, long items, 
+			long requests, long errors, long rateLimited, LatencyRecorder retrievalLatencies, LatencyRecorder requestLatencies) {
+		this.source = source;
+		this.threads = threads;
+		this.seconds = nanos / 1000000000.0;
+		this.retrievals = retrievals;
+		this.failedRetrievals = failedRetrievals;
+		this.items = items;
+		this.requests = requests;
+		this.errors = errors;
+		this.rateLimited = rateLimited;
+		this.retrievalLatencies = retrievalLatencies;
+		this.requestLatencies = requestLatencies;
+	}
+	
+	public double getItemsPerSecond() {
+		return items / seconds;
+	}
+	
+	public double getRequestsPerSecond() {
+		return requests / seconds;
+	}
+	
+	public double getRetrievalsPerSecond() {
+		return retrievals / seconds;
+	}
+	
+	public LatencyRecorder getRetrievalLatencies() {
+		return retrievalLatencies;
+	}
+	
+	public LatencyRecorder getRequestLatencies() {
+		return requestLatencies;
+	}
+	
+	public static String header() {
+		return String.format("%-12s %7s %10s %10s %10s %9s %9s %9s %9s %9s %9s %7s %7s %7s", 
+				"source", "threads", "items/s", "req/s", "retr/s", 
+				"p50 ms", "p90 ms", "p99 ms", "max ms", "req p50", "req p99", 
+				"failed", "errors", "limited");
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%-12s %7d %10.1f %10.1f %10.1f %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %7d %7d %7d", 
+				source, threads, getItemsPerSecond(), getRequestsPerSecond(), getRetrievalsPerSecond(),
+				retrievalLatencies.percentile(50), retrievalLatencies.percentile(90), 
+				retrievalLatencies.percentile(99), retrievalLatencies.percentile(100),
+				requestLatencies.percentile(50), requestLatencies.percentile(99),
+				failedRetrievals, errors, rateLimited);
+	}
+}
@@ -0,0 +1,201 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server with synthetic versions of the APIs used by the retrievers.
+ * 
+ * Every API serves a configurable number of pages, reports its quota the way the real API 
+ * does, and returns the error responses of the real API when a request is rate limited or 
+ * fails. The latency, the error rate and the rate limit are the same for all the APIs.
+ * 
+ * The APIs are served under the following paths:
+ * <ul>
+ *   <li>/twitter/1.1/ - Twitter REST API</li>
+ *   <li>/facebook/{version}/ - Facebook Graph API</li>
+ *   <li>/youtube/youtube/v3/ - YouTube Data API</li>
+ *   <li>/services/rest/ - Flickr REST API, at its own path as flickr4java does not allow to change it</li>
+ *   <li>/vimeo/api/v2/video/ - Vimeo simple API</li>
+ *   <li>/dailymotion/video/ - DailyMotion API</li>
+ *   <li>/twitpic/2/media/show.json - Twitpic API</li>
+ *   <li>/rss/{name} - RSS feeds</li>
+ * </ul>
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class MockApiServer {
+
+	private Logger logger = LogManager.getLogger(MockApiServer.class);
+	
+	private HttpServer httpServer;
+	private ExecutorService executor;
+	
+	private List<MockHandler> handlers = new ArrayList<MockHandler>();
+	
+	private long latency = 0l;
+	private long jitter = 0l;
+	private double errorRate = 0;
+	private double rateLimitRate = 0;
+	
+	private int pages = 5;
+	private int feedSize = 20;
+	
+	private int rateLimit = Integer.MAX_VALUE;
+	private long rateLimitWindow = 15 * 60 * 1000l;
+	
+	public MockApiServer() throws IOException {
+		this(0);
+	}
+	
+	/**
+	 * @param port the port of the server, or 0 for any free port
+	 */
+	public MockApiServer(int port) throws IOException {
+		httpServer = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+		
+		register(new TwitterApi(this));
+		register(new FacebookApi(this));
+		register(new YoutubeApi(this));
+		register(new FlickrApi(this));
+		register(new VimeoApi(this));
+		register(new DailyMotionApi(this));
+		register(new TwitpicApi(this));
+		register(new RssApi(this));
+	}
+	
+	private void register(MockHandler handler) {
+		httpServer.createContext(handler.getContextPath(), handler);
+		handlers.add(handler);
+	}
+	
+	public void start() {
+		executor = Executors.newCachedThreadPool();
+		httpServer.setExecutor(executor);
+		httpServer.start();
+		
+		logger.info("Mock APIs listening on " + getBaseUrl());
+	}
+	
+	public void stop() {
+		httpServer.stop(0);
+		if(executor != null) {
+			executor.shutdownNow();
+		}
+	}
+	
+	public String getHost() {
+		return httpServer.getAddress().getHostString();
+	}
+	
+	public int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+	
+	public String getBaseUrl() {
+		return "http://" + getHost() + ":" + getPort();
+	}
+	
+	/**
+	 * @param source the source of the API, e.g. Twitter
+	 * @return the counters of the requests served by the API of the source
+	 */
+	public SourceStats getStats(String source) {
+		for(MockHandler handler : handlers) {
+			if(handler.getSource().equals(source)) {
+				return handler.getStats();
+			}
+		}
+		throw new IllegalArgumentException("No mock API for " + source);
+	}
+	
+	/**
+	 * @param latency the latency of every response in milliseconds
+	 * @param jitter the maximum random latency added to every response in milliseconds
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+	
+	/**
+	 * @param errorRate the fraction of requests that fail with a transient error of the API
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+	
+	/**
+	 * @param rateLimitRate the fraction of requests that are rejected as rate limited, regardless of the rate limit
+	 */
+	public void setRateLimitRate(double rateLimitRate) {
+		this.rateLimitRate = rateLimitRate;
+	}
+	
+	/**
+	 * @param rateLimit the number of requests allowed per window and API
+	 * @param rateLimitWindow the length of the window in milliseconds
+	 */
+	public void setRateLimit(int rateLimit, long rateLimitWindow) {
+		this.rateLimit = rateLimit;
+		this.rateLimitWindow = rateLimitWindow;
+	}
+	
+	public int getRateLimit() {
+		return rateLimit;
+	}
+	
+	public long getRateLimitWindow() {
+		return rateLimitWindow;
+	}
+	
+	/**
+	 * @param pages the number of pages of every paginated result
+	 */
+	public void setPages(int pages) {
+		this.pages = pages;
+	}
+	
+	public int getPages() {
+		return pages;
+	}
+	
+	/**
+	 * @param feedSize the number of entries of every RSS feed
+	 */
+	public void setFeedSize(int feedSize) {
+		this.feedSize = feedSize;
+	}
+	
+	public int getFeedSize() {
+		return feedSize;
+	}
+	
+	void delay() throws InterruptedException {
+		long delay = latency;
+		if(jitter > 0) {
+			delay += ThreadLocalRandom.current().nextLong(jitter + 1);
+		}
+		if(delay > 0) {
+			Thread.sleep(delay);
+		}
+	}
+	
+	boolean injectError() {
+		return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+	}
+	
+	boolean injectRateLimit() {
+		return rateLimitRate > 0 && ThreadLocalRandom.current().nextDouble() < rateLimitRate;
+	}
+}
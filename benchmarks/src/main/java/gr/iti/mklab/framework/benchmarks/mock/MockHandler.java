@@ -0,0 +1,208 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Base class of the mock API of a source. Applies the latency, the rate limit and 
+ * the error injection of the server before the request reaches the API.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public abstract class MockHandler implements HttpHandler {
+
+	protected MockApiServer server;
+	
+	private String source;
+	private String contextPath;
+	
+	private SourceStats stats = new SourceStats();
+	
+	// fixed window rate limit
+	private int windowCalls = 0;
+	private long windowReset = 0l;
+	
+	public MockHandler(String source, String contextPath, MockApiServer server) {
+		this.source = source;
+		this.contextPath = contextPath;
+		this.server = server;
+	}
+	
+	public String getSource() {
+		return source;
+	}
+	
+	public String getContextPath() {
+		return contextPath;
+	}
+	
+	public SourceStats getStats() {
+		return stats;
+	}
+	
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		
+		MockResponse response;
+		try {
+			String path = exchange.getRequestURI().getPath().substring(contextPath.length());
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			
+			server.delay();
+			
+			int remaining = acquire();
+			if(remaining < 0 || server.injectRateLimit()) {
+				stats.onRateLimited();
+				response = rateLimited();
+			}
+			else if(server.injectError()) {
+				stats.onError();
+				response = failed();
+			}
+			else {
+				response = respond(exchange.getRequestHeaders(), path, params);
+			}
+			
+			rateLimitHeaders(response, server.getRateLimit(), Math.max(remaining, 0), windowReset);
+		}
+		catch(Exception e) {
+			stats.onError();
+			response = new MockResponse(500, "text/plain; charset=UTF-8", e.toString());
+		}
+		
+		byte[] body = response.getBody() == null ? new byte[0] : response.getBody().getBytes(StandardCharsets.UTF_8);
+		
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Content-Type", response.getContentType());
+		for(Entry<String, String> header : response.getHeaders().entrySet()) {
+			headers.set(header.getKey(), header.getValue());
+		}
+		
+		exchange.sendResponseHeaders(response.getStatus(), body.length == 0 ? -1 : body.length);
+		if(body.length > 0) {
+			OutputStream output = exchange.getResponseBody();
+			output.write(body);
+			output.close();
+		}
+		exchange.close();
+		
+		stats.onRequest(body.length, System.nanoTime() - start);
+	}
+	
+	/**
+	 * @return the calls left in the current window, or -1 if the window is exhausted
+	 */
+	private synchronized int acquire() {
+		long now = System.currentTimeMillis();
+		if(now >= windowReset) {
+			windowCalls = 0;
+			windowReset = now + server.getRateLimitWindow();
+		}
+		
+		if(windowCalls >= server.getRateLimit()) {
+			return -1;
+		}
+		windowCalls++;
+		
+		return server.getRateLimit() - windowCalls;
+	}
+	
+	/**
+	 * Creates the response of a request that passed the rate limit and the error injection.
+	 * 
+	 * @param headers the headers of the request
+	 * @param path the path of the request, relative to the context of the API
+	 * @param params the decoded query parameters
+	 */
+	protected abstract MockResponse respond(Headers headers, String path, Map<String, String> params) throws Exception;
+	
+	/**
+	 * @return the response of the API when the rate limit is exceeded
+	 */
+	protected MockResponse rateLimited() {
+		return new MockResponse(429, "text/plain; charset=UTF-8", "Too Many Requests");
+	}
+	
+	/**
+	 * @return the response of the API on a transient failure
+	 */
+	protected MockResponse failed() {
+		return new MockResponse(503, "text/plain; charset=UTF-8", "Service Unavailable");
+	}
+	
+	/**
+	 * Adds the rate limit headers of the API, if it reports its quota.
+	 */
+	protected void rateLimitHeaders(MockResponse response, int limit, int remaining, long reset) {
+		
+	}
+	
+	/**
+	 * @return the absolute url of a path of the API with the given parameters
+	 */
+	protected String url(String path, Map<String, String> params) {
+		StringBuffer url = new StringBuffer(server.getBaseUrl() + contextPath + path);
+		String separator = "?";
+		for(Entry<String, String> param : params.entrySet()) {
+			url.append(separator).append(encode(param.getKey())).append("=").append(encode(param.getValue()));
+			separator = "&";
+		}
+		return url.toString();
+	}
+	
+	protected static int intParam(Map<String, String> params, String name, int defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+	
+	protected static long longParam(Map<String, String> params, String name, long defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+	
+	protected static String escapeJson(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+	
+	protected static String escapeXml(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+	
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		if(query == null || query.isEmpty()) {
+			return params;
+		}
+		
+		for(String pair : query.split("&")) {
+			int index = pair.indexOf('=');
+			if(index < 0) {
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			}
+			else {
+				params.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+	
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A response of the mock API.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class MockResponse {
+
+	private int status;
+	private String contentType;
+	private String body;
+	
+	private Map<String, String> headers = new LinkedHashMap<String, String>();
+	
+	public MockResponse(int status, String contentType, String body) {
+		this.status = status;
+		this.contentType = contentType;
+		this.body = body;
+	}
+	
+	public static MockResponse json(String body) {
+		return new MockResponse(200, "application/json; charset=UTF-8", body);
+	}
+	
+	public static MockResponse json(int status, String body) {
+		return new MockResponse(status, "application/json; charset=UTF-8", body);
+	}
+	
+	public static MockResponse xml(String body) {
+		return new MockResponse(200, "text/xml; charset=UTF-8", body);
+	}
+	
+	public static MockResponse notFound() {
+		return new MockResponse(404, "text/plain; charset=UTF-8", "Not Found");
+	}
+	
+	public MockResponse header(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+	
+	public int getStatus() {
+		return status;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	
+	public String getBody() {
+		return body;
+	}
+	
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+}
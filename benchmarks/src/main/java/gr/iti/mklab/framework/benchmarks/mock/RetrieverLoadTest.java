@@ -0,0 +1,282 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gr.iti.mklab.framework.Credentials;
+import gr.iti.mklab.framework.common.domain.MediaItem;
+import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
+import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
+import gr.iti.mklab.framework.common.domain.feeds.RssFeed;
+import gr.iti.mklab.framework.retrievers.RateLimitGovernor;
+import gr.iti.mklab.framework.retrievers.Retriever;
+import gr.iti.mklab.framework.retrievers.impl.DailyMotionRetriever;
+import gr.iti.mklab.framework.retrievers.impl.FacebookRetriever;
+import gr.iti.mklab.framework.retrievers.impl.FlickrRetriever;
+import gr.iti.mklab.framework.retrievers.impl.RssRetriever;
+import gr.iti.mklab.framework.retrievers.impl.TwitpicRetriever;
+import gr.iti.mklab.framework.retrievers.impl.TwitterRetriever;
+import gr.iti.mklab.framework.retrievers.impl.VimeoRetriever;
+import gr.iti.mklab.framework.retrievers.impl.YoutubeRetriever;
+
+/**
+ * Runs the retrievers against the mock APIs for a fixed time with a number of concurrent workers,
+ * and reports items/sec, requests/sec and the latency percentiles of retrievals and requests.
+ * 
+ * The retrievers of a load test share a new rate limit governor, so the fixed budgets of the 
+ * real APIs do not apply. Quotas reported by the mock APIs are still honoured.
+ * 
+ * Usage: java -cp target/benchmarks.jar gr.iti.mklab.framework.benchmarks.mock.RetrieverLoadTest
+ * with the system properties:
+ * <ul>
+ *   <li>threads - concurrent workers per retriever (4)</li>
+ *   <li>duration - seconds per retriever (30)</li>
+ *   <li>latency, jitter - latency of the mock APIs in milliseconds (50, 20)</li>
+ *   <li>errors - fraction of failed requests (0)</li>
+ *   <li>ratelimited - fraction of rate limited requests (0)</li>
+ *   <li>pages - pages per query (5)</li>
+ *   <li>sources - comma separated sources to test, e.g. Twitter,Flickr (all)</li>
+ * </ul>
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RetrieverLoadTest {
+
+	private Logger logger = LogManager.getLogger(RetrieverLoadTest.class);
+	
+	private static final Credentials CREDENTIALS = new Credentials("mock-key", "mock-secret", "mock-token", "mock-token-secret");
+	
+	private MockApiServer server;
+	private int threads;
+	private long duration;
+	
+	/**
+	 * @param server the started mock server
+	 * @param threads the number of concurrent workers
+	 * @param duration the duration of the test of each retriever in milliseconds
+	 */
+	public RetrieverLoadTest(MockApiServer server, int threads, long duration) {
+		this.server = server;
+		this.threads = threads;
+		this.duration = duration;
+	}
+	
+	public LoadReport run(final Workload workload) throws Exception {
+		SourceStats stats = server.getStats(workload.getSource());
+		long requests = stats.getRequests();
+		long errors = stats.getErrors();
+		long rateLimited = stats.getRateLimited();
+		stats.getLatencies().clear();
+		
+		final RateLimitGovernor governor = new RateLimitGovernor(workload.getSource());
+		final LatencyRecorder latencies = new LatencyRecorder();
+		final AtomicLong retrievals = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong items = new AtomicLong();
+		
+		final long start = System.nanoTime();
+		final long deadline = start + duration * 1000000l;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> workers = new ArrayList<Future<Void>>();
+		for(int i = 0; i < threads; i++) {
+			final int worker = i;
+			workers.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					Retriever retriever = workload.create();
+					retriever.setRateLimitGovernor(governor);
+					
+					int iteration = 0;
+					while(System.nanoTime() < deadline) {
+						long t = System.nanoTime();
+						try {
+							items.addAndGet(workload.run(retriever, worker, iteration++));
+						}
+						catch(Exception e) {
+							failures.incrementAndGet();
+							logger.error(workload.getSource() + " retrieval failed: " + e.getMessage());
+						}
+						latencies.record(System.nanoTime() - t);
+						retrievals.incrementAndGet();
+					}
+					return null;
+				}
+			}));
+		}
+		
+		try {
+			for(Future<Void> future : workers) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		long elapsed = System.nanoTime() - start;
+		
+		return new LoadReport(workload.getSource(), threads, elapsed, retrievals.get(), failures.get(), items.get(), 
+				stats.getRequests() - requests, stats.getErrors() - errors, stats.getRateLimited() - rateLimited, 
+				latencies, stats.getLatencies());
+	}
+	
+	/**
+	 * @param server the mock server
+	 * @param requests the maximum number of requests of a paginated retrieval
+	 * @return the workloads of all the retrievers that can be pointed at the mock APIs
+	 */
+	public static List<Workload> workloads(final MockApiServer server, final int requests) {
+		List<Workload> workloads = new ArrayList<Workload>();
+		
+		workloads.add(new Workload("Twitter") {
+			@Override
+			public Retriever create() {
+				return new TwitterRetriever(CREDENTIALS, server.getBaseUrl() + "/twitter/1.1/");
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) throws Exception {
+				KeywordsFeed feed = new KeywordsFeed("twitter-" + worker, "thessaloniki", 0l, "Twitter");
+				return retriever.retrieveKeywordsFeed(feed, requests).getNumberOfItems();
+			}
+		});
+		
+		workloads.add(new Workload("Facebook") {
+			@Override
+			public Retriever create() {
+				return new FacebookRetriever(CREDENTIALS, server.getBaseUrl() + "/facebook/v2.5");
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) throws Exception {
+				AccountFeed feed = new AccountFeed("1000" + worker, "mockpage" + worker, 0l, "Facebook");
+				return retriever.retrieveAccountFeed(feed, requests).getNumberOfItems();
+			}
+		});
+		
+		workloads.add(new Workload("Youtube") {
+			@Override
+			public Retriever create() {
+				return new YoutubeRetriever(CREDENTIALS, server.getBaseUrl() + "/youtube/");
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) throws Exception {
+				KeywordsFeed feed = new KeywordsFeed("youtube-" + worker, "thessaloniki", 0l, "Youtube");
+				return retriever.retrieveKeywordsFeed(feed, requests).getNumberOfItems();
+			}
+		});
+		
+		workloads.add(new Workload("Flickr") {
+			@Override
+			public Retriever create() {
+				return new FlickrRetriever(CREDENTIALS, server.getHost(), server.getPort());
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) throws Exception {
+				KeywordsFeed feed = new KeywordsFeed("flickr-" + worker, "thessaloniki", 0l, "Flickr");
+				return retriever.retrieveKeywordsFeed(feed, requests).getNumberOfItems();
+			}
+		});
+		
+		workloads.add(new Workload("RSS") {
+			@Override
+			public Retriever create() {
+				return new RssRetriever(CREDENTIALS);
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) throws Exception {
+				// the url of the feed is the only thing that points the retriever to the mock api
+				String url = server.getBaseUrl() + "/rss/feed-" + worker + "-" + (iteration % 10);
+				RssFeed feed = new RssFeed("rss-" + worker, url, 0l);
+				return retriever.retrieve(feed, requests).getNumberOfItems();
+			}
+		});
+		
+		workloads.add(new Workload("Vimeo") {
+			@Override
+			public Retriever create() {
+				return new VimeoRetriever(CREDENTIALS, server.getBaseUrl() + "/vimeo/api/v2/video/");
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) {
+				MediaItem mediaItem = retriever.getMediaItem(Integer.toString(1000000 * worker + iteration));
+				return mediaItem == null ? 0 : 1;
+			}
+		});
+		
+		workloads.add(new Workload("DailyMotion") {
+			@Override
+			public Retriever create() {
+				return new DailyMotionRetriever(CREDENTIALS, server.getBaseUrl() + "/dailymotion/video/");
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) {
+				MediaItem mediaItem = retriever.getMediaItem("x" + Integer.toString(1000000 * worker + iteration, 36));
+				return mediaItem == null ? 0 : 1;
+			}
+		});
+		
+		workloads.add(new Workload("Twitpic") {
+			@Override
+			public Retriever create() {
+				return new TwitpicRetriever(CREDENTIALS, server.getBaseUrl() + "/twitpic/2/media/show.json?id=");
+			}
+
+			@Override
+			public int run(Retriever retriever, int worker, int iteration) {
+				MediaItem mediaItem = retriever.getMediaItem(Integer.toString(1000000 * worker + iteration, 36));
+				return mediaItem == null ? 0 : 1;
+			}
+		});
+		
+		return workloads;
+	}
+	
+	public static void main(String...args) throws Exception {
+		int threads = Integer.getInteger("threads", 4);
+		long duration = Long.getLong("duration", 30l) * 1000l;
+		int pages = Integer.getInteger("pages", 5);
+		String sources = System.getProperty("sources");
+		
+		MockApiServer server = new MockApiServer();
+		server.setLatency(Long.getLong("latency", 50l), Long.getLong("jitter", 20l));
+		server.setErrorRate(Double.parseDouble(System.getProperty("errors", "0")));
+		server.setRateLimitRate(Double.parseDouble(System.getProperty("ratelimited", "0")));
+		server.setPages(pages);
+		server.start();
+		
+		try {
+			RetrieverLoadTest loadTest = new RetrieverLoadTest(server, threads, duration);
+			
+			List<LoadReport> reports = new ArrayList<LoadReport>();
+			for(Workload workload : workloads(server, pages)) {
+				if(sources != null && !Arrays.asList(sources.split(",")).contains(workload.getSource())) {
+					continue;
+				}
+				reports.add(loadTest.run(workload));
+			}
+			
+			System.out.println(LoadReport.header());
+			for(LoadReport report : reports) {
+				System.out.println(report);
+			}
+		}
+		finally {
+			server.stop();
+		}
+	}
+}
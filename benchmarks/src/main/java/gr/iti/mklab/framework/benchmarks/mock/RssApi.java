@@ -0,0 +1,69 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * RSS 2.0 feeds at /rss/{name}. Every feed gets a new entry per minute, and answers 
+ * conditional requests with 304 Not Modified while it is unchanged.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RssApi extends MockHandler {
+
+	private static final long UPDATE_INTERVAL = 60 * 1000l;
+	
+	public RssApi(MockApiServer server) {
+		super("RSS", "/rss/", server);
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		String name = escapeXml(path);
+		
+		long version = System.currentTimeMillis() / UPDATE_INTERVAL;
+		String etag = "\"" + name + "-" + version + "\"";
+		
+		SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		String lastModified = dateFormat.format(new Date(version * UPDATE_INTERVAL));
+		
+		if(etag.equals(headers.getFirst("If-None-Match"))) {
+			return new MockResponse(304, "application/rss+xml; charset=UTF-8", null)
+					.header("ETag", etag)
+					.header("Last-Modified", lastModified);
+		}
+		
+		String link = server.getBaseUrl() + getContextPath() + name;
+		StringBuffer body = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\">\n<channel>\n");
+		body.append("<title>Mock feed ").append(name).append("</title>\n")
+			.append("<link>").append(link).append("</link>\n")
+			.append("<description>Synthetic feed of the mock API</description>\n")
+			.append("<language>en</language>\n")
+			.append("<lastBuildDate>").append(lastModified).append("</lastBuildDate>\n");
+		for(int i = 0; i < server.getFeedSize(); i++) {
+			long entry = version - i;
+			String entryLink = link + "/articles/" + entry;
+			body.append("<item>\n")
+				.append("<title>Article ").append(entry).append(" of ").append(name).append("</title>\n")
+				.append("<link>").append(entryLink).append("</link>\n")
+				.append("<guid isPermaLink=\"true\">").append(entryLink).append("</guid>\n")
+				.append("<pubDate>").append(dateFormat.format(new Date(entry * UPDATE_INTERVAL))).append("</pubDate>\n")
+				.append("<author>newsroom@example.com (Newsroom)</author>\n")
+				.append("<category>News</category>\n")
+				.append("<description><![CDATA[<p>The White Tower and the promenade along Nikis Avenue, <a href=\"")
+				.append(entryLink).append("\">read more</a>.</p><img src=\"").append(link).append("/images/").append(entry).append(".jpg\"/>]]></description>\n")
+				.append("</item>\n");
+		}
+		body.append("</channel>\n</rss>");
+		
+		return new MockResponse(200, "application/rss+xml; charset=UTF-8", body.toString())
+				.header("ETag", etag)
+				.header("Last-Modified", lastModified);
+	}
+}
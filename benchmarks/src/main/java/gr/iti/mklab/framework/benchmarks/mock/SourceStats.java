@@ -0,0 +1,52 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the requests served by the mock API of a source.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class SourceStats {
+
+	private AtomicLong requests = new AtomicLong();
+	private AtomicLong errors = new AtomicLong();
+	private AtomicLong rateLimited = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	
+	private LatencyRecorder latencies = new LatencyRecorder();
+	
+	void onRequest(long length, long nanos) {
+		requests.incrementAndGet();
+		bytes.addAndGet(length);
+		latencies.record(nanos);
+	}
+	
+	void onError() {
+		errors.incrementAndGet();
+	}
+	
+	void onRateLimited() {
+		rateLimited.incrementAndGet();
+	}
+	
+	public long getRequests() {
+		return requests.get();
+	}
+	
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	public long getRateLimited() {
+		return rateLimited.get();
+	}
+	
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+	public LatencyRecorder getLatencies() {
+		return latencies;
+	}
+}
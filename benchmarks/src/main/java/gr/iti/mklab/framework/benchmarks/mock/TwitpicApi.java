@@ -0,0 +1,36 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Twitpic API: 2/media/show.json?id={short id}
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class TwitpicApi extends MockHandler {
+
+	public TwitpicApi(MockApiServer server) {
+		super("Twitpic", "/twitpic/2/media/", server);
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		if(!path.equals("show.json") || !params.containsKey("id")) {
+			return MockResponse.json(404, "{\"errors\":[{\"code\":404,\"message\":\"Media not found\"}]}");
+		}
+		
+		String id = escapeJson(params.get("id"));
+		
+		String body = "{\"id\":\"" + Math.abs(id.hashCode()) + "\",\"short_id\":\"" + id + "\",\"type\":\"jpg\","
+				+ "\"message\":\"Thessaloniki waterfront at dusk #greece\",\"tags\":\"greece\","
+				+ "\"views\":2841,\"number_of_comments\":3,\"width\":1024,\"height\":768,"
+				+ "\"timestamp\":\"2013-05-02 17:00:01\",\"location\":\"Thessaloniki\",\"user_id\":\"4111002\","
+				+ "\"user\":{\"id\":\"4111002\",\"username\":\"mockuser\",\"name\":\"Mock User\",\"bio\":\"Synthetic user\","
+				+ "\"avatar_url\":\"https://twitpic.com/show/mini/mockuser\",\"timestamp\":\"2009-03-02 11:12:13\","
+				+ "\"location\":\"Thessaloniki\",\"photo_count\":123}}";
+		
+		return MockResponse.json(body);
+	}
+}
@@ -0,0 +1,125 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+
+import gr.iti.mklab.framework.benchmarks.Fixtures;
+
+/**
+ * Twitter REST API 1.1: search/tweets, statuses/user_timeline, lists/statuses and application/rate_limit_status.
+ * 
+ * Status ids follow the layout of the Twitter ids, with the time of the first request of a 
+ * query in the high bits and the position of the status in the result in the low bits. 
+ * Every query has pages * count results, walked back with max_id and bounded by since_id.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class TwitterApi extends MockHandler {
+
+	private static final long TWEPOCH = 1288834974657l;
+	private static final long SEQUENCE_MASK = (1l << 22) - 1;
+	
+	private static final String TEMPLATE_ID = "850007368138018817";
+	
+	private String status;
+	
+	public TwitterApi(MockApiServer server) throws IOException {
+		super("Twitter", "/twitter/1.1/", server);
+		status = Fixtures.read("twitter-status.json");
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		if(path.equals("search/tweets.json")) {
+			List<Long> ids = ids(params, 15);
+			long sinceId = longParam(params, "since_id", 0l);
+			long maxId = ids.isEmpty() ? sinceId : ids.get(0);
+			String query = escapeJson(params.containsKey("q") ? params.get("q") : "");
+			
+			StringBuffer body = new StringBuffer("{\"statuses\":");
+			statuses(ids, body);
+			body.append(",\"search_metadata\":{\"completed_in\":0.012,")
+				.append("\"max_id\":").append(maxId).append(",\"max_id_str\":\"").append(maxId).append("\",")
+				.append("\"query\":\"").append(query).append("\",")
+				.append("\"count\":").append(ids.size()).append(",")
+				.append("\"since_id\":").append(sinceId).append(",\"since_id_str\":\"").append(sinceId).append("\"}}");
+			
+			return MockResponse.json(body.toString());
+		}
+		
+		if(path.equals("statuses/user_timeline.json") || path.equals("lists/statuses.json")) {
+			StringBuffer body = new StringBuffer();
+			statuses(ids(params, 20), body);
+			
+			return MockResponse.json(body.toString());
+		}
+		
+		if(path.equals("application/rate_limit_status.json")) {
+			String limit = "{\"limit\":" + server.getRateLimit() + ",\"remaining\":" + server.getRateLimit() 
+					+ ",\"reset\":" + ((System.currentTimeMillis() + server.getRateLimitWindow()) / 1000) + "}";
+			String body = "{\"rate_limit_context\":{\"access_token\":\"mock\"},\"resources\":{"
+					+ "\"search\":{\"/search/tweets\":" + limit + "},"
+					+ "\"statuses\":{\"/statuses/user_timeline\":" + limit + "},"
+					+ "\"lists\":{\"/lists/statuses\":" + limit + "}}}";
+			
+			return MockResponse.json(body);
+		}
+		
+		return MockResponse.json(404, "{\"errors\":[{\"code\":34,\"message\":\"Sorry, that page does not exist.\"}]}");
+	}
+	
+	@Override
+	protected MockResponse rateLimited() {
+		return MockResponse.json(429, "{\"errors\":[{\"code\":88,\"message\":\"Rate limit exceeded\"}]}");
+	}
+	
+	@Override
+	protected MockResponse failed() {
+		return MockResponse.json(503, "{\"errors\":[{\"code\":130,\"message\":\"Over capacity\"}]}");
+	}
+	
+	@Override
+	protected void rateLimitHeaders(MockResponse response, int limit, int remaining, long reset) {
+		response.header("x-rate-limit-limit", Integer.toString(limit))
+			.header("x-rate-limit-remaining", Integer.toString(remaining))
+			.header("x-rate-limit-reset", Long.toString(reset / 1000));
+	}
+	
+	private List<Long> ids(Map<String, String> params, int defaultCount) {
+		int count = intParam(params, "count", defaultCount);
+		long sinceId = longParam(params, "since_id", 0l);
+		long depth = Math.min((long) server.getPages() * count, SEQUENCE_MASK);
+		
+		long maxId;
+		if(params.containsKey("max_id")) {
+			maxId = Long.parseLong(params.get("max_id"));
+		}
+		else {
+			maxId = ((System.currentTimeMillis() - TWEPOCH) << 22) | (depth - 1);
+		}
+		
+		List<Long> ids = new ArrayList<Long>();
+		for(long id = maxId; ids.size() < count && id > sinceId && (id & SEQUENCE_MASK) < depth; id--) {
+			ids.add(id);
+			if((id & SEQUENCE_MASK) == 0) {
+				break;
+			}
+		}
+		return ids;
+	}
+	
+	private void statuses(List<Long> ids, StringBuffer body) {
+		body.append("[");
+		for(int i = 0; i < ids.size(); i++) {
+			if(i > 0) {
+				body.append(",");
+			}
+			body.append(status.replace(TEMPLATE_ID, Long.toString(ids.get(i))));
+		}
+		body.append("]");
+	}
+}
@@ -0,0 +1,37 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Vimeo simple API: video/{id}.json
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class VimeoApi extends MockHandler {
+
+	public VimeoApi(MockApiServer server) {
+		super("Vimeo", "/vimeo/api/v2/video/", server);
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		if(!path.endsWith(".json")) {
+			return MockResponse.notFound();
+		}
+		
+		String id = path.substring(0, path.length() - 5);
+		int videoId = id.matches("\\d+") ? Integer.parseInt(id) : Math.abs(id.hashCode());
+		
+		String body = "[{\"id\":" + videoId + ",\"title\":\"Thessaloniki waterfront at dusk\","
+				+ "\"description\":\"The White Tower and the promenade along Nikis Avenue.\","
+				+ "\"url\":\"https://vimeo.com/" + videoId + "\",\"upload_date\":\"2017-05-02 17:00:01\","
+				+ "\"thumbnail_large\":\"https://i.vimeocdn.com/video/" + videoId + "_640.jpg\","
+				+ "\"user_id\":4111002,\"user_name\":\"Mock User\","
+				+ "\"stats_number_of_likes\":128,\"stats_number_of_plays\":10234,\"stats_number_of_comments\":12,"
+				+ "\"duration\":184,\"width\":1280,\"height\":720,\"tags\":\"thessaloniki, greece, aerial\"}]";
+		
+		return MockResponse.json(body);
+	}
+}
@@ -0,0 +1,39 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import gr.iti.mklab.framework.retrievers.Retriever;
+
+/**
+ * A retrieval that is repeated by the workers of a load test.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public abstract class Workload {
+
+	private String source;
+	
+	/**
+	 * @param source the source of the mock API used by the retriever, e.g. Twitter
+	 */
+	public Workload(String source) {
+		this.source = source;
+	}
+	
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * Creates a retriever that is pointed at the mock API. Every worker gets its own retriever.
+	 */
+	public abstract Retriever create() throws Exception;
+	
+	/**
+	 * Runs a single retrieval.
+	 * 
+	 * @param retriever the retriever of the worker
+	 * @param worker the index of the worker
+	 * @param iteration the number of retrievals of the worker so far
+	 * @return the number of retrieved items
+	 */
+	public abstract int run(Retriever retriever, int worker, int iteration) throws Exception;
+}
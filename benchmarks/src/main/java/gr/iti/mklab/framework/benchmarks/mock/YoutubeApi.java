@@ -0,0 +1,104 @@
+package gr.iti.mklab.framework.benchmarks.mock;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.Headers;
+
+import gr.iti.mklab.framework.benchmarks.Fixtures;
+
+/**
+ * YouTube Data API v3: search, paginated with page tokens, and videos and channels lookups by id.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class YoutubeApi extends MockHandler {
+
+	private static final String TEMPLATE_VIDEO_ID = "Ks-_Mh1QhMc";
+	private static final String TEMPLATE_CHANNEL_ID = "UCAuUUnT6oDeKwE6v1NGQxug";
+	
+	private String video;
+	private String channel;
+	
+	private AtomicLong videoIds = new AtomicLong();
+	
+	public YoutubeApi(MockApiServer server) throws IOException {
+		super("Youtube", "/youtube/", server);
+		video = Fixtures.read("youtube-video.json");
+		channel = Fixtures.read("youtube-channel.json");
+	}
+
+	@Override
+	protected MockResponse respond(Headers headers, String path, Map<String, String> params) {
+		if(path.equals("youtube/v3/search")) {
+			int maxResults = intParam(params, "maxResults", 5);
+			int page = params.containsKey("pageToken") ? Integer.parseInt(params.get("pageToken").substring(1)) : 0;
+			
+			StringBuffer body = new StringBuffer("{\"kind\":\"youtube#searchListResponse\",\"etag\":\"\\\"mock\\\"\",");
+			if(page + 1 < server.getPages()) {
+				body.append("\"nextPageToken\":\"P").append(page + 1).append("\",");
+			}
+			body.append("\"regionCode\":\"GR\",\"pageInfo\":{\"totalResults\":").append(server.getPages() * maxResults)
+				.append(",\"resultsPerPage\":").append(maxResults).append("},\"items\":[");
+			if(page < server.getPages()) {
+				for(int i = 0; i < maxResults; i++) {
+					if(i > 0) {
+						body.append(",");
+					}
+					String videoId = "mock" + Long.toString(videoIds.incrementAndGet(), 36);
+					body.append("{\"kind\":\"youtube#searchResult\",\"etag\":\"\\\"mock\\\"\",\"id\":{\"kind\":\"youtube#video\",\"videoId\":\"")
+						.append(videoId).append("\"}}");
+				}
+			}
+			body.append("]}");
+			
+			return MockResponse.json(body.toString());
+		}
+		
+		if(path.equals("youtube/v3/videos")) {
+			return MockResponse.json(list("youtube#videoListResponse", video, TEMPLATE_VIDEO_ID, params.get("id")));
+		}
+		
+		if(path.equals("youtube/v3/channels")) {
+			String ids = params.containsKey("id") ? params.get("id") : params.get("forUsername");
+			return MockResponse.json(list("youtube#channelListResponse", channel, TEMPLATE_CHANNEL_ID, ids));
+		}
+		
+		return MockResponse.json(404, error(404, "notFound", "Not Found"));
+	}
+	
+	@Override
+	protected MockResponse rateLimited() {
+		return MockResponse.json(403, error(403, "rateLimitExceeded", "The request cannot be completed because you have exceeded your quota."));
+	}
+	
+	@Override
+	protected MockResponse failed() {
+		return MockResponse.json(503, error(503, "backendError", "Backend Error"));
+	}
+	
+	private static String list(String kind, String template, String templateId, String ids) {
+		StringBuffer body = new StringBuffer("{\"kind\":\"").append(kind).append("\",\"etag\":\"\\\"mock\\\"\",\"items\":[");
+		if(ids != null && !ids.isEmpty()) {
+			String[] parts = ids.split(",");
+			for(int i = 0; i < parts.length; i++) {
+				if(i > 0) {
+					body.append(",");
+				}
+				body.append(template.replace(templateId, parts[i]));
+			}
+			body.append("],\"pageInfo\":{\"totalResults\":").append(parts.length).append(",\"resultsPerPage\":").append(parts.length).append("}}");
+		}
+		else {
+			body.append("],\"pageInfo\":{\"totalResults\":0,\"resultsPerPage\":0}}");
+		}
+		return body.toString();
+	}
+	
+	private static String error(int code, String reason, String message) {
+		String domain = code == 403 ? "youtube.quota" : "global";
+		return "{\"error\":{\"errors\":[{\"domain\":\"" + domain + "\",\"reason\":\"" + reason + "\",\"message\":\"" + escapeJson(message) + "\"}],"
+				+ "\"code\":" + code + ",\"message\":\"" + escapeJson(message) + "\"}}";
+	}
+}
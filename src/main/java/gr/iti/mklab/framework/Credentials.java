@@ -1,6 +1,7 @@
 package gr.iti.mklab.framework;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public class Credentials implements Serializable {
 
@@ -68,4 +69,25 @@ public class Credentials implements Serializable {
 		return clientId;
 	}
 	
+	@Override
+	public int hashCode() {
+		return Objects.hash(key, secret, accessToken, accessTokenSecret, clientId);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof Credentials)) {
+			return false;
+		}
+		
+		Credentials other = (Credentials) obj;
+		return Objects.equals(key, other.key) && Objects.equals(secret, other.secret)
+				&& Objects.equals(accessToken, other.accessToken) 
+				&& Objects.equals(accessTokenSecret, other.accessTokenSecret)
+				&& Objects.equals(clientId, other.clientId);
+	}
+	
 }
@@ -0,0 +1,435 @@
+package gr.iti.mklab.framework.abstractions.socialmedia.items;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import com.rometools.rome.io.impl.DateParser;
+
+/**
+ * Extracts the article of a web page: its title, main text, publication date, author, tags and
+ * images, as well as the links of the page.
+ *
+ * The main text is taken from the longest article element of the page. Pages without one are
+ * scored as in Readability: every paragraph adds to the score of its parent and grandparent,
+ * the scores are weighted by the class and id of the elements and by their link density, and
+ * the element with the highest score holds the text. Navigation, comments, sharing widgets
+ * and similar elements are removed first.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class ArticleExtractor {
+
+	// a page with less text than this is not an article, e.g. a section page or a gallery
+	private static final int MIN_TEXT_LENGTH = 500;
+	private static final int MIN_PARAGRAPH_LENGTH = 25;
+
+	private static final Pattern UNLIKELY = Pattern.compile(
+			"comment|share|social|related|sidebar|promo|sponsor|popup|cookie|newsletter|advert|breadcrumb|menu|footer|masthead|banner|disqus",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern MAYBE = Pattern.compile("article|body|content|main|story|post|entry|text",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern POSITIVE = Pattern.compile("article|body|content|entry|main|page|post|text|blog|story",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern NEGATIVE = Pattern.compile(
+			"combx|comment|contact|foot|footer|footnote|masthead|media|meta|outbrain|promo|related|scroll|shoutbox|sidebar|sponsor|shopping|tags|tool|widget",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final String NOISE = "script, style, noscript, template, iframe, form, button, nav, aside, footer, select, svg";
+	private static final String TEXT_BLOCKS = "p, pre, blockquote, li, h2, h3, h4, h5, h6";
+	private static final Set<String> BLOCK_TAGS = new HashSet<String>(Arrays.asList(TEXT_BLOCKS.split(", ")));
+
+	private static final String[] DATES = {
+		"meta[property=article:published_time]", "meta[itemprop=datePublished]", "meta[name=pubdate]",
+		"meta[name=publishdate]", "meta[name=date]", "meta[name=dc.date]", "meta[name=DC.date.issued]",
+		"meta[property=og:updated_time]"
+	};
+
+	/**
+	 * Extracts the article of a parsed page. The document is modified, as the elements that do
+	 * not belong to the article are removed from it.
+	 *
+	 * @param doc the page, parsed with the url of the page as its base uri
+	 * @return the article
+	 */
+	public static Article extract(Document doc) {
+		Article article = new Article();
+
+		article.url = getUrl(doc);
+		article.links = getLinks(doc, article.url);
+
+		article.title = meta(doc, "meta[property=og:title]");
+		article.description = meta(doc, "meta[name=description]");
+		if(article.description == null) {
+			article.description = meta(doc, "meta[property=og:description]");
+		}
+		article.author = meta(doc, "meta[name=author]");
+		if(article.author == null) {
+			article.author = meta(doc, "meta[property=article:author]");
+		}
+		article.tags = getTags(doc);
+
+		String image = null;
+		Element ogImage = doc.select("meta[property=og:image][content]").first();
+		if(ogImage != null && !ogImage.absUrl("content").isEmpty()) {
+			image = ogImage.absUrl("content");
+			article.images.add(new HtmlExtractor.Image(image, article.title, meta(doc, "meta[property=og:image:width]"),
+					meta(doc, "meta[property=og:image:height]")));
+		}
+
+		// the links are collected before the navigation is removed
+		clean(doc);
+
+		Element content = getContent(doc);
+		if(content == null) {
+			return article;
+		}
+
+		article.text = getText(content);
+		if(article.title == null) {
+			Element h1 = content.select("h1").first();
+			if(h1 == null) {
+				h1 = doc.select("h1").first();
+			}
+			article.title = h1 != null ? h1.text() : doc.title();
+		}
+		if(article.description == null) {
+			Element p = content.select("p").first();
+			if(p != null) {
+				article.description = p.text();
+			}
+		}
+
+		article.publicationDate = getPublicationDate(doc, content);
+
+		for(Element img : content.select("img[src]")) {
+			String src = img.absUrl("src");
+			if(src.isEmpty() || src.equals(image)) {
+				continue;
+			}
+			article.images.add(new HtmlExtractor.Image(src, img.attr("alt"), img.attr("width"), img.attr("height")));
+		}
+
+		return article;
+	}
+
+	private static String getUrl(Document doc) {
+		Element canonical = doc.select("link[rel=canonical][href]").first();
+		if(canonical != null && !canonical.absUrl("href").isEmpty()) {
+			return canonical.absUrl("href");
+		}
+
+		Element ogUrl = doc.select("meta[property=og:url][content]").first();
+		if(ogUrl != null && !ogUrl.absUrl("content").isEmpty()) {
+			return ogUrl.absUrl("content");
+		}
+
+		return doc.baseUri();
+	}
+
+	private static List<String> getLinks(Document doc, String url) {
+		Set<String> links = new LinkedHashSet<String>();
+		for(Element a : doc.select("a[href]")) {
+			String link = a.absUrl("href");
+			if(!link.startsWith("http://") && !link.startsWith("https://")) {
+				continue;
+			}
+
+			int fragment = link.indexOf('#');
+			if(fragment > 0) {
+				link = link.substring(0, fragment);
+			}
+			if(!link.equals(url) && !link.equals(doc.baseUri())) {
+				links.add(link);
+			}
+		}
+		return new ArrayList<String>(links);
+	}
+
+	private static List<String> getTags(Document doc) {
+		Set<String> tags = new LinkedHashSet<String>();
+
+		String keywords = meta(doc, "meta[name=keywords]");
+		if(keywords != null) {
+			for(String keyword : keywords.split(",")) {
+				if(!keyword.trim().isEmpty()) {
+					tags.add(keyword.trim());
+				}
+			}
+		}
+		for(Element tag : doc.select("meta[property=article:tag]")) {
+			if(!tag.attr("content").trim().isEmpty()) {
+				tags.add(tag.attr("content").trim());
+			}
+		}
+
+		return new ArrayList<String>(tags);
+	}
+
+	private static Date getPublicationDate(Document doc, Element content) {
+		for(String query : DATES) {
+			Date date = parseDate(meta(doc, query));
+			if(date != null) {
+				return date;
+			}
+		}
+
+		Elements times = content.select("time[datetime], [itemprop=datePublished]");
+		times.addAll(doc.select("time[datetime], [itemprop=datePublished]"));
+		for(Element time : times) {
+			String value = time.hasAttr("datetime") ? time.attr("datetime") : time.attr("content");
+			Date date = parseDate(value);
+			if(date != null) {
+				return date;
+			}
+		}
+
+		return null;
+	}
+
+	private static Date parseDate(String date) {
+		if(date == null || date.trim().isEmpty()) {
+			return null;
+		}
+		return DateParser.parseDate(date.trim(), Locale.US);
+	}
+
+	/**
+	 * Removes the elements that never hold the text of an article.
+	 */
+	private static void clean(Document doc) {
+		doc.select(NOISE).remove();
+
+		List<Element> unlikely = new ArrayList<Element>();
+		for(Element element : doc.body().getAllElements()) {
+			String tag = element.tagName();
+			if(tag.equals("body") || tag.equals("article") || tag.equals("main")) {
+				continue;
+			}
+
+			String classAndId = element.className() + " " + element.id();
+			if(classAndId.length() > 1 && UNLIKELY.matcher(classAndId).find() && !MAYBE.matcher(classAndId).find()) {
+				unlikely.add(element);
+			}
+		}
+		for(Element element : unlikely) {
+			element.remove();
+		}
+	}
+
+	private static Element getContent(Document doc) {
+		// the longest article element, unless all of them are teasers
+		Element longest = null;
+		int longestLength = 0;
+		for(Element article : doc.getElementsByTag("article")) {
+			int length = article.text().length();
+			if(length > longestLength) {
+				longest = article;
+				longestLength = length;
+			}
+		}
+		if(longest != null && longestLength >= MIN_TEXT_LENGTH) {
+			return longest;
+		}
+
+		Map<Element, Double> scores = new IdentityHashMap<Element, Double>();
+		for(Element paragraph : doc.select("p, pre")) {
+			String text = paragraph.text();
+			if(text.length() < MIN_PARAGRAPH_LENGTH) {
+				continue;
+			}
+
+			double score = 1 + text.split(",").length + Math.min(text.length() / 100, 3);
+
+			Element parent = paragraph.parent();
+			if(parent != null) {
+				addScore(scores, parent, score);
+				if(parent.parent() != null) {
+					addScore(scores, parent.parent(), score / 2);
+				}
+			}
+		}
+
+		Element best = null;
+		double bestScore = 0;
+		for(Map.Entry<Element, Double> e : scores.entrySet()) {
+			double score = e.getValue() * (1 - getLinkDensity(e.getKey()));
+			if(score > bestScore) {
+				best = e.getKey();
+				bestScore = score;
+			}
+		}
+
+		return best != null ? best : doc.body();
+	}
+
+	private static void addScore(Map<Element, Double> scores, Element element, double score) {
+		Double current = scores.get(element);
+		if(current == null) {
+			current = (double) getClassWeight(element);
+		}
+		scores.put(element, current + score);
+	}
+
+	private static int getClassWeight(Element element) {
+		int weight = 0;
+		for(String name : new String[] {element.className(), element.id()}) {
+			if(name.isEmpty()) {
+				continue;
+			}
+			if(NEGATIVE.matcher(name).find()) {
+				weight -= 25;
+			}
+			if(POSITIVE.matcher(name).find()) {
+				weight += 25;
+			}
+		}
+		return weight;
+	}
+
+	private static double getLinkDensity(Element element) {
+		int length = element.text().length();
+		if(length == 0) {
+			return 0;
+		}
+
+		int linkLength = 0;
+		for(Element a : element.getElementsByTag("a")) {
+			linkLength += a.text().length();
+		}
+		return (double) linkLength / length;
+	}
+
+	/**
+	 * @return the text of the blocks of the element, one per line, or its whole text if it has no blocks
+	 */
+	private static String getText(Element content) {
+		StringBuilder text = new StringBuilder();
+
+		Elements blocks = content.select(TEXT_BLOCKS);
+		for(Element block : blocks) {
+			if(isNested(block, content)) {
+				continue;
+			}
+
+			String blockText = block.text();
+			if(blockText.isEmpty()) {
+				continue;
+			}
+			if(text.length() > 0) {
+				text.append('\n');
+			}
+			text.append(blockText);
+		}
+
+		if(text.length() == 0) {
+			return content.text();
+		}
+		return text.toString();
+	}
+
+	private static boolean isNested(Element block, Element content) {
+		Element parent = block.parent();
+		while(parent != null && parent != content) {
+			if(BLOCK_TAGS.contains(parent.tagName())) {
+				return true;
+			}
+			parent = parent.parent();
+		}
+		return false;
+	}
+
+	private static String meta(Document doc, String query) {
+		Element meta = doc.select(query).first();
+		if(meta == null) {
+			return null;
+		}
+
+		String content = meta.attr("content").trim();
+		return content.isEmpty() ? null : content;
+	}
+
+	/**
+	 * The article of a page. The values that are missing are null.
+	 */
+	public static class Article {
+
+		private String url;
+		private String title;
+		private String description;
+		private String text = "";
+		private String author;
+		private Date publicationDate;
+
+		private List<String> tags = new ArrayList<String>();
+		private List<HtmlExtractor.Image> images = new ArrayList<HtmlExtractor.Image>();
+		private List<String> links = new ArrayList<String>();
+
+		/**
+		 * @return true if the page holds enough text to be an article
+		 */
+		public boolean isArticle() {
+			return text.length() >= MIN_TEXT_LENGTH;
+		}
+
+		/**
+		 * @return the canonical url of the page
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * @return the main text of the page, one block per line
+		 */
+		public String getText() {
+			return text;
+		}
+
+		public String getAuthor() {
+			return author;
+		}
+
+		public Date getPublicationDate() {
+			return publicationDate;
+		}
+
+		public List<String> getTags() {
+			return tags;
+		}
+
+		/**
+		 * @return the images of the article, the og:image of the page first
+		 */
+		public List<HtmlExtractor.Image> getImages() {
+			return images;
+		}
+
+		/**
+		 * @return the absolute http links of the page, without fragments, in document order
+		 */
+		public List<String> getLinks() {
+			return links;
+		}
+	}
+}
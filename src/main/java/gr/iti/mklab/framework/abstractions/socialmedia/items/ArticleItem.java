@@ -0,0 +1,86 @@
+package gr.iti.mklab.framework.abstractions.socialmedia.items;
+
+import java.util.List;
+
+import gr.iti.mklab.framework.common.domain.Item;
+import gr.iti.mklab.framework.common.domain.MediaItem;
+
+/**
+ * Class that holds the information of an article of a web page
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class ArticleItem extends Item {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -3418472815071538409L;
+
+	private static final String SOURCE = "Web";
+
+	public ArticleItem() {
+
+	}
+
+	/**
+	 * @param article the article of the page. An article without a date has no publication time.
+	 */
+	public ArticleItem(ArticleExtractor.Article article) {
+
+		if(article == null || article.getUrl() == null) {
+			return;
+		}
+
+		//Id
+		id = article.getUrl();
+
+		//The URL where the document can be found
+		pageUrl = article.getUrl();
+
+		title = article.getTitle();
+		description = article.getDescription();
+		text = article.getText();
+
+		//Document's time of publication
+		if(article.getPublicationDate() != null) {
+			publicationTime = article.getPublicationDate().getTime();
+		}
+
+		uid = article.getAuthor();
+
+		List<String> tagsList = article.getTags();
+		tags = tagsList.toArray(new String[tagsList.size()]);
+
+		for(HtmlExtractor.Image img : article.getImages()) {
+			MediaItem mi = new MediaItem();
+
+			mi.setId(img.getSrc());
+			mi.setUrl(img.getSrc());
+			mi.setTitle(img.getAlt());
+			mi.setReference(pageUrl);
+			mi.setType("image");
+
+			String w = img.getWidth();
+			String h = img.getHeight();
+			if(w != null && h != null && !w.equals("") && !h.equals("")) {
+				try {
+					int width = Integer.parseInt(w);
+					int height = Integer.parseInt(h);
+					if(width>1 && height>1) {
+						mi.setSize(width, height);
+					}
+				}
+				catch(Exception e) {}
+			}
+
+			if(!mediaIds.contains(mi.getId())) {
+				mediaItems.add(mi);
+				mediaIds.add(mi.getId());
+			}
+		}
+
+		source = SOURCE;
+	}
+
+}
@@ -54,12 +54,18 @@ public class FacebookItem extends Item {
 		source = Source.Facebook.toString();
 		
 		//Timestamp of the creation of the post
-		publicationTime = post.getCreatedTime().getTime();
+		if(post.getCreatedTime() != null) {
+			publicationTime = post.getCreatedTime().getTime();
+		}
 		
 		//is this the original or a shared fb post
 		original = true;
 		
+		//the type is missing when the post is requested with few fields
 		String type = post.getType();
+		if(type == null) {
+			type = "status";
+		}
 			
   		description = post.getDescription();
   		
@@ -133,7 +139,7 @@ public class FacebookItem extends Item {
 				likes = postLikes.getTotalCount();
 			}
 		}
-		else {
+		else if(post.getLikesCount() != null) {
 			likes = post.getLikesCount();
 		}
 		
@@ -358,7 +364,9 @@ public class FacebookItem extends Item {
 		id = Source.Facebook+"#"+comment.getId();
 		
 		//Reference to the original post
-		reference = Source.Facebook+"#"+post.getId();
+		if(post != null) {
+			reference = Source.Facebook+"#"+post.getId();
+		}
 		
 		//SocialNetwork Name
 		source = Source.Facebook.toString();
@@ -379,7 +387,9 @@ public class FacebookItem extends Item {
 		//All the text inside the comment
 		text = msg; 
 		
-		pageUrl = "https://www.facebook.com/" + post.getId();
+		if(post != null) {
+			pageUrl = "https://www.facebook.com/" + post.getId();
+		}
 		
 		//User that posted the comment
 		if(user != null) {
@@ -43,7 +43,9 @@ public class FlickrItem extends Item {
 		//SocialNetwork Name
 		source = Source.Flickr.toString();
 		//Timestamp of the creation of the photo
-		publicationTime = photo.getDatePosted().getTime();
+		if(photo.getDatePosted() != null) {
+			publicationTime = photo.getDatePosted().getTime();
+		}
 		//Title of the photo
 		if(photo.getTitle()!=null){
 			
@@ -5,11 +5,6 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
 import com.google.api.services.plus.model.Activity;
 import com.google.api.services.plus.model.Activity.Actor;
 import com.google.api.services.plus.model.Activity.PlusObject;
@@ -104,21 +99,9 @@ public class GooglePlusItem extends Item {
 		
 		description = object.getContent();
 		if(description != null) {
-			try {
-				// extract tags from text
-				List<String> tagsList = new ArrayList<String>();
-				Document doc = Jsoup.parse(description);
-				Elements elements = doc.getElementsByClass("ot-hashtag");
-				for(Element element : elements) {
-					String tag = element.text();
-					if(tag != null) {
-						tagsList.add(tag.replaceAll("#", ""));
-					}
-				}
-				tags = tagsList.toArray(new String[tagsList.size()]);
-			}
-			catch(Exception e) {
-			}
+			// extract tags from text
+			List<String> tagsList = HtmlExtractor.extract(description).getHashtags();
+			tags = tagsList.toArray(new String[tagsList.size()]);
 		}
 		
 		//Popularity
@@ -0,0 +1,437 @@
+package gr.iti.mklab.framework.abstractions.socialmedia.items;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.nodes.Entities;
+
+/**
+ * Extracts the plain text, the images and the hashtags of an HTML fragment in a single pass,
+ * without building a DOM.
+ *
+ * The text is the same as the text of the body of the fragment in Jsoup: the whitespace,
+ * including non-breaking spaces, is collapsed, block elements and line breaks are separated
+ * by a space, and the contents of scripts and styles are dropped. The hashtags are the texts of the elements with the class
+ * ot-hashtag, as used by Google+, without the #.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class HtmlExtractor {
+
+	private static final Set<String> BLOCK_TAGS = new HashSet<String>();
+	private static final Set<String> SKIPPED_TAGS = new HashSet<String>();
+	private static final Set<String> VOID_TAGS = new HashSet<String>();
+
+	// the longest named character reference, &CounterClockwiseContourIntegral;
+	private static final int MAX_REFERENCE_LENGTH = 32;
+
+	static {
+		String[] blockTags = {"address", "article", "aside", "blockquote", "br", "dd", "div", "dl", "dt", "fieldset",
+				"figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "li",
+				"main", "nav", "ol", "p", "pre", "section", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "ul"};
+		for(String tag : blockTags) {
+			BLOCK_TAGS.add(tag);
+		}
+
+		String[] skippedTags = {"script", "style", "title", "noscript", "template"};
+		for(String tag : skippedTags) {
+			SKIPPED_TAGS.add(tag);
+		}
+
+		String[] voidTags = {"area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param",
+				"source", "track", "wbr"};
+		for(String tag : voidTags) {
+			VOID_TAGS.add(tag);
+		}
+	}
+
+	/**
+	 * @param html an HTML fragment
+	 * @return the text, images and hashtags of the fragment
+	 */
+	public static Content extract(String html) {
+		Content content = new Content();
+		if(html == null) {
+			return content;
+		}
+
+		StringBuilder text = new StringBuilder(html.length());
+		boolean pendingSpace = false;
+
+		String skippedTag = null;
+
+		// the hashtag that is being read, with the depth of its element
+		StringBuilder hashtag = null;
+		String hashtagTag = null;
+		int hashtagDepth = 0;
+
+		int length = html.length();
+		int i = 0;
+		while(i < length) {
+			char c = html.charAt(i);
+
+			if(c == '<') {
+				if(html.startsWith("<!--", i)) {
+					int end = html.indexOf("-->", i + 4);
+					i = (end < 0) ? length : end + 3;
+					continue;
+				}
+
+				int end = findTagEnd(html, i + 1);
+				Tag tag = (end < 0) ? null : parseTag(html, i + 1, end);
+				if(tag == null) {
+					if(skippedTag == null) {
+						pendingSpace = appendText(text, html, i, i + 1, pendingSpace);
+						if(hashtag != null) {
+							hashtag.append(c);
+						}
+					}
+					i++;
+					continue;
+				}
+				i = Math.min(length, end + 1);
+
+				if(skippedTag != null) {
+					if(tag.closing && tag.name.equals(skippedTag)) {
+						skippedTag = null;
+					}
+					continue;
+				}
+
+				if(BLOCK_TAGS.contains(tag.name) && text.length() > 0) {
+					pendingSpace = true;
+				}
+
+				if(tag.closing) {
+					if(hashtag != null && tag.name.equals(hashtagTag) && --hashtagDepth == 0) {
+						String value = normalize(hashtag.toString()).replaceAll("#", "");
+						content.hashtags.add(value);
+						hashtag = null;
+					}
+					continue;
+				}
+
+				if(SKIPPED_TAGS.contains(tag.name) && !tag.selfClosing) {
+					skippedTag = tag.name;
+					pendingSpace = pendingSpace || text.length() > 0;
+					continue;
+				}
+
+				if(tag.name.equals("img")) {
+					Image image = new Image(tag.attributes.get("src"), tag.attributes.get("alt"),
+							tag.attributes.get("width"), tag.attributes.get("height"));
+					content.images.add(image);
+				}
+
+				boolean isVoid = VOID_TAGS.contains(tag.name) || tag.selfClosing;
+				if(hashtag != null) {
+					if(tag.name.equals(hashtagTag) && !isVoid) {
+						hashtagDepth++;
+					}
+				}
+				else if(!isVoid && hasClass(tag.attributes.get("class"), "ot-hashtag")) {
+					hashtag = new StringBuilder();
+					hashtagTag = tag.name;
+					hashtagDepth = 1;
+				}
+				continue;
+			}
+
+			int next = html.indexOf('<', i);
+			if(next < 0) {
+				next = length;
+			}
+			if(skippedTag == null) {
+				String decoded = decode(html, i, next);
+				pendingSpace = appendText(text, decoded, 0, decoded.length(), pendingSpace);
+				if(hashtag != null) {
+					hashtag.append(decoded);
+				}
+			}
+			i = next;
+		}
+
+		content.text = text.toString();
+		return content;
+	}
+
+	/**
+	 * Appends text with its whitespace collapsed.
+	 *
+	 * @return whether a space is pending before the next text
+	 */
+	private static boolean appendText(StringBuilder text, String s, int start, int end, boolean pendingSpace) {
+		for(int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if(isWhitespace(c)) {
+				if(text.length() > 0) {
+					pendingSpace = true;
+				}
+				continue;
+			}
+
+			if(pendingSpace && text.length() > 0) {
+				text.append(' ');
+			}
+			pendingSpace = false;
+			text.append(c);
+		}
+		return pendingSpace;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u00a0';
+	}
+
+	private static String normalize(String s) {
+		StringBuilder normalized = new StringBuilder(s.length());
+		appendText(normalized, s, 0, s.length(), false);
+		return normalized.toString();
+	}
+
+	private static boolean hasClass(String classes, String className) {
+		if(classes == null) {
+			return false;
+		}
+		for(String c : classes.split("\\s+")) {
+			if(c.equals(className)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the index of the > that ends the tag, skipping the quoted attribute values, or -1
+	 */
+	private static int findTagEnd(String html, int start) {
+		char quote = 0;
+		for(int i = start; i < html.length(); i++) {
+			char c = html.charAt(i);
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			}
+			else if(c == '"' || c == '\'') {
+				quote = c;
+			}
+			else if(c == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the tag between start and end, or null if it is not a tag, e.g. a < in the text
+	 */
+	private static Tag parseTag(String html, int start, int end) {
+		Tag tag = new Tag();
+
+		int i = start;
+		if(i < end && html.charAt(i) == '/') {
+			tag.closing = true;
+			i++;
+		}
+		else if(i < end && (html.charAt(i) == '!' || html.charAt(i) == '?')) {
+			// doctype or processing instruction
+			tag.name = "!";
+			tag.closing = true;
+			return tag;
+		}
+
+		int nameStart = i;
+		while(i < end && (Character.isLetterOrDigit(html.charAt(i)) || html.charAt(i) == ':' || html.charAt(i) == '-')) {
+			i++;
+		}
+		if(i == nameStart || !Character.isLetter(html.charAt(nameStart))) {
+			return null;
+		}
+		tag.name = html.substring(nameStart, i).toLowerCase(Locale.ENGLISH);
+
+		if(end > start && html.charAt(end - 1) == '/') {
+			tag.selfClosing = true;
+			end--;
+		}
+
+		if(tag.closing) {
+			return tag;
+		}
+
+		while(i < end) {
+			while(i < end && (isWhitespace(html.charAt(i)) || html.charAt(i) == '/')) {
+				i++;
+			}
+
+			int attrStart = i;
+			while(i < end && !isWhitespace(html.charAt(i)) && html.charAt(i) != '=' && html.charAt(i) != '/') {
+				i++;
+			}
+			if(i == attrStart) {
+				break;
+			}
+			String name = html.substring(attrStart, i).toLowerCase(Locale.ENGLISH);
+
+			while(i < end && isWhitespace(html.charAt(i))) {
+				i++;
+			}
+
+			String value = "";
+			if(i < end && html.charAt(i) == '=') {
+				i++;
+				while(i < end && isWhitespace(html.charAt(i))) {
+					i++;
+				}
+
+				if(i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+					char quote = html.charAt(i++);
+					int valueEnd = html.indexOf(quote, i);
+					if(valueEnd < 0 || valueEnd > end) {
+						valueEnd = end;
+					}
+					value = decode(html, i, valueEnd);
+					i = valueEnd + 1;
+				}
+				else {
+					int valueStart = i;
+					while(i < end && !isWhitespace(html.charAt(i))) {
+						i++;
+					}
+					value = decode(html, valueStart, i);
+				}
+			}
+
+			if(!tag.attributes.containsKey(name)) {
+				tag.attributes.put(name, value);
+			}
+		}
+
+		return tag;
+	}
+
+	/**
+	 * Decodes the character references between start and end.
+	 */
+	private static String decode(String s, int start, int end) {
+		int amp = s.indexOf('&', start);
+		if(amp < 0 || amp >= end) {
+			return s.substring(start, end);
+		}
+
+		StringBuilder decoded = new StringBuilder(end - start);
+		int i = start;
+		while(i < end) {
+			char c = s.charAt(i);
+			if(c != '&') {
+				decoded.append(c);
+				i++;
+				continue;
+			}
+
+			int semicolon = s.indexOf(';', i + 1);
+			if(semicolon < 0 || semicolon >= end || semicolon - i > MAX_REFERENCE_LENGTH) {
+				decoded.append(c);
+				i++;
+				continue;
+			}
+
+			String reference = s.substring(i + 1, semicolon);
+			int codePoint = -1;
+			try {
+				if(reference.startsWith("#x") || reference.startsWith("#X")) {
+					codePoint = Integer.parseInt(reference.substring(2), 16);
+				}
+				else if(reference.startsWith("#")) {
+					codePoint = Integer.parseInt(reference.substring(1));
+				}
+				else if(Entities.isNamedEntity(reference)) {
+					codePoint = Entities.getCharacterByName(reference);
+				}
+			}
+			catch(NumberFormatException e) {
+				codePoint = -1;
+			}
+
+			if(codePoint < 0 || !Character.isValidCodePoint(codePoint)) {
+				decoded.append(c);
+				i++;
+				continue;
+			}
+
+			decoded.appendCodePoint(codePoint);
+			i = semicolon + 1;
+		}
+		return decoded.toString();
+	}
+
+	private static class Tag {
+
+		private String name;
+		private boolean closing = false;
+		private boolean selfClosing = false;
+		private Map<String, String> attributes = new HashMap<String, String>();
+
+	}
+
+	/**
+	 * The text, images and hashtags of an HTML fragment.
+	 */
+	public static class Content {
+
+		private String text = "";
+		private List<Image> images = new ArrayList<Image>();
+		private List<String> hashtags = new ArrayList<String>();
+
+		public String getText() {
+			return text;
+		}
+
+		public List<Image> getImages() {
+			return images;
+		}
+
+		public List<String> getHashtags() {
+			return hashtags;
+		}
+	}
+
+	/**
+	 * An img element. The attributes that are missing are null.
+	 */
+	public static class Image {
+
+		private String src;
+		private String alt;
+		private String width;
+		private String height;
+
+		Image(String src, String alt, String width, String height) {
+			this.src = src;
+			this.alt = alt;
+			this.width = width;
+			this.height = height;
+		}
+
+		public String getSrc() {
+			return src;
+		}
+
+		public String getAlt() {
+			return alt;
+		}
+
+		public String getWidth() {
+			return width;
+		}
+
+		public String getHeight() {
+			return height;
+		}
+	}
+}
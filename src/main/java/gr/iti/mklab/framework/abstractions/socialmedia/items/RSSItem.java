@@ -5,10 +5,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
 import com.rometools.modules.content.ContentModule;
 import com.rometools.modules.mediarss.MediaEntryModule;
 import com.rometools.modules.mediarss.types.MediaContent;
@@ -58,7 +54,7 @@ public class RSSItem extends Item {
 		//description = rssEntry.getDescription().getValue();
 		//Document's content - Extract text content from html structure
 		if(syndEntry.getDescription() != null) {
-			description = extractText(syndEntry.getDescription().getValue());
+			description = HtmlExtractor.extract(syndEntry.getDescription().getValue()).getText();
 		}
 		
 		//Document's time of publication
@@ -89,9 +85,11 @@ public class RSSItem extends Item {
 
 		String textContent = getContent(syndEntry);
 		if(textContent != null) {
-			text = extractText(textContent);
+			// a single pass for both the text and the images of the content
+			HtmlExtractor.Content content = HtmlExtractor.extract(textContent);
+			text = content.getText();
 			
-			Map<String, MediaItem> mediaFromContent = extractMedia(textContent, pageUrl);
+			Map<String, MediaItem> mediaFromContent = extractMedia(content, pageUrl);
 			mediaItems.addAll(mediaFromContent.values());
 			mediaIds.addAll(mediaFromContent.keySet());
 		}
@@ -170,30 +168,22 @@ public class RSSItem extends Item {
 		return mediaItems;
 	}
 	
-	private String extractText(String content) {
-		org.jsoup.nodes.Document doc = Jsoup.parse(content);
-		String text = doc.body().text();
-		return text;
-	}
-	
-	private Map<String, MediaItem> extractMedia(String content, String base) {
+	private Map<String, MediaItem> extractMedia(HtmlExtractor.Content content, String base) {
 		Map<String, MediaItem> mediaItems = new HashMap<String, MediaItem>();
 		
-		org.jsoup.nodes.Document doc = Jsoup.parse(content);
-		Elements imgElements = doc.getElementsByTag("img");
-		for(int index = 0; index<imgElements.size(); index++) {
-			Element img = imgElements.get(index);
+		for(HtmlExtractor.Image img : content.getImages()) {
+			String src = img.getSrc() == null ? "" : img.getSrc();
 			
 			MediaItem mi = new MediaItem();
 			
-			mi.setId(img.attr("src"));
-			mi.setUrl(img.attr("src"));
-			mi.setTitle(img.attr("alt"));
+			mi.setId(src);
+			mi.setUrl(src);
+			mi.setTitle(img.getAlt() == null ? "" : img.getAlt());
 			mi.setReference(base);
 			mi.setType("image");
 			
-			String w = img.attr("width");
-			String h = img.attr("height");
+			String w = img.getWidth();
+			String h = img.getHeight();
 			if(w != null && h != null && !w.equals("") && !h.equals("")) {
 				try {
 					int width = Integer.parseInt(w); 
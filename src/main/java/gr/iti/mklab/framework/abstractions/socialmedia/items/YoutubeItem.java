@@ -3,7 +3,9 @@ package gr.iti.mklab.framework.abstractions.socialmedia.items;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 
+import com.google.api.client.util.DateTime;
 import com.google.api.services.youtube.model.Thumbnail;
 import com.google.api.services.youtube.model.ThumbnailDetails;
 import com.google.api.services.youtube.model.Video;
@@ -181,7 +183,9 @@ public class YoutubeItem extends Item {
 		source = Source.Youtube.toString();
 		
 		//Timestamp of the creation of the video
-		publicationTime = snippet.getPublishedAt().getValue();
+		if(snippet.getPublishedAt() != null) {
+			publicationTime = snippet.getPublishedAt().getValue();
+		}
 		
 		//Title of the video
 		title = snippet.getTitle();
@@ -209,7 +213,7 @@ public class YoutubeItem extends Item {
 				
 		//Getting the video
 		ThumbnailDetails thumbnails = snippet.getThumbnails();
-		Thumbnail thumbnail = thumbnails.getHigh();
+		Thumbnail thumbnail = thumbnails == null ? null : thumbnails.getHigh();
 		
 		if(thumbnail != null) {
 			String videoURL = "https://www.youtube.com/embed/" + video.getId();
@@ -321,4 +325,79 @@ public class YoutubeItem extends Item {
 		}
 	}
 	
+	/**
+	 * Creates the item of the top level comment of a commentThread, as parsed from the json of the Data API.
+	 * 
+	 * @param commentThread the commentThread resource
+	 */
+	@SuppressWarnings("unchecked")
+	public YoutubeItem(Map<String, Object> commentThread) {
+		
+		if (commentThread == null) {
+			return;
+		}
+		
+		Map<String, Object> threadSnippet = (Map<String, Object>) commentThread.get("snippet");
+		if (threadSnippet == null) {
+			return;
+		}
+		
+		Map<String, Object> topLevelComment = (Map<String, Object>) threadSnippet.get("topLevelComment");
+		if (topLevelComment == null || topLevelComment.get("snippet") == null) {
+			return;
+		}
+		Map<String, Object> snippet = (Map<String, Object>) topLevelComment.get("snippet");
+		
+		String commentId = (String) topLevelComment.get("id");
+		String videoId = (String) threadSnippet.get("videoId");
+		
+		//Id
+		id = Source.Youtube + "#" + commentId;
+		
+		//Reference to the video
+		reference = Source.Youtube + "#" + videoId;
+		
+		//SocialNetwork Name
+		source = Source.Youtube.toString();
+		
+		//Timestamp of the creation of the comment
+		Object publishedAt = snippet.get("publishedAt");
+		if(publishedAt != null) {
+			publicationTime = DateTime.parseRfc3339(publishedAt.toString()).getValue();
+		}
+		
+		//All the text of the comment
+		Object msg = snippet.get("textOriginal");
+		if(msg == null) {
+			msg = snippet.get("textDisplay");
+		}
+		if(msg != null) {
+			text = msg.toString();
+			if(text.length()>100) {
+				title = text.subSequence(0, 100)+"...";
+			}
+			else{
+				title = text;
+			}
+			description = "Comment";
+		}
+		
+		//User that posted the comment
+		Map<String, Object> authorChannelId = (Map<String, Object>) snippet.get("authorChannelId");
+		if(authorChannelId != null && authorChannelId.get("value") != null) {
+			uid = Source.Youtube + "#" + authorChannelId.get("value");
+		}
+		
+		original = false;
+		
+		//Popularity of the comment
+		Object likeCount = snippet.get("likeCount");
+		if(likeCount instanceof Number) {
+			likes = ((Number) likeCount).longValue();
+		}
+		
+		// Page Url of this Item
+		pageUrl = "https://www.youtube.com/watch?v=" + videoId + "&lc=" + commentId;
+	}
+	
 }
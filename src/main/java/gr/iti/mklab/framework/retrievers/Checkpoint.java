@@ -0,0 +1,73 @@
+package gr.iti.mklab.framework.retrievers;
+
+/**
+ * The high-water mark of a feed: the latest publication time seen, the native id
+ * of the newest item and an optional source specific cursor, e.g. a page token.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class Checkpoint {
+
+	private String feedId;
+	private long lastTimestamp = 0l;
+	private String newestId = null;
+	private String cursor = null;
+
+	public Checkpoint(String feedId) {
+		this.feedId = feedId;
+	}
+
+	public Checkpoint(String feedId, long lastTimestamp, String newestId, String cursor) {
+		this.feedId = feedId;
+		this.lastTimestamp = lastTimestamp;
+		this.newestId = newestId;
+		this.cursor = cursor;
+	}
+
+	public String getFeedId() {
+		return feedId;
+	}
+
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	public String getNewestId() {
+		return newestId;
+	}
+
+	/**
+	 * @return the cursor of the feed, or null if there is none
+	 */
+	public String getCursor() {
+		return cursor == null || cursor.isEmpty() ? null : cursor;
+	}
+
+	/**
+	 * Returns a checkpoint that keeps the latest timestamp of the two and the id of its item.
+	 * The cursor of the given checkpoint replaces the current one if it is not null, an empty
+	 * cursor clears the current one.
+	 *
+	 * @param other a newer checkpoint of the same feed
+	 * @return Checkpoint the combined checkpoint
+	 */
+	public Checkpoint advance(Checkpoint other) {
+		if(other == null) {
+			return this;
+		}
+
+		boolean newer = other.lastTimestamp > lastTimestamp;
+		String id = newestId;
+		if((newer || id == null) && other.newestId != null) {
+			id = other.newestId;
+		}
+		
+		return new Checkpoint(feedId, newer ? other.lastTimestamp : lastTimestamp, id, 
+				other.cursor != null ? other.cursor : cursor);
+	}
+
+	@Override
+	public String toString() {
+		return feedId + " [lastTimestamp=" + lastTimestamp + ", newestId=" + newestId + ", cursor=" + cursor + "]";
+	}
+}
@@ -0,0 +1,276 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persists the checkpoints of the feeds in a local append-only file.
+ *
+ * Every update appends a line to the file and the latest line of each feed wins
+ * when the file is loaded. Reads are served from memory. Writes are buffered and
+ * flushed periodically, so a crash loses at most the updates of the last flush interval.
+ * The file is compacted on open and whenever it grows much larger than the number of feeds.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class CheckpointStore implements Closeable {
+
+	private static final long FLUSH_INTERVAL = 1000l;
+	private static final int MIN_LINES_TO_COMPACT = 10000;
+
+	private Logger logger = LogManager.getLogger(CheckpointStore.class);
+
+	private File file;
+	private Writer writer;
+	private int lines = 0;
+	private boolean dirty = false;
+
+	private Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<String, Checkpoint>();
+
+	private ScheduledExecutorService flusher;
+
+	public CheckpointStore(String filename) throws IOException {
+		this(new File(filename));
+	}
+
+	public CheckpointStore(File file) throws IOException {
+		this.file = file;
+
+		load();
+		compact();
+
+		flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("checkpoint-flusher"));
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (IOException e) {
+					logger.error("Failed to flush checkpoints to " + CheckpointStore.this.file, e);
+				}
+			}
+		}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param feedId the id of a feed
+	 * @return the checkpoint of the feed, or null if the feed has never been retrieved
+	 */
+	public Checkpoint get(String feedId) {
+		if(feedId == null) {
+			return null;
+		}
+		return checkpoints.get(feedId);
+	}
+
+	/**
+	 * Advances the checkpoint of a feed. A checkpoint never moves back in time.
+	 *
+	 * @param checkpoint the new checkpoint of a feed
+	 * @return the stored checkpoint after the update
+	 */
+	public synchronized Checkpoint update(Checkpoint checkpoint) {
+		if(checkpoint == null || checkpoint.getFeedId() == null) {
+			return null;
+		}
+
+		Checkpoint current = checkpoints.get(checkpoint.getFeedId());
+		Checkpoint updated = current == null ? checkpoint : current.advance(checkpoint);
+		if(current != null && same(current, updated)) {
+			return current;
+		}
+		checkpoints.put(updated.getFeedId(), updated);
+
+		try {
+			append(updated);
+			if(lines > MIN_LINES_TO_COMPACT && lines > 2 * checkpoints.size()) {
+				compact();
+			}
+		} catch (IOException e) {
+			logger.error("Failed to write checkpoint " + updated, e);
+		}
+
+		return updated;
+	}
+
+	public synchronized void remove(String feedId) {
+		if(checkpoints.remove(feedId) != null) {
+			try {
+				append(new Checkpoint(feedId, -1l, null, null));
+			} catch (IOException e) {
+				logger.error("Failed to remove checkpoint of " + feedId, e);
+			}
+		}
+	}
+
+	public int size() {
+		return checkpoints.size();
+	}
+
+	public synchronized void flush() throws IOException {
+		if(dirty && writer != null) {
+			writer.flush();
+			dirty = false;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		flusher.shutdown();
+		if(writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private void append(Checkpoint checkpoint) throws IOException {
+		if(writer == null) {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+		}
+		writer.write(format(checkpoint));
+		lines++;
+		dirty = true;
+	}
+
+	private void load() throws IOException {
+		if(!file.exists()) {
+			return;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				lines++;
+				Checkpoint checkpoint = parse(line);
+				if(checkpoint == null) {
+					// most probably the last line of a crashed process
+					logger.warn("Skip malformed checkpoint line " + lines + " of " + file);
+					continue;
+				}
+
+				if(checkpoint.getLastTimestamp() < 0) {
+					checkpoints.remove(checkpoint.getFeedId());
+				}
+				else {
+					checkpoints.put(checkpoint.getFeedId(), checkpoint);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		logger.info(checkpoints.size() + " checkpoints loaded from " + file);
+	}
+
+	/**
+	 * Rewrites the file with one line per feed.
+	 */
+	private void compact() throws IOException {
+		if(writer != null) {
+			writer.close();
+			writer = null;
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try {
+			for(Checkpoint checkpoint : checkpoints.values()) {
+				tmpWriter.write(format(checkpoint));
+			}
+		}
+		finally {
+			tmpWriter.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		lines = checkpoints.size();
+		dirty = false;
+	}
+
+	private static boolean same(Checkpoint c1, Checkpoint c2) {
+		return c1.getLastTimestamp() == c2.getLastTimestamp()
+				&& equals(c1.getNewestId(), c2.getNewestId())
+				&& equals(c1.getCursor(), c2.getCursor());
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	private static String format(Checkpoint checkpoint) {
+		return escape(checkpoint.getFeedId()) + "\t" + checkpoint.getLastTimestamp() + "\t"
+				+ escape(checkpoint.getNewestId()) + "\t" + escape(checkpoint.getCursor()) + "\n";
+	}
+
+	private static Checkpoint parse(String line) {
+		String[] parts = line.split("\t", -1);
+		if(parts.length != 4 || parts[0].isEmpty()) {
+			return null;
+		}
+
+		try {
+			long lastTimestamp = Long.parseLong(parts[1]);
+			return new Checkpoint(unescape(parts[0]), lastTimestamp, unescape(parts[2]), unescape(parts[3]));
+		}
+		catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String escape(String value) {
+		if(value == null) {
+			return "";
+		}
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String value) {
+		if(value.isEmpty()) {
+			return null;
+		}
+
+		StringBuilder buffer = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				switch(next) {
+					case 't': buffer.append('\t'); break;
+					case 'n': buffer.append('\n'); break;
+					case 'r': buffer.append('\r'); break;
+					default: buffer.append(next);
+				}
+			}
+			else {
+				buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+}
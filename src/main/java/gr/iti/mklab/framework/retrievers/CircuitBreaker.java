@@ -0,0 +1,102 @@
+package gr.iti.mklab.framework.retrievers;
+
+/**
+ * Circuit breaker of a single endpoint.
+ *
+ * The circuit opens after a number of consecutive failures and rejects the calls to the
+ * endpoint for the open time. Then a single trial call is let through (half open): its
+ * success closes the circuit, its failure opens it again for twice the previous time,
+ * up to the maximum open time.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private String endpoint;
+
+	private int failureThreshold;
+	private long openTime;
+	private long maxOpenTime;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long currentOpenTime;
+	private long openUntil = 0;
+	private boolean trialInFlight = false;
+
+	public CircuitBreaker(String endpoint, int failureThreshold, long openTime, long maxOpenTime) {
+		this.endpoint = endpoint;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openTime = openTime;
+		this.maxOpenTime = Math.max(openTime, maxOpenTime);
+		this.currentOpenTime = openTime;
+	}
+
+	/**
+	 * Asks permission for a call to the endpoint.
+	 *
+	 * @throws CircuitOpenException if the circuit is open, or half open with a trial call in flight
+	 */
+	public synchronized void acquire() throws CircuitOpenException {
+		if(state == State.OPEN) {
+			if(System.currentTimeMillis() < openUntil) {
+				throw new CircuitOpenException(endpoint, openUntil);
+			}
+			state = State.HALF_OPEN;
+			trialInFlight = false;
+		}
+
+		if(state == State.HALF_OPEN) {
+			if(trialInFlight) {
+				throw new CircuitOpenException(endpoint, System.currentTimeMillis() + 1000l);
+			}
+			trialInFlight = true;
+		}
+	}
+
+	/**
+	 * Records a call that the endpoint answered, successfully or with a permanent error.
+	 */
+	public synchronized void onSuccess() {
+		state = State.CLOSED;
+		failures = 0;
+		currentOpenTime = openTime;
+		trialInFlight = false;
+	}
+
+	/**
+	 * Records a call that failed with a retryable error.
+	 */
+	public synchronized void onFailure() {
+		failures++;
+		if(state == State.HALF_OPEN) {
+			currentOpenTime = Math.min(maxOpenTime, currentOpenTime * 2);
+			open();
+		}
+		else if(state == State.CLOSED && failures >= failureThreshold) {
+			open();
+		}
+	}
+
+	public synchronized State getState() {
+		if(state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		trialInFlight = false;
+		openUntil = System.currentTimeMillis() + currentOpenTime;
+	}
+
+}
@@ -0,0 +1,34 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling an endpoint whose circuit breaker is open.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class CircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private String endpoint;
+	private long retryAt;
+
+	public CircuitOpenException(String endpoint, long retryAt) {
+		super("Circuit of " + endpoint + " is open until " + retryAt);
+		this.endpoint = endpoint;
+		this.retryAt = retryAt;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return the time in milliseconds after which the endpoint is called again
+	 */
+	public long getRetryAt() {
+		return retryAt;
+	}
+
+}
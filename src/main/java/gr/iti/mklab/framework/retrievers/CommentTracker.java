@@ -0,0 +1,226 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gr.iti.mklab.framework.common.domain.Item;
+
+/**
+ * Harvests the new comments of the items tracked for a retriever.
+ *
+ * For every item the tracker remembers the comment count at the last harvest and the
+ * publication time of the newest comment retrieved so far. An item is requested again only
+ * when its comment count has changed, or is unknown, and then only for the comments after
+ * that time. The items to request are grouped in batches, that the retriever can request
+ * at once, and up to parallelism batches are requested concurrently.
+ *
+ * A walk over the comments of an item that is truncated, on the page limit or the rate limit
+ * of the retriever, keeps the count and the time of the item as they were, along with the
+ * cursor of the walk. The next harvest resumes the walk from the cursor, and the item moves to
+ * its newest comment only when the walk reaches the time of the last harvest.
+ *
+ * The least recently harvested items are forgotten once more than maxItems are tracked.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class CommentTracker {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("comment-tracker"));
+
+	private Logger logger = LogManager.getLogger(CommentTracker.class);
+
+	private Retriever retriever;
+
+	private int batchSize = 50;
+	private int parallelism = 4;
+	private int maxItems = 100000;
+
+	private Map<String, State> states = Collections.synchronizedMap(new LinkedHashMap<String, State>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+			return size() > maxItems;
+		}
+	});
+
+	public CommentTracker(Retriever retriever) {
+		this.retriever = retriever;
+	}
+
+	/**
+	 * @param maxItems the maximum number of tracked items, 100000 by default
+	 */
+	public void setMaxItems(int maxItems) {
+		this.maxItems = Math.max(1, maxItems);
+	}
+
+	/**
+	 * @param batchSize the number of items requested at once, 50 by default
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * @param parallelism the number of batches requested concurrently, 4 by default
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Retrieves the comments posted since the last harvest, for the items whose comment
+	 * count has changed. Items seen for the first time are requested for all their comments.
+	 *
+	 * @param items the items, with their current comment counts
+	 * @return the new comments by the id of the item. Items without new comments are missing.
+	 */
+	public Map<String, List<Item>> harvest(Collection<Item> items) {
+		Map<Item, Long> changed = new LinkedHashMap<Item, Long>();
+		final Map<String, String> cursors = new HashMap<String, String>();
+		for(Item item : items) {
+			if(item == null || item.getId() == null) {
+				continue;
+			}
+
+			State state = states.get(item.getId());
+			Long count = item.getComments();
+			if(state != null && state.resume == null && count != null && count == state.count) {
+				continue;
+			}
+			changed.put(item, state == null ? 0l : state.cursor);
+			if(state != null && state.resume != null) {
+				cursors.put(item.getId(), state.resume);
+			}
+		}
+
+		logger.info(changed.size() + " of " + items.size() + " items have new comments");
+
+		final Map<String, List<Item>> comments = new ConcurrentHashMap<String, List<Item>>();
+		if(changed.isEmpty()) {
+			return comments;
+		}
+
+		final Queue<Map<Item, Long>> batches = new ConcurrentLinkedQueue<Map<Item, Long>>();
+		Map<Item, Long> batch = new LinkedHashMap<Item, Long>();
+		for(Map.Entry<Item, Long> e : changed.entrySet()) {
+			batch.put(e.getKey(), e.getValue());
+			if(batch.size() >= batchSize) {
+				batches.add(batch);
+				batch = new LinkedHashMap<Item, Long>();
+			}
+		}
+		if(!batch.isEmpty()) {
+			batches.add(batch);
+		}
+
+		// each worker requests batches until there are none left, the calling thread is one of them
+		try {
+			QueueWorkers.drain(batches, parallelism, executor, new QueueWorkers.Task<Map<Item, Long>>() {
+				@Override
+				public void process(Map<Item, Long> batch) {
+					try {
+						Map<String, ItemComments> batchComments = retriever.getItemsComments(batch, cursors);
+						for(Item item : batch.keySet()) {
+							ItemComments result = batchComments.get(item.getId());
+							if(result == null || result.getComments() == null) {
+								// failed, the item is requested again in the next harvest
+								continue;
+							}
+
+							// the APIs include the comments at the since time, these were harvested already
+							long since = batch.get(item);
+							List<Item> itemComments = new ArrayList<Item>();
+							for(Item comment : result.getComments()) {
+								if(comment.getPublicationTime() > since) {
+									itemComments.add(comment);
+								}
+							}
+
+							update(item, itemComments, result.getCursor());
+							if(!itemComments.isEmpty()) {
+								comments.put(item.getId(), itemComments);
+							}
+						}
+					}
+					catch(Exception e) {
+						logger.error("Failed to retrieve the comments of " + batch.size() + " items: " + e.getMessage());
+					}
+				}
+			});
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return comments;
+	}
+
+	/**
+	 * Stops tracking an item.
+	 *
+	 * @param itemId the id of the item
+	 */
+	public void forget(String itemId) {
+		states.remove(itemId);
+	}
+
+	public int size() {
+		return states.size();
+	}
+
+	/**
+	 * @param resume the cursor of the walk if it was truncated, null if it reached the time of the last harvest
+	 */
+	private void update(Item item, List<Item> itemComments, String resume) {
+		State state = states.get(item.getId());
+		long cursor = state == null ? 0l : state.cursor;
+		long newest = state == null ? cursor : Math.max(cursor, state.newest);
+		for(Item comment : itemComments) {
+			newest = Math.max(newest, comment.getPublicationTime());
+		}
+
+		if(resume != null) {
+			// the comments between the walk and the last harvest are still missing
+			states.put(item.getId(), new State(state == null ? -1l : state.count, cursor, resume, newest));
+		}
+		else if(state != null && state.resume != null) {
+			// the resumed walk is complete, the comments posted in the meantime are requested in the next harvest
+			states.put(item.getId(), new State(state.count, newest, null, newest));
+		}
+		else {
+			Long count = item.getComments();
+			states.put(item.getId(), new State(count == null ? -1l : count, newest, null, newest));
+		}
+	}
+
+	private static class State {
+
+		private long count;
+		private long cursor;
+		// the cursor of a truncated walk and the newest comment it has retrieved
+		private String resume;
+		private long newest;
+
+		public State(long count, long cursor, String resume, long newest) {
+			this.count = count;
+			this.cursor = cursor;
+			this.resume = resume;
+			this.newest = newest;
+		}
+	}
+}
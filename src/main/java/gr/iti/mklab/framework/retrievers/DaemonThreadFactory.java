@@ -0,0 +1,31 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named after a prefix and a counter, e.g. rss-poller-1, rss-poller-2,
+ * so that the pools of the retrievers never keep the JVM alive and their threads can be told
+ * apart in a thread dump.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private String prefix;
+	private AtomicInteger counter = new AtomicInteger(0);
+
+	/**
+	 * @param prefix the prefix of the thread names
+	 */
+	public DaemonThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
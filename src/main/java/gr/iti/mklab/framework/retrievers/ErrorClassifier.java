@@ -0,0 +1,41 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.io.IOException;
+
+/**
+ * Decides whether a failed call to an API is worth retrying.
+ *
+ * Retryable errors are transient failures of the API or the network, e.g. timeouts,
+ * refused connections or server errors. Permanent errors, e.g. invalid parameters or
+ * missing resources, fail again on every retry and do not count against the circuit
+ * breaker of the endpoint, as the API did answer.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public interface ErrorClassifier {
+
+	/**
+	 * Treats the I/O errors, anywhere in the chain of causes, as retryable and everything else as permanent.
+	 */
+	public static final ErrorClassifier DEFAULT = new ErrorClassifier() {
+		@Override
+		public boolean isRetryable(Throwable error) {
+			for(Throwable cause = error; cause != null; cause = cause.getCause()) {
+				if(cause instanceof IOException) {
+					return !(cause instanceof CircuitOpenException);
+				}
+				if(cause.getCause() == cause) {
+					break;
+				}
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * @param error the error of the call
+	 * @return true if the call may succeed when retried
+	 */
+	public boolean isRetryable(Throwable error);
+
+}
@@ -0,0 +1,43 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.List;
+
+import gr.iti.mklab.framework.common.domain.Item;
+
+/**
+ * The comments of an item, retrieved by a walk over its comment pages from the newest comment
+ * back to a since time. A walk that stopped before the since time, on the page limit or on the
+ * rate limit, is truncated and holds the cursor of its next page, so that a later walk can
+ * resume from it.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class ItemComments {
+
+	private List<Item> comments;
+	private String cursor;
+
+	/**
+	 * @param comments the comments, newest first
+	 * @param cursor the cursor of the next page if the walk was truncated, null otherwise
+	 */
+	public ItemComments(List<Item> comments, String cursor) {
+		this.comments = comments;
+		this.cursor = cursor;
+	}
+
+	public List<Item> getComments() {
+		return comments;
+	}
+
+	/**
+	 * @return the cursor of the next page of a truncated walk, or null if the walk reached the since time
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public boolean isTruncated() {
+		return cursor != null;
+	}
+}
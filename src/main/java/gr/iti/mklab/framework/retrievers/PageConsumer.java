@@ -0,0 +1,22 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.List;
+
+import gr.iti.mklab.framework.common.domain.Item;
+
+/**
+ * Receives the items of a retrieval page by page, as soon as each page 
+ * has been mapped, instead of waiting for the whole retrieval to finish.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public interface PageConsumer {
+
+	/**
+	 * Called once for every page of mapped items, in the order the pages were fetched.
+	 * 
+	 * @param items the items of the page
+	 */
+	public void consume(List<Item> items);
+	
+}
@@ -0,0 +1,19 @@
+package gr.iti.mklab.framework.retrievers;
+
+/**
+ * Fetches the pages of a paginated API call one after the other.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public interface PageFetcher<P> {
+
+	/**
+	 * Fetches the page that follows the given one. 
+	 * 
+	 * @param previous the last fetched page, or null to fetch the first page
+	 * @return the next page, or null if there are no more pages
+	 * @throws Exception exception
+	 */
+	public P fetch(P previous) throws Exception;
+	
+}
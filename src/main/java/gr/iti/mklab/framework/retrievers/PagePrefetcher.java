@@ -0,0 +1,152 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks the pages of a PageFetcher. With a positive depth the next pages are
+ * requested in the background while the current page is being mapped, so the 
+ * mapping time is hidden behind network latency. With depth 0 every page is 
+ * fetched in the calling thread when it is asked for.
+ * 
+ * No more than maxPages pages are ever requested, and no more than depth pages 
+ * are requested ahead of the page returned by the last call of next().
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class PagePrefetcher<P> {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("page-prefetcher"));
+	
+	private static final Object END = new Object();
+	
+	private PageFetcher<P> fetcher;
+	private int maxPages;
+	private int depth;
+	
+	private AtomicInteger requests = new AtomicInteger(0);
+	
+	// synchronous mode
+	private P previous = null;
+	private boolean finished = false;
+	
+	// prefetch mode
+	private BlockingQueue<Object> queue;
+	private Semaphore permits;
+	private Future<?> producer;
+	private volatile boolean closed = false;
+	
+	public PagePrefetcher(PageFetcher<P> fetcher, int maxPages, int depth) {
+		this.fetcher = fetcher;
+		this.maxPages = maxPages;
+		this.depth = depth;
+		
+		if(depth > 0) {
+			queue = new LinkedBlockingQueue<Object>();
+			permits = new Semaphore(depth);
+			producer = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					produce();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @return the next page, or null if there are no more pages 
+	 * @throws Exception the exception thrown while fetching the page
+	 */
+	@SuppressWarnings("unchecked")
+	public P next() throws Exception {
+		if(depth <= 0) {
+			if(finished || requests.get() >= maxPages) {
+				return null;
+			}
+			
+			requests.incrementAndGet();
+			previous = fetcher.fetch(previous);
+			if(previous == null) {
+				finished = true;
+			}
+			return previous;
+		}
+		
+		if(closed) {
+			return null;
+		}
+		
+		Object page = queue.take();
+		if(page == END) {
+			queue.add(END);
+			return null;
+		}
+		
+		permits.release();
+		if(page instanceof Failure) {
+			queue.add(END);
+			throw ((Failure) page).exception;
+		}
+		
+		return (P) page;
+	}
+	
+	/**
+	 * @return the number of requests that have been issued so far, including prefetched pages.
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+	
+	/**
+	 * Stops fetching pages. Pages that have been prefetched but not returned are discarded.
+	 */
+	public void close() {
+		closed = true;
+		if(producer != null) {
+			producer.cancel(true);
+		}
+	}
+	
+	private void produce() {
+		P last = null;
+		try {
+			while(!closed && requests.get() < maxPages) {
+				permits.acquire();
+				if(closed) {
+					break;
+				}
+				
+				requests.incrementAndGet();
+				last = fetcher.fetch(last);
+				if(last == null) {
+					break;
+				}
+				queue.add(last);
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(Exception e) {
+			queue.add(new Failure(e));
+		}
+		finally {
+			queue.add(END);
+		}
+	}
+	
+	private static class Failure {
+		
+		private Exception exception;
+		
+		public Failure(Exception exception) {
+			this.exception = exception;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package gr.iti.mklab.framework.retrievers;
+
+/**
+ * The amount of data requested for each item of a feed. Each retriever maps a projection
+ * to the fields, extras or parts of its API.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public enum Projection {
+	
+	/**
+	 * The id, publication time, text and author of the items.
+	 */
+	MINIMAL,
+	
+	/**
+	 * The minimal data plus the media, links and popularity of the items.
+	 */
+	STANDARD,
+	
+	/**
+	 * Everything the retriever maps to the items. 
+	 */
+	FULL
+	
+}
@@ -0,0 +1,114 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Processes the elements of a queue with a number of workers. Each worker takes elements from
+ * the queue until it is empty, so a slow element holds up one worker and not the rest. A task
+ * may put an element back in the queue, e.g. when its host is busy, to be taken again later.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class QueueWorkers {
+
+	private static Logger logger = LogManager.getLogger(QueueWorkers.class);
+
+	/**
+	 * Processes the elements of the queue and waits until all of them are done. The calling thread
+	 * is one of the workers, the rest run in the executor. If the calling thread is interrupted the
+	 * elements that have not been taken yet are dropped and the workers are cancelled.
+	 *
+	 * @param queue the elements, accessed concurrently by the workers
+	 * @param parallelism the maximum number of workers
+	 * @param executor the executor of the workers besides the calling thread
+	 * @param task the processing of an element
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public static <T> void drain(Queue<T> queue, int parallelism, ExecutorService executor, Task<T> task)
+			throws InterruptedException {
+
+		Runnable worker = worker(queue, task);
+
+		int workers = Math.min(parallelism, queue.size());
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(int i = 1; i < workers; i++) {
+			futures.add(executor.submit(worker));
+		}
+
+		try {
+			worker.run();
+			if(Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch(InterruptedException e) {
+			queue.clear();
+			for(Future<?> future : futures) {
+				future.cancel(true);
+			}
+			throw e;
+		}
+		catch(ExecutionException e) {
+			logger.error(e.getCause());
+		}
+	}
+
+	/**
+	 * Starts processing the elements of the queue in the executor and returns without waiting.
+	 *
+	 * @return the workers, to be cancelled if their results are no longer needed
+	 */
+	public static <T> List<Future<?>> start(Queue<T> queue, int parallelism, ExecutorService executor, Task<T> task) {
+		Runnable worker = worker(queue, task);
+
+		int workers = Math.min(parallelism, queue.size());
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(int i = 0; i < workers; i++) {
+			futures.add(executor.submit(worker));
+		}
+		return futures;
+	}
+
+	private static <T> Runnable worker(final Queue<T> queue, final Task<T> task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				T element;
+				while((element = queue.poll()) != null) {
+					try {
+						task.process(element);
+					}
+					catch(InterruptedException e) {
+						// the worker is cancelled, the rest of the queue is left to the caller
+						Thread.currentThread().interrupt();
+						return;
+					}
+					catch(Exception e) {
+						logger.error("Failed to process " + element + ": " + e.getMessage());
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * The processing of an element of the queue. The failures of an element do not stop its worker,
+	 * except for an InterruptedException.
+	 */
+	public interface Task<T> {
+
+		public void process(T element) throws Exception;
+
+	}
+}
@@ -0,0 +1,221 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gr.iti.mklab.framework.Credentials;
+
+/**
+ * Tracks the remaining quota and the reset time of the endpoints of an API for a single credential.
+ *
+ * The quota of an endpoint is either reported by the API after each call (live quota)
+ * or configured as a fixed budget per time window. Calls to endpoints without a known
+ * quota are never delayed. A call that would exceed the quota waits until the quota
+ * is reset, unless the wait is longer than the maximum wait, in which case the caller
+ * should stop and retry in a later retrieval.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RateLimitGovernor {
+
+	private static Map<String, RateLimitGovernor> governors = new ConcurrentHashMap<String, RateLimitGovernor>();
+
+	private Logger logger = LogManager.getLogger(RateLimitGovernor.class);
+
+	private String name;
+	private long maxWait = 60000l;
+
+	private Map<String, Quota> quotas = new HashMap<String, Quota>();
+
+	public RateLimitGovernor(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the governor shared by all the retrievers of a source that use the same credentials.
+	 *
+	 * @param source the name of the source, e.g. Twitter
+	 * @param credentials the credentials of the retriever
+	 * @return RateLimitGovernor
+	 */
+	public static RateLimitGovernor forCredentials(String source, Credentials credentials) {
+		String key = source;
+		if(credentials != null) {
+			key += "#" + credentials.getKey() + "#" + credentials.getAccessToken() + "#" + credentials.getClientId();
+		}
+
+		RateLimitGovernor governor = governors.get(key);
+		if(governor == null) {
+			synchronized(governors) {
+				governor = governors.get(key);
+				if(governor == null) {
+					governor = new RateLimitGovernor(source);
+					governors.put(key, governor);
+				}
+			}
+		}
+		return governor;
+	}
+
+	/**
+	 * @param maxWait the maximum time in milliseconds that a call waits for its quota
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * Sets a fixed budget for an endpoint, for APIs that do not report their quota.
+	 *
+	 * @param endpoint the endpoint
+	 * @param limit the number of units available per window
+	 * @param window the length of the window in milliseconds
+	 */
+	public synchronized void setBudget(String endpoint, int limit, long window) {
+		Quota quota = getQuota(endpoint);
+		if(quota.limit == limit && quota.window == window) {
+			// already set by another retriever of the same credentials
+			return;
+		}
+		
+		quota.limit = limit;
+		quota.remaining = limit;
+		quota.window = window;
+		quota.resetTime = System.currentTimeMillis() + window;
+	}
+
+	/**
+	 * Updates the quota of an endpoint with the values reported by the API.
+	 *
+	 * @param endpoint the endpoint
+	 * @param limit the number of calls per window
+	 * @param remaining the number of calls left in the current window
+	 * @param resetTime the time the window is reset, in milliseconds
+	 */
+	public synchronized void update(String endpoint, int limit, int remaining, long resetTime) {
+		Quota quota = getQuota(endpoint);
+		quota.limit = limit;
+		quota.remaining = remaining;
+		quota.resetTime = resetTime;
+	}
+
+	/**
+	 * Marks an endpoint as exhausted until the given time, e.g. after a rate limit error.
+	 *
+	 * @param endpoint the endpoint
+	 * @param until the time in milliseconds that calls are allowed again
+	 */
+	public synchronized void exhaust(String endpoint, long until) {
+		Quota quota = getQuota(endpoint);
+		quota.remaining = 0;
+		quota.resetTime = Math.max(quota.resetTime, until);
+
+		logger.info(name + " " + endpoint + " exhausted until " + new java.util.Date(quota.resetTime));
+	}
+
+	/**
+	 * Waits until one call to the endpoint is allowed.
+	 *
+	 * @see #acquire(String, int)
+	 */
+	public boolean acquire(String endpoint) {
+		return acquire(endpoint, 1);
+	}
+
+	/**
+	 * Waits until the quota of the endpoint has enough units for a call and consumes them.
+	 *
+	 * @param endpoint the endpoint
+	 * @param cost the number of quota units of the call
+	 * @return true if the call can be made, false if the wait would exceed the maximum wait
+	 */
+	public boolean acquire(String endpoint, int cost) {
+		while(true) {
+			long wait;
+			synchronized(this) {
+				Quota quota = quotas.get(endpoint);
+				if(quota == null) {
+					return true;
+				}
+
+				long now = System.currentTimeMillis();
+				quota.refresh(now);
+				if(quota.remaining < 0 || quota.remaining >= cost) {
+					if(quota.remaining > 0) {
+						quota.remaining -= cost;
+					}
+					return true;
+				}
+				wait = quota.resetTime - now;
+			}
+
+			if(wait > maxWait) {
+				logger.info(name + " " + endpoint + " has no quota left for the next " + (wait / 1000) + " seconds");
+				return false;
+			}
+
+			try {
+				// a small margin for clock skew between the client and the API
+				Thread.sleep(Math.max(wait, 0) + 1000l);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @param endpoint the endpoint
+	 * @return the units left in the current window, or -1 if the quota of the endpoint is unknown
+	 */
+	public synchronized int getRemaining(String endpoint) {
+		Quota quota = quotas.get(endpoint);
+		if(quota == null) {
+			return -1;
+		}
+		quota.refresh(System.currentTimeMillis());
+		return quota.remaining;
+	}
+
+	private Quota getQuota(String endpoint) {
+		Quota quota = quotas.get(endpoint);
+		if(quota == null) {
+			quota = new Quota();
+			quotas.put(endpoint, quota);
+		}
+		return quota;
+	}
+
+	private static class Quota {
+
+		int limit = -1;
+		int remaining = -1;
+		long resetTime = 0l;
+		long window = 0l;
+
+		void refresh(long now) {
+			if(resetTime == 0l || now < resetTime) {
+				return;
+			}
+
+			if(window > 0) {
+				// fixed budget, start a new window
+				remaining = limit;
+				resetTime = now + window;
+			}
+			else {
+				// live quota, unknown until the API reports it again
+				remaining = limit;
+				resetTime = 0l;
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Retries the failed calls of the retrievers of a source.
+ *
+ * A call that fails with a retryable error, as decided by the error classifier, is retried
+ * up to maxAttempts times in total, after an exponential backoff with jitter. Retries are
+ * drawn from a budget that each call refills by retryRatio, so that during an outage the
+ * retries add at most that fraction of load on top of the calls. Every endpoint has a
+ * circuit breaker: once open, the calls to the endpoint fail immediately with a
+ * CircuitOpenException, which is an IOException, until the endpoint recovers.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class Resilience {
+
+	private static Map<String, Resilience> instances = new ConcurrentHashMap<String, Resilience>();
+
+	private Logger logger = LogManager.getLogger(Resilience.class);
+
+	private Random random = new Random();
+
+	private String name;
+	private ErrorClassifier classifier = ErrorClassifier.DEFAULT;
+
+	private int maxAttempts = 3;
+	private long baseDelay = 1000l;
+	private long maxDelay = 30000l;
+
+	private int failureThreshold = 5;
+	private long openTime = 30000l;
+	private long maxOpenTime = 600000l;
+
+	private RetryBudget budget = new RetryBudget(0.2, 10);
+
+	private Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	public Resilience(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the instance shared by all the retrievers of a source, as the 
+	 * health of an endpoint does not depend on the credentials.
+	 *
+	 * @param source the name of the source
+	 * @return Resilience
+	 */
+	public static Resilience forSource(String source) {
+		Resilience resilience = instances.get(source);
+		if(resilience == null) {
+			synchronized(instances) {
+				resilience = instances.get(source);
+				if(resilience == null) {
+					resilience = new Resilience(source);
+					instances.put(source, resilience);
+				}
+			}
+		}
+		return resilience;
+	}
+
+	/**
+	 * @param classifier the classifier of the errors of the API
+	 */
+	public void setErrorClassifier(ErrorClassifier classifier) {
+		this.classifier = classifier;
+	}
+
+	/**
+	 * @param maxAttempts the maximum number of attempts of a call, 1 to disable retries
+	 * @param baseDelay the backoff in milliseconds before the first retry, doubled on every retry
+	 * @param maxDelay the maximum backoff in milliseconds
+	 */
+	public void setBackoff(int maxAttempts, long baseDelay, long maxDelay) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.baseDelay = Math.max(1l, baseDelay);
+		this.maxDelay = Math.max(this.baseDelay, maxDelay);
+	}
+
+	/**
+	 * @param retryRatio the retries added to the budget by each call
+	 * @param maxRetries the maximum retries kept in the budget
+	 */
+	public void setRetryBudget(double retryRatio, int maxRetries) {
+		this.budget = new RetryBudget(retryRatio, maxRetries);
+	}
+
+	/**
+	 * Configures the circuit breakers of the endpoints that are not called yet.
+	 *
+	 * @param failureThreshold the number of consecutive failures that open the circuit
+	 * @param openTime the time in milliseconds that the circuit stays open at first
+	 * @param maxOpenTime the maximum time in milliseconds that the circuit stays open
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openTime, long maxOpenTime) {
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+		this.maxOpenTime = maxOpenTime;
+	}
+
+	public CircuitBreaker getCircuitBreaker(String endpoint) {
+		CircuitBreaker breaker = breakers.get(endpoint);
+		if(breaker == null) {
+			synchronized(breakers) {
+				breaker = breakers.get(endpoint);
+				if(breaker == null) {
+					breaker = new CircuitBreaker(endpoint, failureThreshold, openTime, maxOpenTime);
+					breakers.put(endpoint, breaker);
+				}
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Calls an endpoint, retrying on retryable errors.
+	 *
+	 * @param endpoint the endpoint, e.g. search
+	 * @param call the call
+	 * @return the result of the call
+	 * @throws Exception the error of the last attempt, or CircuitOpenException if the circuit of the endpoint is open
+	 */
+	public <T> T call(String endpoint, Callable<T> call) throws Exception {
+		CircuitBreaker breaker = getCircuitBreaker(endpoint);
+		budget.deposit();
+
+		int attempt = 0;
+		while(true) {
+			breaker.acquire();
+
+			Exception error;
+			try {
+				T result = call.call();
+				breaker.onSuccess();
+				return result;
+			}
+			catch(Exception e) {
+				error = e;
+			}
+
+			if(!classifier.isRetryable(error)) {
+				breaker.onSuccess();
+				throw error;
+			}
+
+			breaker.onFailure();
+			attempt++;
+			if(attempt >= maxAttempts || breaker.getState() != CircuitBreaker.State.CLOSED || !budget.withdraw()) {
+				throw error;
+			}
+
+			long delay = getDelay(attempt);
+			logger.info(name + " : " + endpoint + " failed (" + error.getMessage() + "), retry " + attempt + " in " + delay + " ms");
+			try {
+				Thread.sleep(delay);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw error;
+			}
+		}
+	}
+
+	/**
+	 * Equal jitter: half of the exponential delay, plus a random part of the other half,
+	 * so that the retriers of an endpoint do not come back at the same time.
+	 */
+	private long getDelay(int attempt) {
+		long delay = baseDelay << Math.min(attempt - 1, 30);
+		if(delay <= 0 || delay > maxDelay) {
+			delay = maxDelay;
+		}
+
+		long half = delay / 2;
+		synchronized(random) {
+			return half + (long) (random.nextDouble() * (delay - half));
+		}
+	}
+
+	private static class RetryBudget {
+
+		private double ratio;
+		private double max;
+		private double tokens;
+
+		public RetryBudget(double ratio, int max) {
+			this.ratio = ratio;
+			this.max = max;
+			this.tokens = max;
+		}
+
+		public synchronized void deposit() {
+			tokens = Math.min(max, tokens + ratio);
+		}
+
+		public synchronized boolean withdraw() {
+			if(tokens < 1) {
+				return false;
+			}
+			tokens -= 1;
+			return true;
+		}
+	}
+
+}
@@ -1,36 +1,213 @@
 package gr.iti.mklab.framework.retrievers;
 
 import gr.iti.mklab.framework.common.domain.Item;
+import gr.iti.mklab.framework.common.domain.MediaItem;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
+/**
+ * The outcome of one or more retrievals. The statistics of the response are
+ * updated as pages of items are added, so they never require a scan of the items.
+ *
+ * The pages added to a response are copied, so the caller may reuse or modify its lists.
+ * A merge shares the pages of the other response instead of copying them again.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
 public class Response {
-	
-	private List<Item> items = new ArrayList<Item>();
+
+	private List<List<Item>> pages = new ArrayList<List<Item>>();
+	private PageConsumer consumer = null;
+
+	private int numberOfItems = 0;
+	private int storedItems = 0;
+	private int numberOfPages = 0;
 	private int requests = 0;
+	private long bytesReceived = 0l;
+
+	private long firstTimestamp = Long.MAX_VALUE;
 	private long lastTimestamp = 0l;
+	private String newestId = null;
+
+	private boolean complete = false;
+	private String cursor = null;
+
+	private Map<String, Integer> mediaTypes = new HashMap<String, Integer>();
+
+	public Response() {
+
+	}
 
+	/**
+	 * Creates a streaming response. Pages of items are handed to the consumer
+	 * and only the counters are kept in the response.
+	 *
+	 * @param consumer the consumer of the pages, or null to keep the items in the response
+	 */
+	public Response(PageConsumer consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Adds a page of mapped items to the response. The page is handed to the consumer of a
+	 * streaming response as it is, and copied otherwise.
+	 *
+	 * @param page the items of the page
+	 */
+	public void addPage(List<Item> page) {
+		for(Item item : page) {
+			long publicationTime = item.getPublicationTime();
+			// items without a publication time, e.g. undated web pages, do not move the timestamps
+			if(publicationTime > 0) {
+				if(lastTimestamp < publicationTime || newestId == null) {
+					lastTimestamp = Math.max(lastTimestamp, publicationTime);
+					newestId = item.getId();
+				}
+				if(firstTimestamp > publicationTime) {
+					firstTimestamp = publicationTime;
+				}
+			}
+
+			List<MediaItem> mediaItems = item.getMediaItems();
+			if(mediaItems != null) {
+				for(MediaItem mediaItem : mediaItems) {
+					count(mediaItem.getType(), 1);
+				}
+			}
+		}
+		numberOfItems += page.size();
+		numberOfPages++;
+
+		if(consumer != null) {
+			consumer.consume(page);
+		}
+		else if(!page.isEmpty()) {
+			pages.add(new ArrayList<Item>(page));
+			storedItems += page.size();
+		}
+	}
+
+	/**
+	 * Adds the items to the response as a single page. The list is copied.
+	 *
+	 * @param items the items
+	 */
 	public void setItems(List<Item> items) {
-		this.items.addAll(items);
+		addPage(items);
+	}
+
+	/**
+	 * Merges the items and the statistics of another response into this one.
+	 * The items of the other response are shared, not copied.
+	 *
+	 * @param other the response to merge
+	 * @return this response
+	 */
+	public Response merge(Response other) {
+		if(other == null || other == this) {
+			return this;
+		}
+
+		boolean empty = numberOfPages == 0 && requests == 0;
+
+		if(consumer != null) {
+			for(List<Item> page : other.pages) {
+				consumer.consume(page);
+			}
+		}
+		else {
+			pages.addAll(other.pages);
+			storedItems += other.storedItems;
+		}
+
+		numberOfItems += other.numberOfItems;
+		numberOfPages += other.numberOfPages;
+		requests += other.requests;
+		bytesReceived += other.bytesReceived;
+
+		if(other.newestId != null && (lastTimestamp < other.lastTimestamp || newestId == null)) {
+			lastTimestamp = Math.max(lastTimestamp, other.lastTimestamp);
+			newestId = other.newestId;
+		}
+		if(firstTimestamp > other.firstTimestamp) {
+			firstTimestamp = other.firstTimestamp;
+		}
+
+		// a merged response is complete only if all of its parts are
+		complete = empty ? other.complete : complete && other.complete;
+
+		for(Map.Entry<String, Integer> entry : other.mediaTypes.entrySet()) {
+			count(entry.getKey(), entry.getValue());
+		}
+
+		return this;
 	}
-	
+
+	/**
+	 * Copies the items of the response on every call, in time linear to their number. Before the
+	 * response kept its items in pages, this returned the backing list, so changes to it changed the
+	 * response; they no longer do. Use getItemsView to read the items without copying them.
+	 *
+	 * @return a copy of the items of the response, that the caller may modify. Always empty for a streaming response.
+	 */
 	public List<Item> getItems() {
-		return items;
+		return new ArrayList<Item>(new ItemsView());
 	}
-	
+
+	/**
+	 * Returns the items of the response without copying them, e.g. to iterate over a large response.
+	 *
+	 * @return a read-only view of the items of the response. Always empty for a streaming response.
+	 */
+	public List<Item> getItemsView() {
+		return new ItemsView();
+	}
+
+	public boolean isStreaming() {
+		return consumer != null;
+	}
+
 	public int getNumberOfItems() {
-		return items.size();
+		return numberOfItems;
+	}
+
+	/**
+	 * @return the number of pages added to the response
+	 */
+	public int getNumberOfPages() {
+		return numberOfPages;
 	}
-	
+
 	public int getRequests() {
 		return requests;
 	}
-	
+
 	public void setRequests(int requests) {
 		this.requests = requests;
 	}
-	
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public void addBytesReceived(long bytes) {
+		this.bytesReceived += bytes;
+	}
+
+	/**
+	 * @return the earliest publication time of the items, or 0 if none of the items has one
+	 */
+	public long getFirstTimestamp() {
+		return firstTimestamp == Long.MAX_VALUE ? 0l : firstTimestamp;
+	}
+
 	public long getLastTimestamp() {
 		return lastTimestamp;
 	}
@@ -38,4 +215,117 @@ public class Response {
 	public void setLastTimestamp(long lastTimestamp) {
 		this.lastTimestamp = lastTimestamp;
 	}
+
+	/**
+	 * @return true if the retrieval reached the since date or the end of the feed
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Marks the retrieval as complete, i.e. it reached the since date or the end of the feed, 
+	 * so that no items newer than the since date were left behind. Retrievals that stop early, 
+	 * on an error, a rate limit or the maximum number of requests, are not complete.
+	 *
+	 * @param complete true if the retrieval is complete
+	 */
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	/**
+	 * @return the position the next retrieval of the feed resumes from, or null if there is none
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Sets the position the next retrieval of the feed resumes from, e.g. the oldest id reached 
+	 * by a walk that stopped early. It is kept in the checkpoint of the feed even if the retrieval 
+	 * is not complete. An empty cursor clears the cursor of the checkpoint.
+	 *
+	 * @param cursor a source specific cursor
+	 */
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return the id of the item with the latest publication time, or null if the response is empty
+	 */
+	public String getNewestId() {
+		return newestId;
+	}
+
+	/**
+	 * @return the number of media items per media type, e.g. image, video
+	 */
+	public Map<String, Integer> getMediaTypeCounts() {
+		return Collections.unmodifiableMap(mediaTypes);
+	}
+
+	private void count(String type, int n) {
+		if(type == null) {
+			type = "unknown";
+		}
+		Integer current = mediaTypes.get(type);
+		mediaTypes.put(type, current == null ? n : current + n);
+	}
+
+	/**
+	 * A list over the pages of a response that avoids copying them into a single list.
+	 */
+	private class ItemsView extends AbstractList<Item> {
+
+		@Override
+		public Item get(int index) {
+			if(index < 0 || index >= storedItems) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + storedItems);
+			}
+			for(List<Item> page : pages) {
+				if(index < page.size()) {
+					return page.get(index);
+				}
+				index -= page.size();
+			}
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + storedItems);
+		}
+
+		@Override
+		public int size() {
+			return storedItems;
+		}
+
+		@Override
+		public Iterator<Item> iterator() {
+			final Iterator<List<Item>> pagesIterator = pages.iterator();
+			return new Iterator<Item>() {
+
+				private Iterator<Item> current = Collections.<Item>emptyList().iterator();
+
+				@Override
+				public boolean hasNext() {
+					while(!current.hasNext() && pagesIterator.hasNext()) {
+						current = pagesIterator.next().iterator();
+					}
+					return current.hasNext();
+				}
+
+				@Override
+				public Item next() {
+					if(!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return current.next();
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
 }
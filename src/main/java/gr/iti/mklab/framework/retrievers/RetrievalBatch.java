@@ -0,0 +1,82 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import gr.iti.mklab.framework.common.domain.feeds.Feed;
+
+/**
+ * The pending responses of a batch of feeds scheduled by a RetrievalScheduler.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RetrievalBatch {
+
+	private Map<Feed, CompletableFuture<Response>> futures = new LinkedHashMap<Feed, CompletableFuture<Response>>();
+
+	void add(Feed feed, CompletableFuture<Response> future) {
+		futures.put(feed, future);
+	}
+
+	/**
+	 * @param feed a feed of the batch
+	 * @return the pending response of the feed, or null if the feed is not part of the batch
+	 */
+	public CompletableFuture<Response> getFuture(Feed feed) {
+		return futures.get(feed);
+	}
+
+	public Map<Feed, CompletableFuture<Response>> getFutures() {
+		return Collections.unmodifiableMap(futures);
+	}
+
+	public Collection<Feed> getFeeds() {
+		return Collections.unmodifiableSet(futures.keySet());
+	}
+
+	public int size() {
+		return futures.size();
+	}
+
+	/**
+	 * Returns a handle that completes when every feed of the batch has been retrieved.
+	 * The handle completes exceptionally if any of the retrievals failed, but only
+	 * after all of them have finished.
+	 *
+	 * @return CompletableFuture the aggregate completion handle
+	 */
+	public CompletableFuture<Void> allOf() {
+		List<CompletableFuture<Response>> pending = new ArrayList<CompletableFuture<Response>>(futures.values());
+		return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]));
+	}
+
+	/**
+	 * Waits for every feed of the batch and merges their responses into a single one.
+	 * Failed retrievals are skipped.
+	 *
+	 * @return Response the merged response of the batch
+	 */
+	public Response merge() {
+		Response merged = new Response();
+		for(CompletableFuture<Response> future : futures.values()) {
+			try {
+				merged.merge(future.join());
+			}
+			catch(CompletionException e) {
+				continue;
+			}
+			catch(CancellationException e) {
+				continue;
+			}
+		}
+		return merged;
+	}
+
+}
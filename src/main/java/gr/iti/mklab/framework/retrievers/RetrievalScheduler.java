@@ -0,0 +1,129 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gr.iti.mklab.framework.common.domain.feeds.Feed;
+
+/**
+ * Dispatches a batch of feeds to the retriever registered for their source.
+ * Each source has its own bounded executor, so the time needed for a batch
+ * depends on the slowest source and not on the sum of all sources.
+ *
+ * A retriever registered with more than one thread is called concurrently,
+ * so it must be safe to share between threads.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RetrievalScheduler {
+
+	private Logger logger = LogManager.getLogger(RetrievalScheduler.class);
+
+	private Map<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+
+	/**
+	 * Registers the retriever that handles the feeds of a source, e.g. Twitter, Flickr.
+	 *
+	 * @param source the source of the feeds, as returned by Feed.getSource()
+	 * @param retriever the retriever for that source
+	 * @param threads the maximum number of concurrent retrievals for that source
+	 */
+	public synchronized void register(String source, Retriever retriever, int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("Number of threads for " + source + " must be positive");
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory(source + "-retriever"));
+		Registration previous = registrations.put(source, new Registration(retriever, executor));
+		if(previous != null) {
+			previous.executor.shutdown();
+		}
+	}
+
+	/**
+	 * Schedules the retrieval of a batch of feeds. This method does not block. The feeds of a source
+	 * that is registered again or shut down while the batch is scheduled get an empty response.
+	 *
+	 * @param feeds the feeds to retrieve
+	 * @param maxRequests the maximum number of requests per feed
+	 * @return RetrievalBatch the pending responses of the feeds
+	 */
+	public RetrievalBatch schedule(Collection<? extends Feed> feeds, final Integer maxRequests) {
+		RetrievalBatch batch = new RetrievalBatch();
+		for(final Feed feed : feeds) {
+			final String source = feed.getSource();
+
+			// the retriever and its executor are read together, as register replaces both
+			final Registration registration = source == null ? null : registrations.get(source);
+			if(registration == null) {
+				logger.error("No retriever registered for source " + source + " of feed (" + feed.getId() + ")");
+				batch.add(feed, CompletableFuture.completedFuture(new Response()));
+				continue;
+			}
+
+			CompletableFuture<Response> future;
+			try {
+				future = CompletableFuture.supplyAsync(new Supplier<Response>() {
+					@Override
+					public Response get() {
+						try {
+							Response response = registration.retriever.retrieve(feed, maxRequests);
+							return response == null ? new Response() : response;
+						} catch (Exception e) {
+							logger.error("Retrieval of feed (" + feed.getId() + ") from " + source + " failed", e);
+							throw new RuntimeException(e);
+						}
+					}
+				}, registration.executor);
+			}
+			catch(RejectedExecutionException e) {
+				logger.error("Retriever of source " + source + " is shut down, feed (" + feed.getId() + ") is not retrieved");
+				future = CompletableFuture.completedFuture(new Response());
+			}
+
+			batch.add(feed, future);
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Stops accepting new feeds and waits for the scheduled retrievals to finish.
+	 */
+	public synchronized void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		for(Registration registration : registrations.values()) {
+			registration.executor.shutdown();
+		}
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for(Registration registration : registrations.values()) {
+			registration.executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+
+		registrations.clear();
+	}
+
+	/**
+	 * The retriever of a source and the executor of its retrievals.
+	 */
+	private static class Registration {
+
+		private final Retriever retriever;
+		private final ExecutorService executor;
+
+		public Registration(Retriever retriever, ExecutorService executor) {
+			this.retriever = retriever;
+			this.executor = executor;
+		}
+	}
+}
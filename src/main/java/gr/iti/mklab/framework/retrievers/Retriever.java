@@ -1,6 +1,14 @@
 package gr.iti.mklab.framework.retrievers;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import gr.iti.mklab.framework.Credentials;
 import gr.iti.mklab.framework.common.domain.Item;
@@ -20,8 +28,312 @@ import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
  */
 public abstract class Retriever {
 	
+	private Logger logger = LogManager.getLogger(Retriever.class);
+	
+	private int prefetchDepth = 0;
+	private int lookupParallelism = 8;
+	private int maxCommentPages = 3;
+	private CheckpointStore checkpointStore = null;
+	private RateLimitGovernor rateLimitGovernor;
+	private Resilience resilience;
+	private StreamUserCache streamUserCache = StreamUserCache.getDefault();
+	
+	private Projection defaultProjection = Projection.FULL;
+	private Map<String, Projection> projections = new ConcurrentHashMap<String, Projection>();
+	
 	public Retriever(Credentials credentials) {
+		rateLimitGovernor = RateLimitGovernor.forCredentials(getClass().getName(), credentials);
+		resilience = Resilience.forSource(getClass().getName());
+	}
+	
+	/**
+	 * Replaces the rate limit governor of the retriever. By default retrievers of 
+	 * the same class and credentials share a governor.
+	 * 
+	 * @param rateLimitGovernor the governor
+	 */
+	public void setRateLimitGovernor(RateLimitGovernor rateLimitGovernor) {
+		this.rateLimitGovernor = rateLimitGovernor;
+	}
+	
+	public RateLimitGovernor getRateLimitGovernor() {
+		return rateLimitGovernor;
+	}
+	
+	/**
+	 * Replaces the retry policy and circuit breakers of the retriever. By default 
+	 * retrievers of the same class share them.
+	 * 
+	 * @param resilience the retry policy
+	 */
+	public void setResilience(Resilience resilience) {
+		this.resilience = resilience;
+	}
+	
+	public Resilience getResilience() {
+		return resilience;
+	}
+	
+	/**
+	 * Sets the number of pages that paginated retrievals request ahead of the page
+	 * being mapped. 0, the default, fetches the pages strictly one after the other.
+	 * 
+	 * @param prefetchDepth the number of pages to prefetch
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = Math.max(0, prefetchDepth);
+	}
+	
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+	
+	/**
+	 * Sets the maximum number of comment pages requested per item in one walk. Walks that 
+	 * stop on the limit before the since time are truncated, and can be resumed later.
+	 * 
+	 * @param maxCommentPages the maximum number of pages, 3 by default
+	 */
+	public void setMaxCommentPages(int maxCommentPages) {
+		this.maxCommentPages = Math.max(1, maxCommentPages);
+	}
+	
+	public int getMaxCommentPages() {
+		return maxCommentPages;
+	}
+	
+	/**
+	 * Creates a page iterator that honors the prefetch depth of the retriever.
+	 * 
+	 * @param fetcher the fetcher of the pages
+	 * @param maxPages the maximum number of pages to request
+	 * @return PagePrefetcher
+	 */
+	protected <P> PagePrefetcher<P> prefetch(PageFetcher<P> fetcher, int maxPages) {
+		return new PagePrefetcher<P>(fetcher, maxPages, prefetchDepth);
+	}
+	
+	/**
+	 * Wraps a page fetcher so that the transient failures of its pages are retried 
+	 * through the resilience of the retriever.
+	 * 
+	 * @param endpoint the endpoint of the pages
+	 * @param fetcher the fetcher of the pages
+	 * @return PageFetcher
+	 */
+	protected <P> PageFetcher<P> resilient(final String endpoint, final PageFetcher<P> fetcher) {
+		return new PageFetcher<P>() {
+			@Override
+			public P fetch(final P previous) throws Exception {
+				return resilience.call(endpoint, new Callable<P>() {
+					@Override
+					public P call() throws Exception {
+						return fetcher.fetch(previous);
+					}
+				});
+			}
+		};
+	}
+	
+	/**
+	 * Sets the store of the feed checkpoints. Once set, the retrievals resume 
+	 * from the checkpoint of each feed instead of its since date, and the 
+	 * checkpoint is advanced after every retrieval of the feed.
+	 * 
+	 * @param checkpointStore the store, or null to disable checkpoints
+	 */
+	public void setCheckpointStore(CheckpointStore checkpointStore) {
+		this.checkpointStore = checkpointStore;
+	}
+	
+	public CheckpointStore getCheckpointStore() {
+		return checkpointStore;
+	}
+	
+	/**
+	 * Sets the projection of the feeds that do not have their own. The default is FULL.
+	 * 
+	 * @param projection the projection
+	 */
+	public void setProjection(Projection projection) {
+		this.defaultProjection = projection;
+	}
+	
+	/**
+	 * Sets the projection of a feed.
+	 * 
+	 * @param feedId the id of the feed
+	 * @param projection the projection, or null to use the default of the retriever
+	 */
+	public void setProjection(String feedId, Projection projection) {
+		if(projection == null) {
+			projections.remove(feedId);
+		}
+		else {
+			projections.put(feedId, projection);
+		}
+	}
+	
+	/**
+	 * @param feed a feed
+	 * @return the projection of the feed
+	 */
+	public Projection getProjection(Feed feed) {
+		if(feed != null && feed.getId() != null) {
+			Projection projection = projections.get(feed.getId());
+			if(projection != null) {
+				return projection;
+			}
+		}
+		return defaultProjection;
+	}
+	
+	/**
+	 * Replaces the cache of the users looked up by the retriever. By default all 
+	 * the retrievers share a cache, with a namespace per source.
+	 * 
+	 * @param streamUserCache the cache
+	 */
+	public void setStreamUserCache(StreamUserCache streamUserCache) {
+		this.streamUserCache = streamUserCache;
+	}
+	
+	public StreamUserCache getStreamUserCache() {
+		return streamUserCache;
+	}
+	
+	/**
+	 * Sets the maximum number of concurrent user lookups when the users of a page are resolved.
+	 * 
+	 * @param lookupParallelism the number of concurrent lookups, 1 to look users up one after the other
+	 */
+	public void setLookupParallelism(int lookupParallelism) {
+		this.lookupParallelism = Math.max(1, lookupParallelism);
+	}
+	
+	public int getLookupParallelism() {
+		return lookupParallelism;
+	}
+	
+	/**
+	 * Resolves the users of a page through the cache of the retriever, looking up the missing ones concurrently.
+	 * 
+	 * @param source the namespace of the users in the cache
+	 * @param uids the ids of the users of the page
+	 * @param lookup the request of a single user
+	 * @return the users by id
+	 */
+	protected Map<String, StreamUser> resolveStreamUsers(String source, Collection<String> uids, StreamUserResolver.Lookup lookup) {
+		StreamUserResolver resolver = new StreamUserResolver(source, streamUserCache, lookupParallelism);
+		return resolver.resolve(uids, lookup);
+	}
+	
+	/**
+	 * @param feed a feed
+	 * @return the checkpoint of the feed, or null if there is none
+	 */
+	protected Checkpoint getCheckpoint(Feed feed) {
+		if(checkpointStore == null || feed == null) {
+			return null;
+		}
+		return checkpointStore.get(feed.getId());
+	}
+	
+	/**
+	 * Returns the time to retrieve the feed from: the since date of the feed or 
+	 * the last publication time of its checkpoint, whichever is later.
+	 * 
+	 * @param feed a feed
+	 * @return the since date in milliseconds
+	 */
+	protected long getSinceDate(Feed feed) {
+		long sinceDate = feed.getSinceDate();
+		
+		Checkpoint checkpoint = getCheckpoint(feed);
+		if(checkpoint != null && checkpoint.getLastTimestamp() > sinceDate) {
+			sinceDate = checkpoint.getLastTimestamp();
+		}
+		return sinceDate;
+	}
+	
+	/**
+	 * Advances the checkpoint of a feed with the outcome of a retrieval. Only complete retrievals
+	 * advance the checkpoint, as the next retrieval starts from it and a partial one would leave 
+	 * the items it did not reach behind. The cursor of a partial retrieval is kept, so that the
+	 * next one can resume from it.
+	 * 
+	 * @param feed the retrieved feed
+	 * @param response the response of the retrieval
+	 */
+	protected void checkpoint(Feed feed, Response response) {
+		if(checkpointStore == null || feed == null || feed.getId() == null || response == null) {
+			return;
+		}
+		
+		String cursor = response.getCursor();
+		if(!response.isComplete() || response.getLastTimestamp() <= 0) {
+			// only the position the next retrieval resumes from is kept
+			if(cursor != null) {
+				checkpointStore.update(new Checkpoint(feed.getId(), 0l, null, cursor));
+			}
+			return;
+		}
+		
+		// keep the native id of the item, i.e. without the source prefix. A resumed walk that 
+		// reached the since date without new items carries the timestamp of the walk it continued
+		String newestId = response.getNewestId();
+		if(newestId != null) {
+			newestId = newestId.substring(newestId.indexOf('#') + 1);
+		}
+		checkpointStore.update(new Checkpoint(feed.getId(), response.getLastTimestamp(), newestId, cursor));
+	}
+	
+	/**
+	 * Returns where the last walk of a feed stopped, if it did not reach the since date of the feed.
+	 * The walk resumes from there, down to the since date of the checkpoint, instead of starting
+	 * over from the newest page.
+	 * 
+	 * @param feed a feed
+	 * @return the cursor of the last walk, or null if it was complete or there are no checkpoints
+	 */
+	protected WalkCursor getWalkCursor(Feed feed) {
+		Checkpoint checkpoint = getCheckpoint(feed);
+		if(checkpoint == null || checkpoint.getCursor() == null) {
+			return null;
+		}
+		
+		WalkCursor cursor = WalkCursor.parse(checkpoint.getCursor());
+		if(cursor == null) {
+			logger.error("Invalid cursor " + checkpoint.getCursor() + " of feed " + feed.getId());
+		}
+		return cursor;
+	}
+	
+	/**
+	 * Sets the cursor of a walk in its response. A walk that stopped early keeps the position of 
+	 * its next page, so that the next walk resumes from it. A resumed walk that reached the since 
+	 * date clears the cursor, and its checkpoint moves to the newest item of the walk it continued.
+	 * 
+	 * @param feed the feed
+	 * @param response the response of the walk
+	 * @param position the position of the next page, or null if the walk did not reach one
+	 * @param resumed the cursor the walk resumed from, or null if it started from the newest page
+	 */
+	protected void endWalk(Feed feed, Response response, String position, WalkCursor resumed) {
+		long newest = response.getLastTimestamp();
+		if(resumed != null && resumed.getNewest() > newest) {
+			newest = resumed.getNewest();
+		}
 		
+		if(response.isComplete()) {
+			if(resumed != null) {
+				response.setLastTimestamp(newest);
+				response.setCursor("");
+			}
+		}
+		else if(position != null) {
+			response.setCursor(new WalkCursor(newest, position).toString());
+		}
 	}
 	
 	/**
@@ -38,6 +350,21 @@ public abstract class Retriever {
 	
 	public abstract Response retrieveKeywordsFeed(KeywordsFeed feed, Integer requests) throws Exception;
 	
+	/**
+	 * Retrieves a keywords feed and hands each page of items to the consumer
+	 * as soon as it is mapped. Retrievers that do not support streaming
+	 * hand all the items to the consumer as a single page.
+	 * 
+	 * @param feed KeywordsFeed
+	 * @param requests the maximum number of requests
+	 * @param consumer the consumer of the pages
+	 * @return Response a streaming response without items
+	 * @throws Exception exception
+	 */
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer requests, PageConsumer consumer) throws Exception {
+		return stream(retrieveKeywordsFeed(feed, requests), consumer);
+	}
+	
 	/**
 	 * Retrieves a user feed that contains the user/users in 
 	 * order to retrieve content posted by them
@@ -52,6 +379,10 @@ public abstract class Retriever {
 	
 	public abstract Response retrieveAccountFeed(AccountFeed feed, Integer requests) throws Exception;
 	
+	public Response retrieveAccountFeed(AccountFeed feed, Integer requests, PageConsumer consumer) throws Exception {
+		return stream(retrieveAccountFeed(feed, requests), consumer);
+	}
+	
 	/**
 	 * Retrieves a location feed that contains the coordinates of the location
 	 * that the retrieved content must come from.
@@ -65,6 +396,10 @@ public abstract class Retriever {
 	}
 	
 	public abstract Response retrieveLocationFeed(LocationFeed feed, Integer requests) throws Exception;
+	
+	public Response retrieveLocationFeed(LocationFeed feed, Integer requests, PageConsumer consumer) throws Exception {
+		return stream(retrieveLocationFeed(feed, requests), consumer);
+	}
 
 	/**
 	 * Retrieves a list feed that contains the owner of a list an a slug 
@@ -78,6 +413,10 @@ public abstract class Retriever {
 	
 	public abstract Response retrieveGroupFeed(GroupFeed feed, Integer maxRequests);
 	
+	public Response retrieveGroupFeed(GroupFeed feed, Integer maxRequests, PageConsumer consumer) {
+		return stream(retrieveGroupFeed(feed, maxRequests), consumer);
+	}
+	
 	/**
 	 * Retrieves the info for a specific user on the basis
 	 * of his id in the social network
@@ -98,30 +437,119 @@ public abstract class Retriever {
 	
 	public abstract List<Item> getItemComments(Item item, long since);
 	
+	/**
+	 * Retrieves the comments of a number of items. Retrievers that can request the comments
+	 * of many items at once, e.g. through a batch API, override this method. By default the
+	 * comments of each item are requested with getItemComments.
+	 * 
+	 * @param items the items, each with the time to retrieve its comments from
+	 * @return the comments by the id of the item. Items whose comments could not be retrieved are missing.
+	 */
+	public Map<String, List<Item>> getItemsComments(Map<Item, Long> items) {
+		Map<String, List<Item>> comments = new HashMap<String, List<Item>>();
+		for(Map.Entry<Item, Long> e : items.entrySet()) {
+			List<Item> itemComments = getItemComments(e.getKey(), e.getValue());
+			if(itemComments != null) {
+				comments.put(e.getKey().getId(), itemComments);
+			}
+		}
+		return comments;
+	}
+	
+	/**
+	 * Retrieves the comments of a number of items, resuming the walks that were truncated 
+	 * from their cursors. Retrievers that paginate the comments of an item override this 
+	 * method. By default the walks are never truncated and the cursors are ignored.
+	 * 
+	 * @param items the items, each with the time to retrieve its comments from
+	 * @param cursors the cursors of the truncated walks, by the id of the item
+	 * @return the comments by the id of the item. Items whose comments could not be retrieved are missing.
+	 */
+	public Map<String, ItemComments> getItemsComments(Map<Item, Long> items, Map<String, String> cursors) {
+		Map<String, ItemComments> comments = new HashMap<String, ItemComments>();
+		for(Map.Entry<String, List<Item>> e : getItemsComments(items).entrySet()) {
+			comments.put(e.getKey(), new ItemComments(e.getValue(), null));
+		}
+		return comments;
+	}
+	
 	public Response retrieve(Feed feed) throws Exception {
 		return retrieve(feed, 1);
 	}
 
 	public Response retrieve (Feed feed, Integer requests) throws Exception {
+		Response response = new Response();
 		if(AccountFeed.class.isInstance(feed)) {
 			AccountFeed userFeed = (AccountFeed) feed;				
-			return retrieveAccountFeed(userFeed, requests);
+			response = retrieveAccountFeed(userFeed, requests);
 		}
-		if(KeywordsFeed.class.isInstance(feed)) {
+		else if(KeywordsFeed.class.isInstance(feed)) {
 			KeywordsFeed keyFeed = (KeywordsFeed) feed;				
-			return retrieveKeywordsFeed(keyFeed, requests);
+			response = retrieveKeywordsFeed(keyFeed, requests);
 		}
-		if(LocationFeed.class.isInstance(feed)) {
+		else if(LocationFeed.class.isInstance(feed)) {
 			LocationFeed locationFeed = (LocationFeed) feed;
-			return retrieveLocationFeed(locationFeed, requests);
+			response = retrieveLocationFeed(locationFeed, requests);
 		}
-		if(GroupFeed.class.isInstance(feed)) {
+		else if(GroupFeed.class.isInstance(feed)) {
 			GroupFeed listFeed = (GroupFeed) feed;
-			return retrieveGroupFeed(listFeed, requests);
+			response = retrieveGroupFeed(listFeed, requests);
 		}
 		
+		checkpoint(feed, response);
+		return response;
+	}
+	
+	/**
+	 * Retrieves a feed page by page. Each page of mapped items is handed to the 
+	 * consumer as soon as it is available, so only one page is kept in memory. 
+	 * 
+	 * @param feed the feed to retrieve
+	 * @param requests the maximum number of requests
+	 * @param consumer the consumer of the pages
+	 * @return Response a streaming response that holds the counters of the retrieval
+	 * @throws Exception exception
+	 */
+	public Response retrieve(Feed feed, Integer requests, PageConsumer consumer) throws Exception {
+		Response response = new Response(consumer);
+		if(AccountFeed.class.isInstance(feed)) {
+			AccountFeed userFeed = (AccountFeed) feed;				
+			response = retrieveAccountFeed(userFeed, requests, consumer);
+		}
+		else if(KeywordsFeed.class.isInstance(feed)) {
+			KeywordsFeed keyFeed = (KeywordsFeed) feed;				
+			response = retrieveKeywordsFeed(keyFeed, requests, consumer);
+		}
+		else if(LocationFeed.class.isInstance(feed)) {
+			LocationFeed locationFeed = (LocationFeed) feed;
+			response = retrieveLocationFeed(locationFeed, requests, consumer);
+		}
+		else if(GroupFeed.class.isInstance(feed)) {
+			GroupFeed listFeed = (GroupFeed) feed;
+			response = retrieveGroupFeed(listFeed, requests, consumer);
+		}
 		
-		return new Response();
+		checkpoint(feed, response);
+		return response;
+	}
+	
+	/**
+	 * Hands the items of an already materialized response to a consumer as a single page.
+	 */
+	protected Response stream(Response response, PageConsumer consumer) {
+		Response streamed = new Response(consumer);
+		if(response != null) {
+			streamed.addPage(response.getItemsView());
+			streamed.setRequests(response.getRequests());
+			streamed.setComplete(response.isComplete());
+			streamed.setCursor(response.getCursor());
+		}
+		return streamed;
+	}
+	
+	public Response getResponse(Response response, int requests) {
+		response.setRequests(requests);
+		return response;
 	}
 	
 	public Response getResponse(List<Item> items, int requests) {
@@ -129,14 +557,6 @@ public abstract class Retriever {
 		response.setItems(items);
 		response.setRequests(requests);
 		
-		long lastTimestamp = 0l;
-		for(Item item : items) {
-			if(lastTimestamp < item.getPublicationTime()) {
-				lastTimestamp = item.getPublicationTime();
-			}
-		}
-		response.setLastTimestamp(lastTimestamp);
-		
 		return response;
 	}
 }
@@ -0,0 +1,200 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.io.Closeable;
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gr.iti.mklab.framework.Credentials;
+
+/**
+ * Keeps one retriever, and therefore one SDK client, per source and credentials.
+ *
+ * Retrievers are created on first use and reused afterwards. Access to a retriever goes
+ * through a lease, and the number of concurrent leases per retriever is bounded by the
+ * concurrency of its source. The default concurrency of 1 makes the pool safe for the
+ * clients that keep per-request state. Sources with thread-safe clients can be given a
+ * higher concurrency.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RetrieverPool {
+
+	private static final int DEFAULT_CONCURRENCY = 1;
+
+	private Logger logger = LogManager.getLogger(RetrieverPool.class);
+
+	private Map<String, Class<? extends Retriever>> retrieverClasses = new ConcurrentHashMap<String, Class<? extends Retriever>>();
+	private Map<String, Integer> concurrency = new ConcurrentHashMap<String, Integer>();
+
+	private Map<PoolKey, PoolEntry> entries = new ConcurrentHashMap<PoolKey, PoolEntry>();
+
+	/**
+	 * Registers the retriever class of a source with the default concurrency of 1, i.e. one
+	 * lease at a time per retriever.
+	 *
+	 * @param source the source, e.g. Twitter
+	 * @param retrieverClass the retriever class of the source
+	 */
+	public void register(String source, Class<? extends Retriever> retrieverClass) {
+		register(source, retrieverClass, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Registers the retriever class of a source. The class must have a public constructor
+	 * that takes the Credentials.
+	 *
+	 * @param source the source, e.g. Twitter
+	 * @param retrieverClass the retriever class of the source
+	 * @param maxConcurrency the maximum number of concurrent leases per retriever of the source
+	 */
+	public void register(String source, Class<? extends Retriever> retrieverClass, int maxConcurrency) {
+		if(maxConcurrency < 1) {
+			throw new IllegalArgumentException("Concurrency of " + source + " must be positive");
+		}
+		retrieverClasses.put(source, retrieverClass);
+		concurrency.put(source, maxConcurrency);
+	}
+
+	/**
+	 * Leases the retriever of a source and credentials, waiting while the retriever is at its maximum concurrency.
+	 *
+	 * @param source the source
+	 * @param credentials the credentials of the retriever
+	 * @return Lease the lease, that must be closed when the retriever is no longer used
+	 * @throws Exception if the retriever cannot be created or the thread is interrupted
+	 */
+	public Lease lease(String source, Credentials credentials) throws Exception {
+		PoolEntry entry = getEntry(source, credentials);
+		entry.permits.acquire();
+
+		return new Lease(entry);
+	}
+
+	/**
+	 * Leases the retriever of a source and credentials, waiting up to the given timeout.
+	 *
+	 * @return Lease the lease, or null if the timeout expired
+	 */
+	public Lease tryLease(String source, Credentials credentials, long timeout, TimeUnit unit) throws Exception {
+		PoolEntry entry = getEntry(source, credentials);
+		if(!entry.permits.tryAcquire(timeout, unit)) {
+			return null;
+		}
+
+		return new Lease(entry);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Drops all the pooled retrievers. Leases in progress remain valid.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	private PoolEntry getEntry(String source, Credentials credentials) throws Exception {
+		PoolKey key = new PoolKey(source, credentials);
+
+		PoolEntry entry = entries.get(key);
+		if(entry != null) {
+			return entry;
+		}
+
+		synchronized(this) {
+			entry = entries.get(key);
+			if(entry == null) {
+				Class<? extends Retriever> retrieverClass = retrieverClasses.get(source);
+				if(retrieverClass == null) {
+					throw new IllegalArgumentException("No retriever registered for source " + source);
+				}
+
+				logger.info("Create " + retrieverClass.getSimpleName() + " for " + source);
+				Constructor<? extends Retriever> constructor = retrieverClass.getConstructor(Credentials.class);
+				Retriever retriever = constructor.newInstance(credentials);
+
+				entry = new PoolEntry(retriever, concurrency.get(source));
+				entries.put(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Exclusive or shared access to a pooled retriever, until the lease is closed.
+	 */
+	public static class Lease implements Closeable {
+
+		private PoolEntry entry;
+		private boolean closed = false;
+
+		private Lease(PoolEntry entry) {
+			this.entry = entry;
+		}
+
+		public Retriever getRetriever() {
+			if(closed) {
+				throw new IllegalStateException("Lease is closed");
+			}
+			return entry.retriever;
+		}
+
+		@Override
+		public synchronized void close() {
+			if(!closed) {
+				closed = true;
+				entry.permits.release();
+			}
+		}
+	}
+
+	private static class PoolEntry {
+
+		private Retriever retriever;
+		private Semaphore permits;
+
+		public PoolEntry(Retriever retriever, int permits) {
+			this.retriever = retriever;
+			this.permits = new Semaphore(permits, true);
+		}
+	}
+
+	private static class PoolKey {
+
+		private String source;
+		private Credentials credentials;
+
+		public PoolKey(String source, Credentials credentials) {
+			this.source = source;
+			if(credentials != null) {
+				// credentials are mutable, keep a copy so that the key does not change
+				this.credentials = new Credentials(credentials.getKey(), credentials.getSecret(), 
+						credentials.getAccessToken(), credentials.getAccessTokenSecret());
+				this.credentials.setClientId(credentials.getClientId());
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * source.hashCode() + (credentials == null ? 0 : credentials.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof PoolKey)) {
+				return false;
+			}
+			PoolKey other = (PoolKey) obj;
+			return source.equals(other.source)
+					&& (credentials == null ? other.credentials == null : credentials.equals(other.credentials));
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package gr.iti.mklab.framework.retrievers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gr.iti.mklab.framework.common.domain.StreamUser;
+
+/**
+ * Concurrent cache of the users looked up by the retrievers, with a namespace per source.
+ *
+ * Entries expire a fixed time after they are stored. When the cache grows past its maximum
+ * size, a sweep removes the expired entries and then the least frequently used ones, down to
+ * 90% of the maximum size, so that the authors that appear again and again stay cached.
+ * Frequencies are halved every time as many users as the maximum size have been stored,
+ * so users that were popular long ago age out.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class StreamUserCache {
+
+	private static final StreamUserCache defaultCache = new StreamUserCache(100000, 6 * 3600 * 1000l);
+
+	private Logger logger = LogManager.getLogger(StreamUserCache.class);
+
+	private int maxSize;
+	private long ttl;
+
+	private Map<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+	private Map<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+	private ReentrantLock sweepLock = new ReentrantLock();
+
+	private AtomicLong insertions = new AtomicLong();
+	private long lastAging = 0l;
+
+	/**
+	 * @param maxSize the maximum number of users over all the sources
+	 * @param ttl the time in milliseconds a user is kept after it is stored
+	 */
+	public StreamUserCache(int maxSize, long ttl) {
+		if(maxSize < 1) {
+			throw new IllegalArgumentException("Size of the cache must be positive");
+		}
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @return the cache shared by all the retrievers that are not given their own
+	 */
+	public static StreamUserCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * @param source the namespace of the user, e.g. Flickr
+	 * @param uid the id of the user in the source
+	 * @return the cached user, or null if it is not cached or has expired
+	 */
+	public StreamUser get(String source, String uid) {
+		Stats sourceStats = getStats(source);
+		if(uid == null) {
+			sourceStats.misses.incrementAndGet();
+			return null;
+		}
+
+		Key key = new Key(source, uid);
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			sourceStats.misses.incrementAndGet();
+			return null;
+		}
+
+		if(entry.isExpired(System.currentTimeMillis())) {
+			if(entries.remove(key, entry)) {
+				sourceStats.expirations.incrementAndGet();
+			}
+			sourceStats.misses.incrementAndGet();
+			return null;
+		}
+
+		entry.frequency.incrementAndGet();
+		sourceStats.hits.incrementAndGet();
+
+		return entry.user;
+	}
+
+	/**
+	 * Looks up a number of users at once.
+	 *
+	 * @param source the namespace of the users
+	 * @param uids the ids of the users in the source
+	 * @return the cached users by id. The ids that are missing have to be fetched.
+	 */
+	public Map<String, StreamUser> getAll(String source, Collection<String> uids) {
+		Map<String, StreamUser> users = new HashMap<String, StreamUser>();
+		for(String uid : uids) {
+			StreamUser user = get(source, uid);
+			if(user != null) {
+				users.put(uid, user);
+			}
+		}
+		return users;
+	}
+
+	/**
+	 * @param source the namespace of the user, e.g. Flickr
+	 * @param uid the id of the user in the source
+	 * @param user the user, ignored if null
+	 */
+	public void put(String source, String uid, StreamUser user) {
+		if(uid == null || user == null) {
+			return;
+		}
+
+		Entry previous = entries.put(new Key(source, uid), new Entry(user, System.currentTimeMillis() + ttl));
+		if(previous == null) {
+			insertions.incrementAndGet();
+			if(entries.size() > maxSize) {
+				sweep();
+			}
+		}
+	}
+
+	public void remove(String source, String uid) {
+		entries.remove(new Key(source, uid));
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @param source the namespace
+	 * @return the hit and miss counters of the namespace
+	 */
+	public Stats getStats(String source) {
+		Stats sourceStats = stats.get(source);
+		if(sourceStats == null) {
+			synchronized(stats) {
+				sourceStats = stats.get(source);
+				if(sourceStats == null) {
+					sourceStats = new Stats();
+					stats.put(source, sourceStats);
+				}
+			}
+		}
+		return sourceStats;
+	}
+
+	private void sweep() {
+		// a single sweep at a time, other writers do not wait for it
+		if(!sweepLock.tryLock()) {
+			return;
+		}
+
+		try {
+			long now = System.currentTimeMillis();
+			List<Map.Entry<Key, Entry>> candidates = new ArrayList<Map.Entry<Key, Entry>>(entries.size());
+			for(Map.Entry<Key, Entry> e : entries.entrySet()) {
+				if(e.getValue().isExpired(now)) {
+					if(entries.remove(e.getKey(), e.getValue())) {
+						getStats(e.getKey().source).expirations.incrementAndGet();
+					}
+				}
+				else {
+					candidates.add(e);
+				}
+			}
+
+			int target = (int) (maxSize * 0.9);
+			int excess = entries.size() - target;
+			if(excess > 0) {
+				// the least frequently used first, and among them the ones that expire sooner
+				Collections.sort(candidates, new Comparator<Map.Entry<Key, Entry>>() {
+					@Override
+					public int compare(Map.Entry<Key, Entry> e1, Map.Entry<Key, Entry> e2) {
+						int f1 = e1.getValue().frequency.get(), f2 = e2.getValue().frequency.get();
+						if(f1 != f2) {
+							return f1 < f2 ? -1 : 1;
+						}
+						return Long.compare(e1.getValue().expires, e2.getValue().expires);
+					}
+				});
+
+				for(int i = 0; i < excess && i < candidates.size(); i++) {
+					Map.Entry<Key, Entry> e = candidates.get(i);
+					if(entries.remove(e.getKey(), e.getValue())) {
+						getStats(e.getKey().source).evictions.incrementAndGet();
+					}
+				}
+			}
+
+			if(insertions.get() - lastAging >= maxSize) {
+				lastAging = insertions.get();
+				for(Entry entry : entries.values()) {
+					int frequency = entry.frequency.get();
+					entry.frequency.compareAndSet(frequency, frequency >> 1);
+				}
+			}
+
+			logger.debug("Stream user cache swept, " + entries.size() + " users left");
+		}
+		finally {
+			sweepLock.unlock();
+		}
+	}
+
+	/**
+	 * Counters of a namespace of the cache.
+	 */
+	public static class Stats {
+
+		private AtomicLong hits = new AtomicLong();
+		private AtomicLong misses = new AtomicLong();
+		private AtomicLong evictions = new AtomicLong();
+		private AtomicLong expirations = new AtomicLong();
+
+		public long getHits() {
+			return hits.get();
+		}
+
+		public long getMisses() {
+			return misses.get();
+		}
+
+		public long getEvictions() {
+			return evictions.get();
+		}
+
+		public long getExpirations() {
+			return expirations.get();
+		}
+
+		public double getHitRate() {
+			long lookups = hits.get() + misses.get();
+			return lookups == 0 ? 0 : (double) hits.get() / lookups;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+					+ ", expirations=" + getExpirations() + ", hitRate=" + String.format("%.3f", getHitRate());
+		}
+	}
+
+	private static class Entry {
+
+		private StreamUser user;
+		private long expires;
+		private AtomicInteger frequency = new AtomicInteger(1);
+
+		public Entry(StreamUser user, long expires) {
+			this.user = user;
+			this.expires = expires;
+		}
+
+		public boolean isExpired(long now) {
+			return now >= expires;
+		}
+	}
+
+	private static class Key {
+
+		private String source;
+		private String uid;
+
+		public Key(String source, String uid) {
+			this.source = source;
+			this.uid = uid;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * source.hashCode() + uid.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return source.equals(other.source) && uid.equals(other.uid);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package gr.iti.mklab.framework.retrievers;
+
+/**
+ * Where a walk over the pages of a feed stopped before it reached the since date of the feed,
+ * e.g. on the maximum number of requests or on the rate limit. It holds the source specific
+ * position of the next page, e.g. a page token, and the newest publication time the walk had
+ * seen, which becomes the last timestamp of the checkpoint once a later walk resumes from the
+ * position and reaches the since date.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class WalkCursor {
+
+	private long newest;
+	private String position;
+
+	/**
+	 * @param newest the newest publication time seen by the walk, 0 if it has seen no items
+	 * @param position the position of the next page
+	 */
+	public WalkCursor(long newest, String position) {
+		this.newest = newest;
+		this.position = position;
+	}
+
+	/**
+	 * @param cursor the cursor of a checkpoint
+	 * @return the walk cursor, or null if the cursor is not one
+	 */
+	public static WalkCursor parse(String cursor) {
+		if(cursor == null) {
+			return null;
+		}
+
+		// the position may contain colons, e.g. a url
+		int separator = cursor.indexOf(':');
+		if(separator <= 0 || separator == cursor.length() - 1) {
+			return null;
+		}
+		try {
+			return new WalkCursor(Long.parseLong(cursor.substring(0, separator)), cursor.substring(separator + 1));
+		}
+		catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public long getNewest() {
+		return newest;
+	}
+
+	public String getPosition() {
+		return position;
+	}
+
+	@Override
+	public String toString() {
+		return newest + ":" + position;
+	}
+}
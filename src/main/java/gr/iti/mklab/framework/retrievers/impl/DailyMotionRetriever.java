@@ -52,6 +52,15 @@ public class DailyMotionRetriever extends Retriever {
 				});
 	}
 	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param requestPrefix the url that video ids are appended to, e.g. http://localhost:8080/dailymotion/video/
+	 */
+	public DailyMotionRetriever(Credentials credentials, String requestPrefix) {
+		this(credentials);
+		this.requestPrefix = requestPrefix;
+	}
+	
 	/** 
 	 * URL for Dailymotion API. 
 	 */
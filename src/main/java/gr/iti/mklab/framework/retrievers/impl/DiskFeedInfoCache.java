@@ -0,0 +1,371 @@
+package gr.iti.mklab.framework.retrievers.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rometools.fetcher.FetcherEvent;
+import com.rometools.fetcher.FetcherListener;
+import com.rometools.fetcher.impl.FeedFetcherCache;
+import com.rometools.fetcher.impl.SyndFeedInfo;
+import com.rometools.rome.feed.synd.SyndFeedImpl;
+
+import gr.iti.mklab.framework.retrievers.DaemonThreadFactory;
+
+/**
+ * A FeedFetcherCache that keeps the validators of the feeds, i.e. their ETag and Last-Modified
+ * values, in a local file, so that the conditional requests survive restarts.
+ *
+ * Only the validators are kept, not the feeds. When a feed is not modified the fetcher returns
+ * an empty feed, as its entries were already retrieved. The file is rewritten atomically, once
+ * per flush interval if the validators have changed, and on close. The shared caches are also
+ * flushed when the JVM shuts down. The feeds that are not polled for longer than the maximum
+ * age are evicted. Registered as a listener of the fetcher, the cache also counts the polls
+ * that were answered with 304 Not Modified.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class DiskFeedInfoCache implements FeedFetcherCache, FetcherListener, Closeable {
+
+	private static final int VERSION = 1;
+
+	private static Map<String, DiskFeedInfoCache> instances = new ConcurrentHashMap<String, DiskFeedInfoCache>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(DiskFeedInfoCache cache : instances.values()) {
+					cache.flush();
+				}
+			}
+		}, "feed-cache-shutdown"));
+	}
+
+	private Logger logger = LogManager.getLogger(DiskFeedInfoCache.class);
+
+	private File file;
+
+	private long maxAge = 30 * 24 * 3600 * 1000l;
+	private long flushInterval = 10000l;
+
+	private Map<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+
+	private Object flushLock = new Object();
+	private volatile boolean dirty = false;
+
+	private ScheduledExecutorService flusher;
+	private ScheduledFuture<?> flushTask;
+
+	private AtomicLong polls = new AtomicLong(0);
+	private AtomicLong unchanged = new AtomicLong(0);
+
+	public DiskFeedInfoCache(File file) {
+		this.file = file;
+		load();
+
+		flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("feed-cache-flusher"));
+		schedule();
+	}
+
+	/**
+	 * Returns the cache shared by all the fetchers that use the same file.
+	 *
+	 * @param file the file of the cache
+	 * @return DiskFeedInfoCache
+	 */
+	public static DiskFeedInfoCache getInstance(File file) {
+		String key = file.getAbsolutePath();
+
+		DiskFeedInfoCache cache = instances.get(key);
+		if(cache == null) {
+			synchronized(instances) {
+				cache = instances.get(key);
+				if(cache == null) {
+					cache = new DiskFeedInfoCache(file);
+					instances.put(key, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @param maxAge the time in milliseconds after which a feed that is not polled is evicted, 30 days by default
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @param flushInterval the minimum time in milliseconds between two writes of the file, 10 seconds by default
+	 */
+	public synchronized void setFlushInterval(long flushInterval) {
+		this.flushInterval = Math.max(1, flushInterval);
+		if(flushTask != null) {
+			flushTask.cancel(false);
+			schedule();
+		}
+	}
+
+	private synchronized void schedule() {
+		if(flusher.isShutdown()) {
+			return;
+		}
+		flushTask = flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public SyndFeedInfo getFeedInfo(URL feedUrl) {
+		Validators entry = validators.get(feedUrl.toString());
+		if(entry == null) {
+			return null;
+		}
+
+		entry.lastPolled = System.currentTimeMillis();
+
+		SyndFeedInfo feedInfo = new SyndFeedInfo();
+		feedInfo.setId(feedUrl.toString());
+		feedInfo.setUrl(feedUrl);
+		feedInfo.setETag(entry.eTag);
+		if(entry.lastModified > 0) {
+			feedInfo.setLastModified(entry.lastModified);
+		}
+		feedInfo.setSyndFeed(new SyndFeedImpl());
+
+		return feedInfo;
+	}
+
+	@Override
+	public void setFeedInfo(URL feedUrl, SyndFeedInfo feedInfo) {
+		Object lastModified = feedInfo.getLastModified();
+
+		Validators entry = new Validators();
+		entry.eTag = feedInfo.getETag();
+		entry.lastModified = (lastModified instanceof Long) ? (Long) lastModified : 0l;
+		entry.lastPolled = System.currentTimeMillis();
+
+		if(entry.eTag == null && entry.lastModified <= 0) {
+			// the server does not support conditional requests
+			validators.remove(feedUrl.toString());
+		}
+		else {
+			validators.put(feedUrl.toString(), entry);
+		}
+
+		dirty = true;
+	}
+
+	@Override
+	public void clear() {
+		validators.clear();
+		dirty = true;
+		flush();
+	}
+
+	@Override
+	public SyndFeedInfo remove(URL feedUrl) {
+		SyndFeedInfo feedInfo = getFeedInfo(feedUrl);
+		if(validators.remove(feedUrl.toString()) != null) {
+			dirty = true;
+		}
+		return feedInfo;
+	}
+
+	@Override
+	public void fetcherEvent(FetcherEvent event) {
+		String eventType = event.getEventType();
+		if(FetcherEvent.EVENT_TYPE_FEED_POLLED.equals(eventType)) {
+			polls.incrementAndGet();
+		}
+		else if(FetcherEvent.EVENT_TYPE_FEED_UNCHANGED.equals(eventType)) {
+			unchanged.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of feeds in the cache
+	 */
+	public int size() {
+		return validators.size();
+	}
+
+	public long getPolls() {
+		return polls.get();
+	}
+
+	/**
+	 * @return the number of polls answered with 304 Not Modified
+	 */
+	public long getUnchanged() {
+		return unchanged.get();
+	}
+
+	/**
+	 * @return the fraction of the polls answered with 304 Not Modified
+	 */
+	public double getHitRate() {
+		long p = polls.get();
+		return p == 0 ? 0 : (double) unchanged.get() / p;
+	}
+
+	/**
+	 * Writes the validators to the file, if they have changed since the last write.
+	 * The feeds that exceeded the maximum age are evicted first.
+	 */
+	public void flush() {
+		synchronized(flushLock) {
+			if(!dirty) {
+				return;
+			}
+			dirty = false;
+
+			evict();
+
+			File parent = file.getAbsoluteFile().getParentFile();
+			File tmp = new File(parent, file.getName() + ".tmp");
+			DataOutputStream out = null;
+			try {
+				if(parent != null && !parent.exists()) {
+					parent.mkdirs();
+				}
+
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+				out.writeInt(VERSION);
+
+				// the entries are counted while written, as the map may change concurrently
+				for(Map.Entry<String, Validators> e : validators.entrySet()) {
+					Validators entry = e.getValue();
+					out.writeBoolean(true);
+					out.writeUTF(e.getKey());
+					out.writeUTF(entry.eTag == null ? "" : entry.eTag);
+					out.writeLong(entry.lastModified);
+					out.writeLong(entry.lastPolled);
+				}
+				out.writeBoolean(false);
+				out.close();
+				out = null;
+
+				try {
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch(IOException e) {
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			catch(IOException e) {
+				dirty = true;
+				logger.error("Failed to write the feed cache " + file + ": " + e.getMessage());
+			}
+			finally {
+				if(out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						logger.error(e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the periodic flushes and writes the validators that have changed. 
+	 * A shared cache is no longer shared after it is closed.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			flusher.shutdown();
+		}
+		instances.remove(file.getAbsolutePath(), this);
+		flush();
+	}
+
+	private void evict() {
+		long now = System.currentTimeMillis();
+		Iterator<Validators> it = validators.values().iterator();
+		while(it.hasNext()) {
+			if(now - it.next().lastPolled > maxAge) {
+				it.remove();
+			}
+		}
+	}
+
+	private void load() {
+		if(!file.exists()) {
+			return;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int version = in.readInt();
+			if(version != VERSION) {
+				logger.error("Unknown version " + version + " of the feed cache " + file);
+				return;
+			}
+
+			while(in.readBoolean()) {
+				String url = in.readUTF();
+
+				Validators entry = new Validators();
+				String eTag = in.readUTF();
+				entry.eTag = eTag.isEmpty() ? null : eTag;
+				entry.lastModified = in.readLong();
+				entry.lastPolled = in.readLong();
+
+				validators.put(url, entry);
+			}
+
+			evict();
+			logger.info(validators.size() + " feeds loaded from " + file);
+		}
+		catch(IOException e) {
+			// a truncated file keeps the entries read so far
+			logger.error("Failed to read the feed cache " + file + ": " + e.getMessage());
+		}
+		finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					logger.error(e);
+				}
+			}
+		}
+	}
+
+	private static class Validators {
+
+		private String eTag;
+		private long lastModified;
+		private volatile long lastPolled;
+
+	}
+}
@@ -1,13 +1,17 @@
 package gr.iti.mklab.framework.retrievers.impl;
 
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,10 +22,14 @@ import com.restfb.DefaultJsonMapper;
 import com.restfb.FacebookClient;
 import com.restfb.JsonMapper;
 import com.restfb.Parameter;
+import com.restfb.exception.FacebookGraphException;
+import com.restfb.exception.FacebookNetworkException;
 import com.restfb.Version;
+import com.restfb.batch.BatchRequest;
+import com.restfb.batch.BatchRequest.BatchRequestBuilder;
+import com.restfb.batch.BatchResponse;
 import com.restfb.types.CategorizedFacebookType;
 import com.restfb.types.Comment;
-import com.restfb.types.Comment.Comments;
 import com.restfb.types.Page;
 import com.restfb.types.Photo;
 import com.restfb.types.Photo.Image;
@@ -33,13 +41,21 @@ import gr.iti.mklab.framework.abstractions.socialmedia.items.FacebookItem;
 import gr.iti.mklab.framework.abstractions.socialmedia.users.FacebookStreamUser;
 import gr.iti.mklab.framework.common.domain.Item;
 import gr.iti.mklab.framework.common.domain.MediaItem;
+import gr.iti.mklab.framework.common.domain.Source;
 import gr.iti.mklab.framework.common.domain.StreamUser;
 import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.ErrorClassifier;
+import gr.iti.mklab.framework.retrievers.ItemComments;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.PageFetcher;
+import gr.iti.mklab.framework.retrievers.PagePrefetcher;
+import gr.iti.mklab.framework.retrievers.Projection;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
+import gr.iti.mklab.framework.retrievers.WalkCursor;
 
 /**
  * Class responsible for retrieving facebook content based on keywords or facebook users/facebook pages
@@ -52,36 +68,100 @@ public class FacebookRetriever extends Retriever {
 			
 	private Logger logger = LogManager.getLogger(FacebookRetriever.class);
 	
+	private static final String GRAPH_ENDPOINT = "graph";
+	private static final long RATE_LIMIT_BACKOFF = 5 * 60 * 1000l;
+	
+	// the Graph API accepts up to 50 ids per request
+	private static final int MAX_IDS_PER_REQUEST = 50;
+	private static final int POSTS_PER_PAGE = 75;
+	private static final int COMMENTS_PER_PAGE = 100;
+	private static final String COMMENT_FIELDS = "id,from,message,created_time,like_count,attachment";
+	private static final String PAGE_FIELDS = "id,username,name,about,talking_about_count,location,is_verified,link,likes,website";
+	
+	// the fields of the posts for each projection
+	private static final String MINIMAL_FIELDS = "id,from,message,type,created_time";
+	private static final String STANDARD_FIELDS = MINIMAL_FIELDS + ",to,caption,picture,full_picture,link,object_id,name,description";
+	private static final String FULL_FIELDS = STANDARD_FIELDS + ",source,updated_time,"
+			+ "likes.limit(0).summary(true),comments.limit(0).summary(true),shares";
+	
 	private FacebookClient facebookClient;
-	private String fields = "id,from,to,message,source,caption,picture,full_picture,link,object_id,name,description,type,"
-			+ "created_time,updated_time,likes.limit(0).summary(true),comments.limits(0).summary(true),shares";
 	
 	public FacebookRetriever(Credentials credentials) {
+		this(credentials, null);
+	}
+	
+	// network failures and the temporary errors of the Graph API (codes 1 and 2) are retryable, 
+	// the limit errors are handled by the governor
+	private static final ErrorClassifier errorClassifier = new ErrorClassifier() {
+		@Override
+		public boolean isRetryable(Throwable error) {
+			if(error instanceof FacebookNetworkException) {
+				Integer statusCode = ((FacebookNetworkException) error).getHttpStatusCode();
+				return statusCode == null || statusCode == 429 || statusCode >= 500;
+			}
+			if(error instanceof FacebookGraphException) {
+				Integer code = ((FacebookGraphException) error).getErrorCode();
+				return code != null && (code == 1 || code == 2);
+			}
+			return ErrorClassifier.DEFAULT.isRetryable(error);
+		}
+	};
+	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param apiUrl the url of the Graph API, including the version, e.g. http://localhost:8080/facebook/v2.5, or null for the Graph API
+	 */
+	public FacebookRetriever(Credentials credentials, final String apiUrl) {
 		super(credentials);
-		facebookClient = new DefaultFacebookClient(credentials.getAccessToken(), Version.LATEST);
+		if(apiUrl == null) {
+			facebookClient = new DefaultFacebookClient(credentials.getAccessToken(), Version.LATEST);
+		}
+		else {
+			facebookClient = new DefaultFacebookClient(credentials.getAccessToken(), Version.LATEST) {
+				@Override
+				protected String getFacebookGraphEndpointUrl() {
+					return apiUrl;
+				}
+			};
+		}
+		
+		getResilience().setErrorClassifier(errorClassifier);
 	}
 
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests) {
+		return retrieveAccountFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 
 		Integer numberOfRequests = 0;
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		String uid = feed.getId();
 		String userName = feed.getUsername();
 		if(uid == null && userName == null) {
 			logger.error("#Facebook : No source feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
+		// a walk that stopped on the maximum number of requests continues from its next page
+		WalkCursor resumed = getWalkCursor(feed);
+		String position = null;
+		
 		boolean sinceDateReached = false;
+		PagePrefetcher<Connection<Post>> pages = null;
 		try {		
 			
+			if(!getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+				return getResponse(response, numberOfRequests);
+			}
+			
 			Page page = null;
 			if(uid != null) {
 				page = facebookClient.fetchObject(uid, Page.class);	
@@ -92,52 +172,72 @@ public class FacebookRetriever extends Retriever {
 
 			if(page == null) {
 				logger.error("Page " + (uid!=null?uid:userName) + " not found!");
-				
-				Response response = getResponse(items, numberOfRequests);
-				return response;
+				return getResponse(response, numberOfRequests);
 			}
 			
 			FacebookStreamUser facebookUser = new FacebookStreamUser(page);
 			facebookUser.setUsername(userName);
 
-			String userFeed = page.getId() + "/posts";
+			final String userFeed = page.getId() + "/posts";
 			logger.info("Retrieve: " + userFeed + " since " + sinceDate + " (" + sinceDate.getTime() + ")");
 			
-			Connection<Post> connection = facebookClient.fetchConnection(userFeed, Post.class, 
-					Parameter.with("since", sinceDate),
-					Parameter.with("limit", 75),
-					Parameter.with("fields", fields)
-				);
-			
-			for(List<Post> connectionPage : connection) {
-
-				numberOfRequests++;			
-				for(Post post : connectionPage) {						
-					Date publicationDate = post.getCreatedTime();
-					if(publicationDate.before(sinceDate)) {
-						sinceDateReached = true;
-						break;
+			final Date since = sinceDate;
+			final String fields = getFields(getProjection(feed));
+			final Parameter[] resumeParameters = resumed == null ? null : getPagingParameters(resumed.getPosition());
+			pages = prefetch(resilient("feed", new PageFetcher<Connection<Post>>() {
+				@Override
+				public Connection<Post> fetch(Connection<Post> previous) {
+					if(previous != null && !previous.hasNext()) {
+						return null;
+					}
+					if(!getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+						return null;
 					}
 					
-					Item item = new FacebookItem(post, facebookUser);
-					if(label != null) {
-						item.addLabel(label);
+					try {
+						if(previous == null && resumeParameters != null) {
+							return facebookClient.fetchConnection(userFeed, Post.class, resumeParameters);
+						}
+						if(previous == null) {
+							return facebookClient.fetchConnection(userFeed, Post.class, 
+									Parameter.with("since", since),
+									Parameter.with("limit", POSTS_PER_PAGE),
+									Parameter.with("fields", fields)
+								);
+						}
+						return facebookClient.fetchConnectionPage(previous.getNextPageUrl(), Post.class);
+					}
+					catch(FacebookGraphException e) {
+						onError(e);
+						throw e;
 					}
-					items.add(item);					
 				}
+			}), maxRequests + 1);
+			
+			Connection<Post> connection;
+			while((connection = pages.next()) != null) {
+				List<Post> connectionPage = connection.getData();
+				
+				numberOfRequests++;
+				List<Item> items = new ArrayList<Item>();
+				sinceDateReached = mapPosts(connectionPage, facebookUser, sinceDate, label, items);
+				response.addPage(items);
+				position = connection.hasNext() ? getPagingQuery(connection.getNextPageUrl()) : null;
 				
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date " + sinceDate + " reached for " + userFeed);
-					break;
-				}
-	
-				if(numberOfRequests > maxRequests) {
-					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + userFeed);
+					response.setComplete(true);
 					break;
 				}
 				
 				if(!connection.hasNext()) {
 					logger.info("Stop retriever. There is no more pages to fetch for " + userFeed);
+					response.setComplete(true);
+					break;
+				}
+	
+				if(numberOfRequests > maxRequests) {
+					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + userFeed);
 					break;
 				}
 			}
@@ -146,12 +246,303 @@ public class FacebookRetriever extends Retriever {
 		catch(Exception e) {
 			e.printStackTrace();
 			logger.error(e);
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+		}
+		finally {
+			if(pages != null) {
+				pages.close();
+				// also count the pages that were prefetched but not used
+				numberOfRequests = pages.getRequests();
+			}
+		}
+		
+		endWalk(feed, response, position, resumed);
+		return getResponse(response, numberOfRequests);
+	}
+	
+	/**
+	 * Retrieves many account feeds with one Graph request per 50 pages. The profile and the first 
+	 * page of posts of each page are requested together through ids= and a nested posts expansion, 
+	 * and only the pages whose first page does not reach their since date are paginated further.
+	 * 
+	 * The bulk request counts against the maxRequests of every feed of a group, but it is reported
+	 * once, in the response of the first feed. The checkpoint of each feed is advanced as in retrieve.
+	 * A feed whose last walk stopped on the maximum number of requests continues from its next page,
+	 * so its posts of the bulk request, which are newer, are left for the walk after that.
+	 * 
+	 * @param feeds the account feeds
+	 * @param maxRequests the maximum number of requests per feed
+	 * @return the responses by feed
+	 */
+	public Map<AccountFeed, Response> retrieveAccountFeeds(List<AccountFeed> feeds, Integer maxRequests) {
+		Map<AccountFeed, Response> responses = new LinkedHashMap<AccountFeed, Response>();
+		
+		Map<String, AccountFeed> feedsById = new LinkedHashMap<String, AccountFeed>();
+		for(AccountFeed feed : feeds) {
+			String id = feed.getId() != null ? feed.getId() : feed.getUsername();
+			if(id == null) {
+				logger.error("#Facebook : No source feed");
+				responses.put(feed, new Response());
+				continue;
+			}
+			feedsById.put(id, feed);
+		}
+		
+		List<String> ids = new ArrayList<String>(feedsById.keySet());
+		for(int i = 0; i < ids.size(); i += MAX_IDS_PER_REQUEST) {
+			List<String> chunk = ids.subList(i, Math.min(i + MAX_IDS_PER_REQUEST, ids.size()));
+			retrieveChunk(chunk, feedsById, maxRequests, responses);
 		}
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return responses;
+	}
+	
+	private void retrieveChunk(List<String> ids, Map<String, AccountFeed> feedsById, Integer maxRequests, 
+			Map<AccountFeed, Response> responses) {
+		
+		// the nested since applies to all the pages of the request, the earliest one is used and the rest are filtered here 
+		// so does the projection, the widest one of the pages is used
+		long since = Long.MAX_VALUE;
+		Projection projection = Projection.MINIMAL;
+		for(String id : ids) {
+			since = Math.min(since, getSinceDate(feedsById.get(id)));
+			Projection feedProjection = getProjection(feedsById.get(id));
+			if(feedProjection.compareTo(projection) > 0) {
+				projection = feedProjection;
+			}
+		}
+		String fields = getFields(projection);
+		
+		String bulkFields = PAGE_FIELDS + ",posts.limit(" + POSTS_PER_PAGE + ").since(" + (since / 1000) + "){" + fields + "}";
+		
+		JsonObject pages = null;
+		if(getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+			try {
+				final List<String> chunkIds = ids;
+				final Parameter fieldsParameter = Parameter.with("fields", bulkFields);
+				pages = graphCall("ids", new Callable<JsonObject>() {
+					@Override
+					public JsonObject call() {
+						return facebookClient.fetchObjects(chunkIds, JsonObject.class, fieldsParameter);
+					}
+				});
+			}
+			catch(Exception e) {
+				logger.error("#Facebook : Bulk request failed: " + e.getMessage());
+			}
+		}
+		
+		JsonMapper jsonMapper = new DefaultJsonMapper();
+		boolean first = true;
+		for(String id : ids) {
+			AccountFeed feed = feedsById.get(id);
+			Response response = new Response();
+			responses.put(feed, response);
+			
+			// the bulk request is part of the budget of every feed, but is only reported by the first one
+			int numberOfRequests = 1;
+			int sharedRequests = first ? 0 : 1;
+			first = false;
+			
+			WalkCursor resumed = null;
+			String position = null;
+			try {
+				if(pages == null || !pages.has(id)) {
+					if(pages != null) {
+						logger.error("Page " + id + " not found!");
+					}
+					continue;
+				}
+				
+				JsonObject pageJson = pages.getJsonObject(id);
+				Page page = jsonMapper.toJavaObject(pageJson.toString(), Page.class);
+				
+				FacebookStreamUser facebookUser = new FacebookStreamUser(page);
+				facebookUser.setUsername(feed.getUsername());
+				getStreamUserCache().put(Source.Facebook.toString(), page.getId(), facebookUser);
+				
+				Date sinceDate = new Date(getSinceDate(feed));
+				String label = feed.getLabel();
+				
+				resumed = getWalkCursor(feed);
+				Parameter[] resumeParameters = resumed == null ? null : getPagingParameters(resumed.getPosition());
+				
+				Connection<Post> connection;
+				if(resumeParameters != null) {
+					if(numberOfRequests >= maxRequests || !getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+						continue;
+					}
+					numberOfRequests++;
+					connection = fetchPosts(page.getId() + "/posts", resumeParameters);
+				}
+				else if(!pageJson.has("posts")) {
+					// no posts since the since date
+					response.setComplete(true);
+					continue;
+				}
+				else {
+					connection = new Connection<Post>(facebookClient, pageJson.getJsonObject("posts").toString(), Post.class);
+				}
+				
+				while(true) {
+					List<Item> items = new ArrayList<Item>();
+					boolean sinceDateReached = mapPosts(connection.getData(), facebookUser, sinceDate, label, items);
+					response.addPage(items);
+					position = connection.hasNext() ? getPagingQuery(connection.getNextPageUrl()) : null;
+					
+					if(sinceDateReached || !connection.hasNext()) {
+						response.setComplete(true);
+						break;
+					}
+					
+					if(numberOfRequests >= maxRequests) {
+						break;
+					}
+					
+					if(!getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+						break;
+					}
+					
+					numberOfRequests++;
+					connection = fetchPage(connection.getNextPageUrl(), Post.class);
+				}
+			}
+			catch(Exception e) {
+				// the pages mapped so far are kept
+				logger.error("#Facebook : " + e.getMessage());
+			}
+			finally {
+				response.setRequests(numberOfRequests - sharedRequests);
+				endWalk(feed, response, position, resumed);
+				checkpoint(feed, response);
+			}
+		}
+	}
+	
+	/**
+	 * @return the fields of the posts for a projection
+	 */
+	private String getFields(Projection projection) {
+		switch(projection) {
+			case MINIMAL:
+				return MINIMAL_FIELDS;
+			case STANDARD:
+				return STANDARD_FIELDS;
+			default:
+				return FULL_FIELDS;
+		}
+	}
+	
+	/**
+	 * Maps a page of posts, newest first, to items.
+	 * 
+	 * @return true if the page reached the since date
+	 */
+	private boolean mapPosts(List<Post> posts, FacebookStreamUser facebookUser, Date sinceDate, String label, List<Item> items) {
+		for(Post post : posts) {						
+			Date publicationDate = post.getCreatedTime();
+			if(publicationDate.before(sinceDate)) {
+				return true;
+			}
+			
+			Item item = new FacebookItem(post, facebookUser);
+			if(label != null) {
+				item.addLabel(label);
+			}
+			items.add(item);					
+		}
+		return false;
+	}
+	
+	/**
+	 * Calls the Graph API through the resilience of the retriever, so that transient 
+	 * failures are retried, and backs off on limit errors.
+	 */
+	private <T> T graphCall(String endpoint, final Callable<T> request) throws Exception {
+		return getResilience().call(endpoint, new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				try {
+					return request.call();
+				}
+				catch(FacebookGraphException e) {
+					onError(e);
+					throw e;
+				}
+			}
+		});
+	}
+	
+	private Connection<Post> fetchPosts(final String connection, final Parameter... parameters) throws Exception {
+		return graphCall("feed", new Callable<Connection<Post>>() {
+			@Override
+			public Connection<Post> call() {
+				return facebookClient.fetchConnection(connection, Post.class, parameters);
+			}
+		});
+	}
+	
+	/**
+	 * @return the query of a next page url without the access token and the proof of the app secret, 
+	 * so that it can be kept in a checkpoint, or null if there is no query
+	 */
+	private static String getPagingQuery(String nextPageUrl) {
+		int start = nextPageUrl.indexOf('?');
+		if(start < 0) {
+			return null;
+		}
+		
+		StringBuilder query = new StringBuilder();
+		for(String pair : nextPageUrl.substring(start + 1).split("&")) {
+			String name = pair.split("=", 2)[0];
+			if(name.isEmpty() || name.equals("access_token") || name.equals("appsecret_proof")) {
+				continue;
+			}
+			if(query.length() > 0) {
+				query.append('&');
+			}
+			query.append(pair);
+		}
+		return query.length() == 0 ? null : query.toString();
+	}
+	
+	/**
+	 * @return the parameters of a paging query, or null if there are none
+	 */
+	private static Parameter[] getPagingParameters(String query) {
+		List<Parameter> parameters = new ArrayList<Parameter>();
+		for(String pair : query.split("&")) {
+			String[] parts = pair.split("=", 2);
+			if(parts.length < 2) {
+				continue;
+			}
+			try {
+				parameters.add(Parameter.with(URLDecoder.decode(parts[0], "UTF-8"), URLDecoder.decode(parts[1], "UTF-8")));
+			}
+			catch(UnsupportedEncodingException e) {
+				return null;
+			}
+		}
+		return parameters.isEmpty() ? null : parameters.toArray(new Parameter[parameters.size()]);
+	}
+	
+	private <T> Connection<T> fetchPage(final String pageUrl, final Class<T> type) throws Exception {
+		return graphCall("page", new Callable<Connection<T>>() {
+			@Override
+			public Connection<T> call() {
+				return facebookClient.fetchConnectionPage(pageUrl, type);
+			}
+		});
+	}
+	
+	/**
+	 * Backs off the Graph API when an error reports that an application, user or page limit is reached.
+	 * restfb does not expose the usage headers of the responses, so the error codes are the only signal.
+	 */
+	private void onError(FacebookGraphException e) {
+		Integer code = e.getErrorCode();
+		if(code != null && (code == 4 || code == 17 || code == 32 || code == 613)) {
+			getRateLimitGovernor().exhaust(GRAPH_ENDPOINT, System.currentTimeMillis() + RATE_LIMIT_BACKOFF);
+		}
 	}
 	
 	@Override
@@ -250,10 +641,15 @@ public class FacebookRetriever extends Retriever {
 	
 	@Override
 	public StreamUser getStreamUser(String uid) {
+		StreamUser facebookUser = getStreamUserCache().get(Source.Facebook.toString(), uid);
+		if(facebookUser != null) {
+			return facebookUser;
+		}
+		
 		try {
-			String userFields = "id,username,name,about,talking_about_count,location,is_verified,link,likes,website";
-			Page page = facebookClient.fetchObject(uid, Page.class, Parameter.with("fields", userFields));
-			StreamUser facebookUser = new FacebookStreamUser(page);
+			Page page = facebookClient.fetchObject(uid, Page.class, Parameter.with("fields", PAGE_FIELDS));
+			facebookUser = new FacebookStreamUser(page);
+			getStreamUserCache().put(Source.Facebook.toString(), uid, facebookUser);
 			
 			return facebookUser;
 		}
@@ -266,9 +662,24 @@ public class FacebookRetriever extends Retriever {
 	public Map<String, StreamUser> getStreamUsers(List<String> uids) {
 		JsonMapper jsonMapper = new DefaultJsonMapper();
 		Map<String, StreamUser> users = new HashMap<String, StreamUser>();
+		
+		// only the users that are not cached are requested
+		List<String> missing = new ArrayList<String>();
+		for(String uid : uids) {
+			StreamUser user = getStreamUserCache().get(Source.Facebook.toString(), uid);
+			if(user != null) {
+				users.put(user.getId(), user);
+			}
+			else {
+				missing.add(uid);
+			}
+		}
+		if(missing.isEmpty()) {
+			return users;
+		}
+		
 		try {
-			String userFields = "id,username,name,about,talking_about_count,location,is_verified,link,likes,website";		
-			JsonObject pages = facebookClient.fetchObjects(uids, JsonObject.class,  Parameter.with("fields", userFields));
+			JsonObject pages = facebookClient.fetchObjects(missing, JsonObject.class,  Parameter.with("fields", PAGE_FIELDS));
 			
 			Iterator<?> keys = pages.keys();
 			while(keys.hasNext()) {
@@ -279,6 +690,7 @@ public class FacebookRetriever extends Retriever {
 				
 				StreamUser user = new FacebookStreamUser(page);
 				users.put(user.getId(), user);
+				getStreamUserCache().put(Source.Facebook.toString(), key.toString(), user);
 			}
 		}
 		catch(Exception e) {
@@ -290,48 +702,141 @@ public class FacebookRetriever extends Retriever {
 
 	@Override
 	public List<Item> getItemComments(Item item, long since) {
-		List<Item> itemComments = new ArrayList<Item>();
+		Map<Item, Long> items = new HashMap<Item, Long>();
+		items.put(item, since);
 		
-		int numberOfRequests = 0;
-		String id = item.getId().split("#")[1];
-		Connection<Comments> connection = facebookClient.fetchConnection(id + "/comments", Comments.class,
-			Parameter.with("order", "reverse_chronological"),
-			Parameter.with("summary", false),
-			Parameter.with("filter", "stream")
-		);
-
-		Date when = new Date(since);
-		
-		boolean shouldBreak = false;
-		for(List<Comments> connectionPage : connection) {
-			numberOfRequests++;			
-			for(Comments comments : connectionPage) {					
-				for(Comment comment : comments.getData()) {
-					if(comment.getCreatedTime().before(when)) {
-						shouldBreak = true;
-						break;
-					}
-					
-					if(numberOfRequests > 3) {
-						shouldBreak = true;
-						break;
+		return getItemsComments(items).get(item.getId());
+	}
+	
+	@Override
+	public Map<String, List<Item>> getItemsComments(Map<Item, Long> items) {
+		Map<String, List<Item>> comments = new HashMap<String, List<Item>>();
+		for(Map.Entry<String, ItemComments> e : getItemsComments(items, new HashMap<String, String>()).entrySet()) {
+			comments.put(e.getKey(), e.getValue().getComments());
+		}
+		return comments;
+	}
+	
+	/**
+	 * Requests the first page of comments of up to 50 items in a single batch request. 
+	 * Items whose first page does not reach the since time are paginated further, 
+	 * up to getMaxCommentPages() pages per item. The truncated walks are resumed 
+	 * from the url of their next page.
+	 */
+	@Override
+	public Map<String, ItemComments> getItemsComments(Map<Item, Long> items, Map<String, String> cursors) {
+		Map<String, ItemComments> comments = new HashMap<String, ItemComments>();
+		
+		List<Item> pending = new ArrayList<Item>();
+		List<Item> resumed = new ArrayList<Item>();
+		for(Item item : items.keySet()) {
+			if(cursors.get(item.getId()) != null) {
+				resumed.add(item);
+			}
+			else {
+				pending.add(item);
+			}
+		}
+		
+		for(int i = 0; i < pending.size(); i += MAX_IDS_PER_REQUEST) {
+			List<Item> chunk = pending.subList(i, Math.min(i + MAX_IDS_PER_REQUEST, pending.size()));
+			
+			List<BatchRequest> requests = new ArrayList<BatchRequest>();
+			for(Item item : chunk) {
+				String postId = item.getId().substring(item.getId().indexOf('#') + 1);
+				requests.add(new BatchRequestBuilder(postId + "/comments")
+					.parameters(
+						Parameter.with("order", "reverse_chronological"),
+						Parameter.with("filter", "stream"),
+						Parameter.with("since", items.get(item) / 1000),
+						Parameter.with("limit", COMMENTS_PER_PAGE),
+						Parameter.with("fields", COMMENT_FIELDS))
+					.build());
+			}
+			
+			if(!getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+				break;
+			}
+			
+			List<BatchResponse> responses;
+			try {
+				final List<BatchRequest> batch = requests;
+				responses = graphCall("batch", new Callable<List<BatchResponse>>() {
+					@Override
+					public List<BatchResponse> call() {
+						return facebookClient.executeBatch(batch);
 					}
-					
-					FacebookItem fbItem = new FacebookItem(comment, null, null);
-					itemComments.add(fbItem);
-					
+				});
+			}
+			catch(Exception e) {
+				logger.error("#Facebook : Batch request of comments failed: " + e.getMessage());
+				continue;
+			}
+			
+			for(int j = 0; j < chunk.size() && j < responses.size(); j++) {
+				Item item = chunk.get(j);
+				BatchResponse response = responses.get(j);
+				if(response == null || response.getCode() == null || response.getCode() != 200) {
+					logger.error("#Facebook : Failed to retrieve the comments of " + item.getId() 
+							+ (response == null ? "" : ": " + response.getBody()));
+					continue;
 				}
 				
-				if(shouldBreak) {
-					break;
+				try {
+					Connection<Comment> connection = new Connection<Comment>(facebookClient, response.getBody(), Comment.class);
+					comments.put(item.getId(), getComments(item, connection, items.get(item)));
+				}
+				catch(Exception e) {
+					logger.error("#Facebook : Failed to retrieve the comments of " + item.getId() + ": " + e.getMessage());
 				}
 			}
-			if(shouldBreak) {
+		}
+		
+		for(Item item : resumed) {
+			if(!getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
 				break;
 			}
+			
+			try {
+				Connection<Comment> connection = fetchPage(cursors.get(item.getId()), Comment.class);
+				comments.put(item.getId(), getComments(item, connection, items.get(item)));
+			}
+			catch(Exception e) {
+				logger.error("#Facebook : Failed to resume the comments of " + item.getId() + ": " + e.getMessage());
+			}
 		}
 		
-		return itemComments;
+		return comments;
+	}
+	
+	private ItemComments getComments(Item item, Connection<Comment> connection, long since) throws Exception {
+		List<Item> itemComments = new ArrayList<Item>();
+		
+		int pages = 1;
+		while(true) {
+			for(Comment comment : connection.getData()) {
+				if(comment.getCreatedTime() == null || comment.getCreatedTime().getTime() < since) {
+					return new ItemComments(itemComments, null);
+				}
+				
+				FacebookItem fbItem = new FacebookItem(comment, null, null);
+				fbItem.setReference(item.getId());
+				fbItem.setPageUrl(item.getPageUrl());
+				itemComments.add(fbItem);
+			}
+			
+			if(!connection.hasNext()) {
+				return new ItemComments(itemComments, null);
+			}
+			
+			// the walk is truncated, a later one resumes from the next page
+			if(pages >= getMaxCommentPages() || !getRateLimitGovernor().acquire(GRAPH_ENDPOINT)) {
+				return new ItemComments(itemComments, connection.getNextPageUrl());
+			}
+			
+			pages++;
+			connection = fetchPage(connection.getNextPageUrl(), Comment.class);
+		}
 	}
 
 	public static void main(String...args) {
@@ -349,7 +854,7 @@ public class FacebookRetriever extends Retriever {
 		
 		Response response = retriever.retrieveAccountFeed(aFeed, 5);
 		System.out.println(response.getNumberOfItems() + " items found for " + aFeed.getId());
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println(item.getLikes());
 		}
 		
@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,14 +29,20 @@ import gr.iti.mklab.framework.abstractions.socialmedia.users.FlickrStreamUser;
 import gr.iti.mklab.framework.common.domain.Item;
 import gr.iti.mklab.framework.common.domain.Location.Coordinates;
 import gr.iti.mklab.framework.common.domain.MediaItem;
+import gr.iti.mklab.framework.common.domain.Source;
 import gr.iti.mklab.framework.common.domain.StreamUser;
 import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
 import gr.iti.mklab.framework.common.domain.feeds.Feed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.ErrorClassifier;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.Projection;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
+import gr.iti.mklab.framework.retrievers.StreamUserResolver;
+import gr.iti.mklab.framework.retrievers.WalkCursor;
 
 /**
  * Class responsible for retrieving Flickr content based on keywords,users or location coordinates
@@ -52,10 +59,45 @@ public class FlickrRetriever extends Retriever {
 	private String flickrKey;
 	private String flickrSecret;
 
+	private static final String REST_ENDPOINT = "rest";
+	
 	private Flickr flickr;	
-	private Map<String, StreamUser> userMap = new HashMap<String, StreamUser>();
+	
+	// Flickr reports its outages as API errors with code 105 (service currently unavailable), 
+	// the rest of the API errors are permanent. I/O errors are wrapped in runtime exceptions.
+	private static final ErrorClassifier errorClassifier = new ErrorClassifier() {
+		@Override
+		public boolean isRetryable(Throwable error) {
+			if(error instanceof FlickrException) {
+				return "105".equals(((FlickrException) error).getErrorCode());
+			}
+			return ErrorClassifier.DEFAULT.isRetryable(error);
+		}
+	};
+	
+	private StreamUserResolver.Lookup ownerLookup = new StreamUserResolver.Lookup() {
+		@Override
+		public StreamUser lookup(String uid) throws Exception {
+			if(!getRateLimitGovernor().acquire(REST_ENDPOINT)) {
+				return null;
+			}
+			PeopleInterface peopleInterface = flickr.getPeopleInterface();
+			User user = peopleInterface.getInfo(uid);
+			
+			return new FlickrStreamUser(user);
+		}
+	};
 	
 	public FlickrRetriever(Credentials credentials) {
+		this(credentials, null, 0);
+	}
+	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param host the host of the REST API, e.g. localhost, or null for the Flickr API
+	 * @param port the port of the REST API
+	 */
+	public FlickrRetriever(Credentials credentials, String host, int port) {
 		super(credentials);
 		
 		this.flickrKey = credentials.getKey();
@@ -63,15 +105,25 @@ public class FlickrRetriever extends Retriever {
 		
 		Flickr.debugStream = false;
 		
-		this.flickr = new Flickr(flickrKey, flickrSecret, new REST());
+		REST rest = (host == null) ? new REST() : new REST(host, port);
+		this.flickr = new Flickr(flickrKey, flickrSecret, rest);
+		
+		// Flickr does not report the remaining quota, the documented limit is 3600 queries per hour per key
+		getRateLimitGovernor().setBudget(REST_ENDPOINT, 3600, 3600 * 1000l);
+		getResilience().setErrorClassifier(errorClassifier);
 	}
 	
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests) {
+		return retrieveAccountFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		int page=1, pages=1; //pagination
@@ -80,8 +132,7 @@ public class FlickrRetriever extends Retriever {
 		String userID = feed.getId();
 		if(userID == null) {
 			logger.info("#Flickr : No source feed " + feed);
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		
@@ -95,16 +146,22 @@ public class FlickrRetriever extends Retriever {
 		params.setUserId(userID);
 		params.setMinUploadDate(sinceDate);
 		
-		Set<String> extras = new HashSet<String>(Extras.ALL_EXTRAS);
-		extras.remove(Extras.MACHINE_TAGS);
-		params.setExtras(extras);
+		// a walk that stopped early is continued below the oldest photo it reached
+		WalkCursor resumed = getWalkCursor(feed);
+		Date oldest = resume(params, resumed);
+		
+		Projection projection = getProjection(feed);
+		params.setExtras(getExtras(projection));
 		
 		boolean sinceDateReached = false;
 		while(true) {
 			PhotoList<Photo> photos;
+			if(!getRateLimitGovernor().acquire(REST_ENDPOINT)) {
+				break;
+			}
 			try {
 				numberOfRequests++;
-				photos = photosInteface.search(params , RESULTS_PER_PAGE, page++);
+				photos = search(photosInteface, params, page++);
 			} catch (Exception e) {
 				logger.error(e);
 				break;
@@ -112,47 +169,58 @@ public class FlickrRetriever extends Retriever {
 			
 			pages = photos.getPages();
 			if(photos.isEmpty()) {
+				response.setComplete(true);
 				break;
 			}
 		
+			List<Item> items = new ArrayList<Item>();
 			for(Photo photo : photos) {
 				if(photo.getDatePosted().before(sinceDate)) {
 					sinceDateReached = true;
 					break;
 				}
+				oldest = photo.getDatePosted();
 				FlickrItem flickrItem = new FlickrItem(photo, streamUser);
 				if(label != null) {
 					flickrItem.addLabel(label);
 				}
 				items.add(flickrItem);
 			}
+			response.addPage(items);
 			
 			if(page > pages) {
 				logger.info("Stop retriever. Number of pages (" + pages + ") reached.");
+				response.setComplete(true);
 				break;
 			}
 			
-			if(numberOfRequests >= maxRequests) {
-				logger.info("Stop retriever. Number of requests (" + maxRequests + ") reached.");
+			if(sinceDateReached) {
+				logger.info("Stop retriever. Since Date Reached: " + sinceDate);
+				response.setComplete(true);
 				break;
 			}
 			
-			if(sinceDateReached) {
-				logger.info("Stop retriever. Since Date Reached: " + sinceDate);
+			if(numberOfRequests >= maxRequests) {
+				logger.info("Stop retriever. Number of requests (" + maxRequests + ") reached.");
 				break;
 			}
 		}
+		endWalk(feed, response, oldest == null ? null : Long.toString(oldest.getTime()), resumed);
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 	}
 	
 	@Override
 	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests) {
+		return retrieveKeywordsFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		int page = 1, pages = 1;
@@ -161,8 +229,7 @@ public class FlickrRetriever extends Retriever {
 		List<String> keywords = feed.getKeywords();
 		if(keywords == null || keywords.isEmpty()) {
 			logger.error("#Flickr : Text is emtpy for (" + feed.getId() + ")");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		List<String> tags = new ArrayList<String>();
@@ -179,8 +246,7 @@ public class FlickrRetriever extends Retriever {
 		
 		if(text.equals("")) {
 			logger.error("#Flickr: Text is emtpy for (" + feed.getId() + ")");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		PhotosInterface photosInteface = flickr.getPhotosInterface();
@@ -188,73 +254,91 @@ public class FlickrRetriever extends Retriever {
 		params.setText(text);
 		params.setMinUploadDate(sinceDate);
 		
-		Set<String> extras = new HashSet<String>(Extras.ALL_EXTRAS);
-		extras.remove(Extras.MACHINE_TAGS);
-		params.setExtras(extras);
+		WalkCursor resumed = getWalkCursor(feed);
+		Date oldest = resume(params, resumed);
+		
+		Projection projection = getProjection(feed);
+		params.setExtras(getExtras(projection));
 		
 		boolean sinceDateReached = false;
 				
 		logger.info("Search for (" + text + ")");
 		while(true) {
 			PhotoList<Photo> photos;
+			if(!getRateLimitGovernor().acquire(REST_ENDPOINT)) {
+				break;
+			}
 			try {
 				numberOfRequests++;
-				photos = photosInteface.search(params , RESULTS_PER_PAGE, page++);
+				photos = search(photosInteface, params, page++);
 			} catch (Exception e) {
+				// the retries are exhausted, keep the pages retrieved so far
 				logger.error(e);
-				continue;
+				break;
 			}
 			
 			pages = photos.getPages();
 			if(photos.isEmpty()) {
+				response.setComplete(true);
 				break;
 			}
 		
+			List<Photo> newPhotos = new ArrayList<Photo>();
 			for(Photo photo : photos) {
 				if(photo.getDatePosted().before(sinceDate)) {
 					sinceDateReached = true;
 					break;
 				}
+				oldest = photo.getDatePosted();
+				newPhotos.add(photo);
+			}
+			
+			Map<String, StreamUser> owners = resolveOwners(newPhotos, projection);
+			
+			List<Item> items = new ArrayList<Item>();
+			for(Photo photo : newPhotos) {
+				Item flickrItem = toItem(photo, owners, projection);
 				
-				String userid = photo.getOwner().getId();
-				StreamUser streamUser = getStreamUser(userid);
-				if(streamUser == null) {
-					continue;
-				}
-				
-				Item flickrItem = new FlickrItem(photo, streamUser);
 				if(label != null) {
 					flickrItem.addLabel(label);
 				}
 				items.add(flickrItem);
 			}
+			response.addPage(items);
 			
 			if(page > pages) {
 				logger.info("Stop retriever. Number of pages (" + pages + ") reached.");
+				response.setComplete(true);
 				break;
 			}
 			
-			if(numberOfRequests >= maxRequests) {
-				logger.info("Stop retriever. Number of requests (" + maxRequests + ") reached for ( " + feed.getId() + ")");
+			if(sinceDateReached) {
+				logger.info("Stop retriever. Since date reached " + sinceDate + " for (" + feed.getId() + ")");
+				response.setComplete(true);
 				break;
 			}
 			
-			if(sinceDateReached) {
-				logger.info("Stop retriever. Since date reached " + sinceDate + " for (" + feed.getId() + ")");
+			if(numberOfRequests >= maxRequests) {
+				logger.info("Stop retriever. Number of requests (" + maxRequests + ") reached for ( " + feed.getId() + ")");
 				break;
 			}
 		}
+		endWalk(feed, response, oldest == null ? null : Long.toString(oldest.getTime()), resumed);
 
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 	}
 	
 	@Override
 	public Response retrieveLocationFeed(LocationFeed feed, Integer maxRequests) {
+		return retrieveLocationFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveLocationFeed(LocationFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date dateToRetrieve = new Date(feed.getSinceDate());
+		Date dateToRetrieve = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		int page=1, pages=1;
@@ -262,8 +346,7 @@ public class FlickrRetriever extends Retriever {
 		
 		List<Coordinates> polygon = feed.getLocation().getPolygon();
 		if(polygon == null || polygon.size() == 0) {
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		Double[][] bbox = new Double[polygon.size()][2];
@@ -278,41 +361,52 @@ public class FlickrRetriever extends Retriever {
 		params.setBBox(bbox[0][0].toString(), bbox[0][1].toString(), bbox[1][0].toString(), bbox[1][1].toString());
 		params.setMinUploadDate(dateToRetrieve);
 		
-		Set<String> extras = new HashSet<String>(Extras.ALL_EXTRAS);
-		extras.remove(Extras.MACHINE_TAGS);
-		params.setExtras(extras);
+		WalkCursor resumed = getWalkCursor(feed);
+		Date oldest = resume(params, resumed);
+		
+		Projection projection = getProjection(feed);
+		params.setExtras(getExtras(projection));
 		
 		while(page<=pages && numberOfRequests<=maxRequests ) {
 			PhotoList<Photo> photos;
+			if(!getRateLimitGovernor().acquire(REST_ENDPOINT)) {
+				break;
+			}
 			try {
-				photos = photosInteface.search(params , RESULTS_PER_PAGE, page++);
-			} catch (FlickrException e) {
+				photos = search(photosInteface, params, page++);
+			} catch (Exception e) {
+				logger.error(e);
 				break;
 			}
 			
 			pages = photos.getPages();
 			if(photos.isEmpty()) {
+				response.setComplete(true);
 				break;
 			}
 		
+			Map<String, StreamUser> owners = resolveOwners(photos, projection);
+			
+			List<Item> items = new ArrayList<Item>();
 			for(Photo photo : photos) {
-				String userid = photo.getOwner().getId();
-				StreamUser streamUser = getStreamUser(userid);
-				if(streamUser == null) {
-					continue;
-				}
+				Item flickrItem = toItem(photo, owners, projection);
 				
-				Item flickrItem = new FlickrItem(photo, streamUser);
 				if(label != null) {
 					flickrItem.addLabel(label);
 				}
 				
 				items.add(flickrItem);
+				oldest = photo.getDatePosted();
+			}
+			response.addPage(items);
+			
+			if(page > pages) {
+				response.setComplete(true);
 			}
 		}
+		endWalk(feed, response, oldest == null ? null : Long.toString(oldest.getTime()), resumed);
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
     }
 	
 	@Override
@@ -346,17 +440,10 @@ public class FlickrRetriever extends Retriever {
 	@Override
 	public StreamUser getStreamUser(String uid) {
 		try {
-			if(userMap.size() > 5000) {
-				userMap.clear();
-			}
-			
-			StreamUser streamUser = userMap.get(uid);
+			StreamUser streamUser = getStreamUserCache().get(Source.Flickr.toString(), uid);
 			if(streamUser == null) {
-				PeopleInterface peopleInterface = flickr.getPeopleInterface();
-				User user = peopleInterface.getInfo(uid);
-				
-				streamUser = new FlickrStreamUser(user);
-				userMap.put(uid, streamUser);
+				streamUser = ownerLookup.lookup(uid);
+				getStreamUserCache().put(Source.Flickr.toString(), uid, streamUser);
 			}	
 			return streamUser;
 		}
@@ -365,6 +452,103 @@ public class FlickrRetriever extends Retriever {
 		}
 		
 	}
+
+	/**
+	 * Bounds the search of a resumed walk by the upload date of the oldest photo that the walk it 
+	 * continues had reached. The bound is inclusive, the photos of that second are retrieved again.
+	 * 
+	 * @return the bound, or null if the walk starts from the newest photo
+	 */
+	private Date resume(SearchParameters params, WalkCursor resumed) {
+		if(resumed == null) {
+			return null;
+		}
+		
+		try {
+			Date maxUploadDate = new Date(Long.parseLong(resumed.getPosition()));
+			params.setMaxUploadDate(maxUploadDate);
+			return maxUploadDate;
+		}
+		catch(NumberFormatException e) {
+			logger.error("Invalid cursor " + resumed);
+			return null;
+		}
+	}
+	
+	private PhotoList<Photo> search(final PhotosInterface photosInteface, final SearchParameters params, final int page) throws Exception {
+		return getResilience().call("photos.search", new Callable<PhotoList<Photo>>() {
+			@Override
+			public PhotoList<Photo> call() throws FlickrException {
+				return photosInteface.search(params, RESULTS_PER_PAGE, page);
+			}
+		});
+	}
+
+	/**
+	 * Resolves the distinct owners of a page of photos, looking up the ones that are not cached concurrently.
+	 * With the minimal projection the owners are not looked up, the items keep the owner of the search results.
+	 * 
+	 * @param photos the photos of the page
+	 * @param projection the projection of the feed
+	 * @return the owners by id
+	 */
+	private Map<String, StreamUser> resolveOwners(List<Photo> photos, Projection projection) {
+		if(projection == Projection.MINIMAL) {
+			return new HashMap<String, StreamUser>();
+		}
+		
+		List<String> uids = new ArrayList<String>(photos.size());
+		for(Photo photo : photos) {
+			if(photo.getOwner() != null) {
+				uids.add(photo.getOwner().getId());
+			}
+		}
+		return resolveStreamUsers(Source.Flickr.toString(), uids, ownerLookup);
+	}
+	
+	/**
+	 * @return the item of a photo. A photo whose owner could not be resolved, e.g. on the rate limit, 
+	 * keeps the owner of the search results as in the minimal projection, since the checkpoint of the 
+	 * feed moves past it.
+	 */
+	private Item toItem(Photo photo, Map<String, StreamUser> owners, Projection projection) {
+		StreamUser streamUser = null;
+		if(projection != Projection.MINIMAL && photo.getOwner() != null) {
+			streamUser = owners.get(photo.getOwner().getId());
+		}
+		
+		if(streamUser == null) {
+			return new FlickrItem(photo);
+		}
+		return new FlickrItem(photo, streamUser);
+	}
+	
+	/**
+	 * @return the extras of the search results for a projection
+	 */
+	private Set<String> getExtras(Projection projection) {
+		Set<String> extras = new HashSet<String>();
+		switch(projection) {
+			case MINIMAL:
+				extras.add(Extras.DATE_UPLOAD);
+				extras.add(Extras.OWNER_NAME);
+				break;
+			case STANDARD:
+				extras.add(Extras.DATE_UPLOAD);
+				extras.add(Extras.OWNER_NAME);
+				extras.add(Extras.DESCRIPTION);
+				extras.add(Extras.DATE_TAKEN);
+				extras.add(Extras.TAGS);
+				extras.add(Extras.GEO);
+				extras.add(Extras.VIEWS);
+				extras.add(Extras.MEDIA);
+				break;
+			default:
+				extras.addAll(Extras.ALL_EXTRAS);
+				extras.remove(Extras.MACHINE_TAGS);
+		}
+		return extras;
+	}
 	
 	public static void main(String...args) throws Exception {
 		
@@ -383,7 +567,7 @@ public class FlickrRetriever extends Retriever {
 		Response response = retriever.retrieve(feed, 1);
 		System.out.println(response.getNumberOfItems());
 		
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println(item);
 		}
 	}
@@ -0,0 +1,27 @@
+package gr.iti.mklab.framework.retrievers.impl;
+
+import com.google.api.client.http.HttpResponseException;
+
+import gr.iti.mklab.framework.retrievers.ErrorClassifier;
+
+/**
+ * Classifies the errors of the Google APIs. Rate limiting (429) and server errors (5xx) 
+ * are retryable, the rest of the HTTP errors, e.g. an exceeded daily quota (403), are 
+ * permanent. I/O errors without a response are retryable.
+ * 
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+class GoogleErrorClassifier implements ErrorClassifier {
+
+	public static final GoogleErrorClassifier INSTANCE = new GoogleErrorClassifier();
+	
+	@Override
+	public boolean isRetryable(Throwable error) {
+		if(error instanceof HttpResponseException) {
+			int statusCode = ((HttpResponseException) error).getStatusCode();
+			return statusCode == 429 || statusCode >= 500;
+		}
+		return ErrorClassifier.DEFAULT.isRetryable(error);
+	}
+	
+}
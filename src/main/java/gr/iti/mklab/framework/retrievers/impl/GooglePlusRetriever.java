@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.Logger;
@@ -35,6 +36,7 @@ import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
 
@@ -64,14 +66,21 @@ public class GooglePlusRetriever extends Retriever {
 						.setApplicationName("SocialSensor")
 						.setHttpRequestInitializer(credential)
 						.setPlusRequestInitializer(new PlusRequestInitializer(GooglePlusKey)).build();
+		
+		getResilience().setErrorClassifier(GoogleErrorClassifier.INSTANCE);
 	}
 
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests) {
+		return retrieveAccountFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		int numberOfRequests = 0;
@@ -80,8 +89,7 @@ public class GooglePlusRetriever extends Retriever {
 		String uName = feed.getUsername();
 		if(uName == null && userID == null) {
 			logger.info("#GooglePlus : No account feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 				
 		//Retrieve userID from Google+
@@ -111,34 +119,43 @@ public class GooglePlusRetriever extends Retriever {
 			}
 		} catch (Exception e) {
 			logger.error(e);
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 
 		if(streamUser == null) {
 			logger.error("User not found. Feed: (" + feed.getId() + "");
 			
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 				
 		//Retrieve activity with userID
 		logger.info("Get public feed of user " + userID);
 		boolean isFinished = false, sinceDateReached = false;
+		String nextPageToken = null;
 		while(true) {
 			try {		
-				Plus.Activities.List userActivities = googlePlusService.activities().list(userID, "public");
+				final Plus.Activities.List userActivities = googlePlusService.activities().list(userID, "public");
 				userActivities.setMaxResults(100L);
+				if(nextPageToken != null) {
+					userActivities.setPageToken(nextPageToken);
+				}
 				
-				ActivityFeed activityFeed = userActivities.execute();
 				numberOfRequests ++;
+				ActivityFeed activityFeed = getResilience().call("activities.list", new Callable<ActivityFeed>() {
+					@Override
+					public ActivityFeed call() throws IOException {
+						return userActivities.execute();
+					}
+				});
 				
 				List<Activity> activities = activityFeed.getItems();
 				if(activities == null) {
 					isFinished = true;
+					response.setComplete(true);
 					break;
 				}
 				
+				List<Item> items = new ArrayList<Item>();
 				for (Activity activity : activities) {					
 					if(activity == null || activity.getId() == null) {
 						isFinished = true;
@@ -170,54 +187,61 @@ public class GooglePlusRetriever extends Retriever {
 						
 					items.add(googlePlusItem);
 				}
+				response.addPage(items);
 				
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date " + sinceDate + " reached for " + userID + " (" + uName + ").");
-					break;
-				}
-				
-				if(numberOfRequests > maxRequests) {
-					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + userID + " (" + uName + ").");
+					response.setComplete(true);
 					break;
 				}
 				
 				if(activityFeed.getNextPageToken() == null) {
 					logger.info("Stop retriever. There is no more pages to fetch for " + userID + " (" + uName + ").");
+					response.setComplete(true);
 					break;
 				}
 				
 				if(isFinished) {
 					logger.info("Stop retriever. Activity is null for " + userID + " (" + uName + ").");
+					response.setComplete(true);
 					break;
 				}
 				
-				userActivities.setPageToken(activityFeed.getNextPageToken());
+				if(numberOfRequests > maxRequests) {
+					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + userID + " (" + uName + ").");
+					break;
+				}
+				
+				nextPageToken = activityFeed.getNextPageToken();
 				
-			} catch (IOException e) {
+			} catch (Exception e) {
+				// the retries are exhausted, keep the pages retrieved so far
 				logger.error("#GooglePlus Exception for feed (" + feed.getId() + ")", e);
-				Response response = getResponse(items, numberOfRequests);
-				return response;
+				break;
 			}
 		}
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 	}
 	
 	@Override
 	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests) {
+		return retrieveKeywordsFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		int numberOfRequests = 0;
 	
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		List<String> keywords = feed.getKeywords();
 		if(keywords == null || keywords.isEmpty()) {
 			logger.info("#GooglePlus : No keywords feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		List<String> queryParts = new ArrayList<String>();
@@ -231,8 +255,7 @@ public class GooglePlusRetriever extends Retriever {
 		String tagsQuery = StringUtils.join(queryParts, " OR ");
 				
 		if(tagsQuery.equals("")) {
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		logger.info("Text Query: (" + tagsQuery + ")" + (label==null ? "" : ("with label=" + label)));
@@ -241,7 +264,7 @@ public class GooglePlusRetriever extends Retriever {
 		String nextPageToken = null;
 		while(true) {
 			try {
-				Plus.Activities.Search searchActivities = googlePlusService.activities().search(tagsQuery);
+				final Plus.Activities.Search searchActivities = googlePlusService.activities().search(tagsQuery);
 				searchActivities.setMaxResults(20L);
 				searchActivities.setOrderBy("recent");
 				
@@ -249,10 +272,21 @@ public class GooglePlusRetriever extends Retriever {
 					searchActivities.setPageToken(nextPageToken);
 				}
 				
-				ActivityFeed activityFeed = searchActivities.execute();
 				numberOfRequests++;
+				ActivityFeed activityFeed = getResilience().call("activities.search", new Callable<ActivityFeed>() {
+					@Override
+					public ActivityFeed call() throws IOException {
+						return searchActivities.execute();
+					}
+				});
 				
 				List<Activity> activities = activityFeed.getItems();
+				if(activities == null) {
+					response.setComplete(true);
+					break;
+				}
+				
+				List<Item> items = new ArrayList<Item>();
 				for (Activity activity : activities) {
 					DateTime publicationTime = activity.getPublished();
 					Date publicationDate = new Date(publicationTime.getValue());
@@ -276,36 +310,41 @@ public class GooglePlusRetriever extends Retriever {
 
 					items.add(googlePlusItem);	
 				}
+				response.addPage(items);
 				
 				nextPageToken = activityFeed.getNextPageToken();
 				
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date " + sinceDate + " reached for (" + tagsQuery + ").");
-					break;
-				}
-				
-				if(numberOfRequests > maxRequests) {
-					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for (" + tagsQuery + ").");
+					response.setComplete(true);
 					break;
 				}
 				
 				if(activityFeed.getNextPageToken() == null) {
 					logger.info("Stop retriever. There is no more pages to fetch for (" + tagsQuery + ").");
+					response.setComplete(true);
 					break;
 				}
 				
 				if(isFinished) {
 					logger.info("Stop retriever. Activity is null for (" + tagsQuery + ").");
+					response.setComplete(true);
+					break;
+				}
+				
+				if(numberOfRequests > maxRequests) {
+					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for (" + tagsQuery + ").");
 					break;
 				}
 				
-			} catch (IOException e) {
-				logger.error(e);
+			} catch (Exception e) {
+				// the retries are exhausted, keep the pages retrieved so far
+				logger.error("#GooglePlus Exception for (" + tagsQuery + ")", e);
+				break;
 			}
 		}
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 		
 	}
 	
@@ -380,7 +419,7 @@ public class GooglePlusRetriever extends Retriever {
 		Response response = retriever.retrieveAccountFeed(aFeed, 1);
 		System.out.println(response.getNumberOfItems() + " items found for " + aFeed.getId());
 		Response response2 = retriever.retrieveKeywordsFeed(kFeed, 1);
-		for(Item item : response2.getItems()) {
+		for(Item item : response2.getItemsView()) {
 			System.out.println(StringUtils.join(item.getTags()));
 		}
 	}
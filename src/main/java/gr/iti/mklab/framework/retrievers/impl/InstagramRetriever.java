@@ -3,8 +3,20 @@ package gr.iti.mklab.framework.retrievers.impl;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.logging.log4j.Logger;
@@ -39,6 +51,11 @@ import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.DaemonThreadFactory;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.PageFetcher;
+import gr.iti.mklab.framework.retrievers.PagePrefetcher;
+import gr.iti.mklab.framework.retrievers.QueueWorkers;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
 
@@ -52,10 +69,16 @@ public class InstagramRetriever extends Retriever {
 	
 	private Logger logger = LogManager.getLogger(InstagramRetriever.class);
 	
+	private static final String API_ENDPOINT = "api";
+	
+	private static final ExecutorService fanoutExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("instagram-fanout"));
+	
 	private Instagram instagram = null;
 
 	private InstagramOembed instagramOembed;
 	
+	private int locationParallelism = 4;
+	
 	public InstagramRetriever(Credentials credentials) {
 		
 		super(credentials);
@@ -64,14 +87,22 @@ public class InstagramRetriever extends Retriever {
 		this.instagram = new Instagram(credentials.getKey());
 		this.instagram.setAccessToken(accessToken);
 		this.instagramOembed = new InstagramOembed();
+		
+		// the documented limit of the API is 5000 calls per hour per access token
+		getRateLimitGovernor().setBudget(API_ENDPOINT, 5000, 3600 * 1000l);
 	}
 	
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests) {
+		return retrieveAccountFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		int numberOfRequests = 0;
@@ -81,8 +112,7 @@ public class InstagramRetriever extends Retriever {
 		String uName = feed.getUsername();
 		if(uid == null && uName == null) {
 			logger.error("#Instagram : No source feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 
 		StreamUser user = null;
@@ -104,26 +134,45 @@ public class InstagramRetriever extends Retriever {
 		}
 		catch(InstagramException e) {
 			logger.error("#Instagram Exception for feed (" + feed.getId() + ")", e);
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		if(user == null) {
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
+		final String userid = user.getUserid();
+		final int pageSize = count;
+		final Date since = sinceDate;
+		PagePrefetcher<MediaFeed> pages = prefetch(resilient("users/media/recent", new PageFetcher<MediaFeed>() {
+			@Override
+			public MediaFeed fetch(MediaFeed previous) throws Exception {
+				if(!getRateLimitGovernor().acquire(API_ENDPOINT)) {
+					return null;
+				}
+				if(previous == null) {
+					//String userId, int count, String minId, String maxId, Date maxTimeStamp, Date minTimeStamp
+					return instagram.getRecentMediaFeed(userid, pageSize, null, null, null, since);
+				}
+				Pagination pagination = previous.getPagination();
+				if(pagination == null || !pagination.hasNextPage()) {
+					return null;
+				}
+				return instagram.getRecentMediaNextPage(pagination);
+			}
+		}), maxRequests + 1);
+		
 		try {
 			logger.info("#Instagram : Retrieving media feed for user " + user.getId() + " (" + user.getUsername() + ")");
 				
-			//String userId, int count, String minId, String maxId, Date maxTimeStamp, Date minTimeStamp
-			MediaFeed mediaFeed = instagram.getRecentMediaFeed(user.getUserid(), count, null, null, null, sinceDate);
 			boolean sinceDateReached = false;
 			while(true) {
+				MediaFeed mediaFeed = pages.next();
 				if(mediaFeed == null) {
 					break;
 				}
 						
+				List<Item> items = new ArrayList<Item>();
 				for(MediaFeedData mfeed : mediaFeed.getData()) {
 					int createdTime = Integer.parseInt(mfeed.getCreatedTime());
 					Date publicationDate = new Date((long) createdTime * 1000);
@@ -142,49 +191,54 @@ public class InstagramRetriever extends Retriever {
 						items.add(instagramItem);
 					}
 				}
+				response.addPage(items);
 						
 				Pagination pagination = mediaFeed.getPagination();
 				if(pagination == null || !pagination.hasNextPage()) {
 					logger.info("Stop retriever. There is no next page for user (" + user.getUsername() + ")");
+					response.setComplete(true);
 					break;
 				}
 						
-				if(numberOfRequests >= maxRequests) {
-			        logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for user (" + user.getUsername() + ")");
-					break;
-				}
-			        	
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date " + sinceDate + " reached for user (" + user.getUsername() + ")");
+					response.setComplete(true);
+					break;
+				}
+				
+				if(numberOfRequests >= maxRequests) {
+			        logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for user (" + user.getUsername() + ")");
 					break;
 				}
 						
 				numberOfRequests++;
-				mediaFeed = instagram.getRecentMediaNextPage(pagination);
 			}
 					
 		}
 		catch(InstagramException e) {
 			logger.error("#Instagram Exception for feed (" + feed.getId() + ")", e);	
-			Response response = getResponse(items, numberOfRequests);
-			return response;
 		} 
-		catch (MalformedURLException e) {
+		catch (Exception e) {
 			logger.error("#Instagram Exception for (" + feed.getId() + ")", e);
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+		}
+		finally {
+			pages.close();
 		}
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, pages.getRequests());
 	}
 	
 	@Override
 	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests) {
+		return retrieveKeywordsFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		int numberOfRequests = 0;
@@ -192,8 +246,7 @@ public class InstagramRetriever extends Retriever {
 		List<String> keywords = feed.getKeywords();
 		if(keywords == null || keywords.isEmpty()) {
 			logger.error("#Instagram : No keywords for feed (" + feed.getId() + ")");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		String tags = "";
@@ -209,31 +262,39 @@ public class InstagramRetriever extends Retriever {
 		tags = tags.replaceAll(" ", "");
 		if(tags.equals("")) {
 			logger.error("#Instagram : No keywords feed for query (" + tags + ")");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		
-		boolean sinceDateReached = false;
-		TagMediaFeed tagFeed = null;
-		try {
-			numberOfRequests++;
-			tagFeed = instagram.getRecentMediaTags(tags, 50l);
-		}
-		catch(InstagramException e) {
-			logger.error("Instagram retriever exception for (" + feed.getId() + ")", e);
-			
-			Response response = getResponse(items, numberOfRequests);
-			return response;
-		}
+		final String query = tags;
+		PagePrefetcher<TagMediaFeed> pages = prefetch(resilient("tags/media/recent", new PageFetcher<TagMediaFeed>() {
+			@Override
+			public TagMediaFeed fetch(TagMediaFeed previous) throws Exception {
+				if(!getRateLimitGovernor().acquire(API_ENDPOINT)) {
+					return null;
+				}
+				if(previous == null) {
+					return instagram.getRecentMediaTags(query, 50l);
+				}
+				Pagination pagination = previous.getPagination();
+				if(pagination == null || !pagination.hasNextPage()) {
+					return null;
+				}
+				return instagram.getTagMediaInfoNextPage(pagination);
+			}
+		}), maxRequests);
 		
+		boolean sinceDateReached = false;
 		while(true) {
 			try {
+				numberOfRequests++;
+				TagMediaFeed tagFeed = pages.next();
 				if(tagFeed == null) { 
 					logger.info("Stop retriever. Tag feed not found for query (" + tags + ")");
 					break;
 				}
 				
+				List<Item> items = new ArrayList<Item>();
 				for(MediaFeedData mediaData : tagFeed.getData()) {
 					int createdTime = Integer.parseInt(mediaData.getCreatedTime());
 					Date publicationDate = new Date((long) createdTime * 1000);
@@ -249,65 +310,62 @@ public class InstagramRetriever extends Retriever {
 					}
 					items.add(instagramItem);
 				}
+				response.addPage(items);
 				
 				Pagination pagination = tagFeed.getPagination();
 				
 				if(pagination==null || !pagination.hasNextPage()) {
 					logger.info("Stop retriever. There is no next page for query (" + tags + ")");
+					response.setComplete(true);
 					break;
 				}
 				
-	        	if(numberOfRequests >= maxRequests) {
-	        		logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for query (" + tags + ")");
-					break;
-				}
-	        	
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date " + sinceDate + " reached for query (" + tags + ")");
+					response.setComplete(true);
 					break;
 				}
 				
-				numberOfRequests++;
-				tagFeed = instagram.getTagMediaInfoNextPage(pagination);
+	        	if(numberOfRequests >= maxRequests) {
+	        		logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for query (" + tags + ")");
+					break;
+				}
 				
 			}
 			catch(InstagramException e) {
 				logger.error("Instagram retriever exception for (" + feed.getId() + ")", e);
+				break;
 				
-				Response response = getResponse(items, numberOfRequests);
-				return response;
-				
-			} catch (MalformedURLException e) {
+			} catch (Exception e) {
 				logger.error("Instagram retriever exception for (" + feed.getId() + ")", e);
-				
-				Response response = getResponse(items, numberOfRequests);
-				return response;
+				break;
 			}
 		}
+		pages.close();
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, pages.getRequests());
 	}
 	
 	@Override
 	public Response retrieveLocationFeed(LocationFeed feed, Integer maxRequests) {
+		return retrieveLocationFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveLocationFeed(LocationFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		Date lastItemDate = new Date(feed.getSinceDate());
+		Date lastItemDate = new Date(getSinceDate(feed));
 		Date currentDate = new Date(System.currentTimeMillis());
 		
-		int it = 0 ;
-		int numberOfRequests = 0;
-		
-		boolean isFinished = false;
+		final AtomicInteger numberOfRequests = new AtomicInteger(0);
 		
 		Location loc = feed.getLocation();
 		
     	if(loc == null){ 
     		logger.error("#Instagram : No Location feed");
-    		Response response = getResponse(items, numberOfRequests);
-    		return response;
+    		return getResponse(response, numberOfRequests.get());
     	}
 		
 		List<org.jinstagram.entity.common.Location> locations = null;
@@ -315,69 +373,150 @@ public class InstagramRetriever extends Retriever {
     	double latitude = loc.getLatitude();
     	double longtitude = loc.getLongitude();
     	
+    	if(!getRateLimitGovernor().acquire(API_ENDPOINT)) {
+    		return getResponse(response, numberOfRequests.get());
+    	}
     	try{
+    		numberOfRequests.incrementAndGet();
     		LocationSearchFeed locs = instagram.searchLocation(latitude , longtitude,5000);
     		locations = locs.getLocationList();
     	}
     	catch(InstagramException e){
     		logger.error("#Instagram Exception : "+e.getMessage());
-    		Response response = getResponse(items, numberOfRequests);
-    		return response;
+    		return getResponse(response, numberOfRequests.get());
     	}
     	
-    	for (org.jinstagram.entity.common.Location location : locations) {
-    		
-    		Date upDate = currentDate;
-    		Date downDate = DateUtils.addDays(upDate, -1); 
-    		
-    		while(downDate.after(lastItemDate) || downDate.equals(lastItemDate)) {
+    	if(locations == null || locations.isEmpty()) {
+    		return getResponse(response, numberOfRequests.get());
+    	}
     	
-    			it++;
-    			try{
-        			MediaFeed mediaFeed = instagram.getRecentMediaByLocation(location.getId(),0,0,upDate,downDate);
-        			numberOfRequests++;
-        			if(mediaFeed != null) {
-        				logger.info("#Instagram : Retrieving page "+it+" that contains "+mediaFeed.getData().size()+" posts");	
-            			
-                		for(MediaFeedData mfeed : mediaFeed.getData()){
-        					int createdTime = Integer.parseInt(mfeed.getCreatedTime());
-        					Date publicationDate = new Date((long) createdTime * 1000);
-        					if(lastItemDate.after(publicationDate) || numberOfRequests>maxRequests) {
-        						isFinished = true;
-								break;
-        					}
-        					
-        					if((mfeed != null && mfeed.getId() != null)){
-        						InstagramItem instagramItem = new InstagramItem(mfeed);
-        						
-        						items.add(instagramItem);
-        					}
-        					
-        				}
-        			}
-        		}
-        		catch(InstagramException e){
-        			Response response = getResponse(items, numberOfRequests);
-        			return response;
-        		} catch (MalformedURLException e1) {
-        			Response response = getResponse(items, numberOfRequests);
-        			return response;
-					
-				}
-    			
-    			if(isFinished)
-    				break;
-    				
-    			upDate = downDate;
-    			downDate = DateUtils.addDays(upDate, -1); 
+    	// one window per location and day, newest day first, as many as the request budget allows
+    	List<List<LocationWindow>> days = new ArrayList<List<LocationWindow>>();
+    	int budget = maxRequests - numberOfRequests.get();
+    	Date upDate = currentDate;
+    	while(budget > 0 && upDate.after(lastItemDate)) {
+    		Date downDate = DateUtils.addDays(upDate, -1);
+    		if(downDate.before(lastItemDate)) {
+    			downDate = lastItemDate;
     		}
     		
+    		List<LocationWindow> day = new ArrayList<LocationWindow>();
+    		for(int i = 0; i < locations.size() && budget > 0; i++, budget--) {
+    			day.add(new LocationWindow(locations.get(i).getId(), upDate, downDate));
+    		}
+    		days.add(day);
+    		upDate = downDate;
     	}
+    	
+    	final Queue<LocationWindow> windows = new ConcurrentLinkedQueue<LocationWindow>();
+    	for(List<LocationWindow> day : days) {
+    		windows.addAll(day);
+    	}
+    	
+    	final String label = feed.getLabel();
+    	List<Future<?>> futures = QueueWorkers.start(windows, locationParallelism, fanoutExecutor, new QueueWorkers.Task<LocationWindow>() {
+			@Override
+			public void process(LocationWindow window) {
+				try {
+					if(!getRateLimitGovernor().acquire(API_ENDPOINT)) {
+						// no quota left, the remaining windows are dropped
+						drop(windows);
+						return;
+					}
+					
+					numberOfRequests.incrementAndGet();
+					final LocationWindow request = window;
+					MediaFeed mediaFeed = getResilience().call("locations/media/recent", new Callable<MediaFeed>() {
+						@Override
+						public MediaFeed call() throws InstagramException {
+							return instagram.getRecentMediaByLocation(request.locationId, 0, 0, request.upDate, request.downDate);
+						}
+					});
+					if(mediaFeed != null && mediaFeed.getData() != null) {
+						for(MediaFeedData mfeed : mediaFeed.getData()) {
+							if(mfeed != null && mfeed.getId() != null) {
+								InstagramItem instagramItem = new InstagramItem(mfeed);
+								if(label != null) {
+									instagramItem.addLabel(label);
+								}
+								window.items.add(instagramItem);
+							}
+						}
+					}
+					window.retrieved = true;
+				}
+				catch(Exception e) {
+					logger.error("#Instagram Exception for location " + window.locationId + " : " + e.getMessage());
+				}
+				finally {
+					window.done.countDown();
+				}
+			}
+		});
 		
-    	Response response = getResponse(items, numberOfRequests);
-    	return response;
+		// the retrieval is complete if the windows reach the since date and all of them are retrieved
+		boolean complete = !upDate.after(lastItemDate);
+		
+		// pages are emitted day by day, once all the locations of the day are done
+		Set<String> seen = new HashSet<String>();
+		try {
+			int it = 0;
+			for(List<LocationWindow> day : days) {
+				List<Item> items = new ArrayList<Item>();
+				for(LocationWindow window : day) {
+					window.done.await();
+					complete = complete && window.retrieved;
+					for(Item item : window.items) {
+						// nearby locations overlap, keep the first copy of each media
+						if(item.getPublicationTime() >= lastItemDate.getTime() && seen.add(item.getId())) {
+							items.add(item);
+						}
+					}
+				}
+				
+				Collections.sort(items, new Comparator<Item>() {
+					@Override
+					public int compare(Item item1, Item item2) {
+						return Long.compare(item2.getPublicationTime(), item1.getPublicationTime());
+					}
+				});
+				
+				logger.info("#Instagram : Retrieving page " + (++it) + " that contains " + items.size() + " posts");
+				response.addPage(items);
+			}
+			response.setComplete(complete);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drop(windows);
+			for(Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+		
+    	return getResponse(response, numberOfRequests.get());
     }
 	
+	/**
+	 * Removes the windows that have not been requested yet and marks them as done, so that 
+	 * the emission of the pages does not wait for them.
+	 */
+	private static void drop(Queue<LocationWindow> windows) {
+		LocationWindow window;
+		while((window = windows.poll()) != null) {
+			window.done.countDown();
+		}
+	}
+	
+	/**
+	 * Sets the number of location windows that the location retrieval requests concurrently.
+	 * 
+	 * @param locationParallelism the number of concurrent requests, 1 to request one window after the other
+	 */
+	public void setLocationParallelism(int locationParallelism) {
+		this.locationParallelism = Math.max(1, locationParallelism);
+	}
+	
 	@Override
 	public Response retrieveGroupFeed(GroupFeed feed, Integer maxRequests) {
 		return new Response();
@@ -515,7 +654,7 @@ public class InstagramRetriever extends Retriever {
 		
 		//Response response = retriever.retrieveKeywordsFeed(feed, 3);
 		Response response = retriever.retrieveAccountFeed(accountFeed, 3);
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println(item.getPageUrl());
 		}
 		System.out.println(response.getNumberOfItems());
@@ -553,4 +692,23 @@ public class InstagramRetriever extends Retriever {
 		return null;
 	}
 	
+	/**
+	 * A day of a location, and the items retrieved for it.
+	 */
+	private static class LocationWindow {
+		
+		private String locationId;
+		private Date upDate;
+		private Date downDate;
+		
+		private List<Item> items = new ArrayList<Item>();
+		private CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean retrieved = false;
+		
+		public LocationWindow(String locationId, Date upDate, Date downDate) {
+			this.locationId = locationId;
+			this.upDate = upDate;
+			this.downDate = downDate;
+		}
+	}
 }
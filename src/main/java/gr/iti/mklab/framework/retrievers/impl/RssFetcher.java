@@ -0,0 +1,374 @@
+package gr.iti.mklab.framework.retrievers.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import com.rometools.fetcher.FetcherEvent;
+import com.rometools.fetcher.FetcherListener;
+import com.rometools.fetcher.impl.FeedFetcherCache;
+import com.rometools.fetcher.impl.SyndFeedInfo;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.feed.synd.SyndFeedImpl;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+
+/**
+ * Fetches RSS and Atom feeds with conditional GET requests, without a global lock.
+ *
+ * Fetching is split in two steps, so that they can run in different threads: the download,
+ * that holds a connection, and the parsing, that holds a CPU. The connections are kept alive
+ * and reused by the HttpURLConnection pool of the JVM, and no more than maxConnectionsPerHost
+ * downloads run concurrently against the same host.
+ *
+ * With an entry filter the entries are parsed while the document is downloaded, and the download
+ * stops at the first entry that the filter rejects. Documents larger than maxDocumentSize are
+ * rejected in both cases.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RssFetcher {
+
+	private static final String USER_AGENT = "mklab-socialmedia-abstractions RssFetcher";
+
+	private FeedFetcherCache cache;
+
+	private int maxConnectionsPerHost = 4;
+	private int connectTimeout = 10000;
+	private int readTimeout = 30000;
+	private long maxDocumentSize = 8 * 1024 * 1024;
+	
+	private RssStreamParser streamParser = new RssStreamParser();
+
+	private Map<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+	public RssFetcher(FeedFetcherCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @param maxConnectionsPerHost the maximum number of concurrent downloads from a host, 4 by default
+	 */
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		hosts.clear();
+	}
+
+	/**
+	 * @param connectTimeout the connect timeout in milliseconds
+	 * @param readTimeout the read timeout in milliseconds
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @param maxDocumentSize the maximum size of a feed in bytes, after decompression, 8MB by default
+	 */
+	public void setMaxDocumentSize(long maxDocumentSize) {
+		this.maxDocumentSize = maxDocumentSize;
+	}
+	
+	public FeedFetcherCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Downloads and parses a feed in the calling thread.
+	 *
+	 * @param url the url of the feed
+	 * @return the feed, or the cached feed if it is not modified
+	 */
+	public SyndFeed retrieveFeed(URL url) throws Exception {
+		return retrieveFeed(url, null);
+	}
+	
+	/**
+	 * Downloads and parses a feed in the calling thread.
+	 *
+	 * @param url the url of the feed
+	 * @param filter the filter that stops the download, or null to parse the whole document
+	 * @return the feed, or the cached feed if it is not modified
+	 */
+	public SyndFeed retrieveFeed(URL url, RssStreamParser.EntryFilter filter) throws Exception {
+		Download download = download(url, 0, filter);
+		return parse(download);
+	}
+
+	/**
+	 * Downloads a feed, waiting up to maxWait milliseconds for a connection to its host.
+	 *
+	 * @param url the url of the feed
+	 * @param maxWait the maximum wait in milliseconds, 0 to wait as long as needed
+	 * @return the download, or null if no connection to the host was available in time
+	 */
+	public Download download(URL url, long maxWait) throws Exception {
+		return download(url, maxWait, null);
+	}
+	
+	/**
+	 * Downloads a feed, waiting up to maxWait milliseconds for a connection to its host.
+	 * With a filter, the entries are parsed during the download.
+	 *
+	 * @param url the url of the feed
+	 * @param maxWait the maximum wait in milliseconds, 0 to wait as long as needed
+	 * @param filter the filter that stops the download, or null to download the whole document
+	 * @return the download, or null if no connection to the host was available in time
+	 */
+	public Download download(URL url, long maxWait, RssStreamParser.EntryFilter filter) throws Exception {
+		Semaphore connections = getConnections(url.getHost());
+		if(maxWait > 0) {
+			if(!connections.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				return null;
+			}
+		}
+		else {
+			connections.acquire();
+		}
+
+		try {
+			return get(url, filter);
+		}
+		finally {
+			connections.release();
+		}
+	}
+
+	/**
+	 * Parses a downloaded feed and caches its validators.
+	 *
+	 * @param download the download
+	 * @return the feed, or the cached feed if it is not modified
+	 */
+	public SyndFeed parse(Download download) throws Exception {
+		if(download.feedInfo != null) {
+			return download.feedInfo.getSyndFeed();
+		}
+		if(download.syndFeed != null) {
+			return download.syndFeed;
+		}
+
+		XmlReader reader = new XmlReader(new ByteArrayInputStream(download.content), download.contentType, true);
+		try {
+			SyndFeed syndFeed = new SyndFeedInput().build(reader);
+
+			cache(download, syndFeed);
+			return syndFeed;
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	private void cache(Download download, SyndFeed syndFeed) {
+		SyndFeedInfo feedInfo = new SyndFeedInfo();
+		feedInfo.setId(download.url.toString());
+		feedInfo.setUrl(download.url);
+		feedInfo.setETag(download.eTag);
+		if(download.lastModified > 0) {
+			feedInfo.setLastModified(download.lastModified);
+		}
+		feedInfo.setSyndFeed(syndFeed);
+		cache.setFeedInfo(download.url, feedInfo);
+
+		fireEvent(download.url, FetcherEvent.EVENT_TYPE_FEED_RETRIEVED);
+	}
+
+	private Download get(URL url, RssStreamParser.EntryFilter filter) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setRequestProperty("User-Agent", USER_AGENT);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+
+		SyndFeedInfo feedInfo = cache.getFeedInfo(url);
+		if(feedInfo != null) {
+			if(feedInfo.getETag() != null) {
+				connection.setRequestProperty("If-None-Match", feedInfo.getETag());
+			}
+			if(feedInfo.getLastModified() instanceof Long) {
+				connection.setIfModifiedSince((Long) feedInfo.getLastModified());
+			}
+		}
+
+		fireEvent(url, FetcherEvent.EVENT_TYPE_FEED_POLLED);
+
+		int responseCode = connection.getResponseCode();
+		if(responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && feedInfo != null) {
+			fireEvent(url, FetcherEvent.EVENT_TYPE_FEED_UNCHANGED);
+			drain(connection.getInputStream());
+
+			Download download = new Download(url);
+			download.feedInfo = feedInfo;
+			return download;
+		}
+
+		if(responseCode != HttpURLConnection.HTTP_OK) {
+			// read the error body, so that the connection is kept alive
+			drain(connection.getErrorStream());
+			throw new IOException("HTTP " + responseCode + " for " + url);
+		}
+		
+		if(connection.getContentLengthLong() > maxDocumentSize && !"gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			connection.disconnect();
+			throw new IOException("Feed " + url + " is larger than " + maxDocumentSize + " bytes");
+		}
+
+		InputStream input = connection.getInputStream();
+		if("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			input = new GZIPInputStream(input);
+		}
+		input = new LimitedInputStream(input, maxDocumentSize, url);
+
+		Download download = new Download(url);
+		download.contentType = connection.getContentType();
+		download.eTag = connection.getHeaderField("ETag");
+		download.lastModified = connection.getLastModified();
+		
+		if(filter == null) {
+			download.content = read(input);
+			return download;
+		}
+		
+		// closing the stream before its end drops the connection instead of reading the rest
+		try {
+			List<SyndEntry> entries = streamParser.parse(input, download.contentType, filter);
+			
+			SyndFeed syndFeed = new SyndFeedImpl();
+			syndFeed.setEntries(entries);
+			
+			download.syndFeed = syndFeed;
+			cache(download, syndFeed);
+		}
+		finally {
+			input.close();
+		}
+
+		return download;
+	}
+
+	private Semaphore getConnections(String host) {
+		Semaphore connections = hosts.get(host);
+		if(connections == null) {
+			connections = new Semaphore(maxConnectionsPerHost);
+			Semaphore existing = hosts.putIfAbsent(host, connections);
+			if(existing != null) {
+				connections = existing;
+			}
+		}
+		return connections;
+	}
+
+	private void fireEvent(URL url, String eventType) {
+		if(cache instanceof FetcherListener) {
+			((FetcherListener) cache).fetcherEvent(new FetcherEvent(this, url.toString(), eventType));
+		}
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = input.read(buffer)) != -1) {
+				output.write(buffer, 0, n);
+			}
+			return output.toByteArray();
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	private static void drain(InputStream input) {
+		if(input == null) {
+			return;
+		}
+		try {
+			read(input);
+		}
+		catch(IOException e) {
+			// the connection is not reused
+		}
+	}
+
+	/**
+	 * Fails the reads past the maximum size of a document.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long remaining;
+		private URL url;
+
+		public LimitedInputStream(InputStream input, long maxSize, URL url) {
+			super(input);
+			this.remaining = maxSize;
+			this.url = url;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if(n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		private void count(int n) throws IOException {
+			remaining -= n;
+			if(remaining < 0) {
+				throw new IOException("Feed " + url + " exceeds the maximum document size");
+			}
+		}
+	}
+
+	/**
+	 * The response of a feed: its content, the entries parsed while downloading it, or its cached info if it is not modified.
+	 */
+	public static class Download {
+
+		private URL url;
+
+		private byte[] content;
+		private String contentType;
+		private String eTag;
+		private long lastModified;
+
+		private SyndFeedInfo feedInfo;
+		private SyndFeed syndFeed;
+
+		private Download(URL url) {
+			this.url = url;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		public boolean isModified() {
+			return feedInfo == null;
+		}
+	}
+}
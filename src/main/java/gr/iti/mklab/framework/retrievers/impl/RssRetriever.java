@@ -1,20 +1,27 @@
 package gr.iti.mklab.framework.retrievers.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import com.restfb.util.StringUtils;
-import com.rometools.fetcher.FeedFetcher;
 import com.rometools.fetcher.impl.FeedFetcherCache;
 import com.rometools.fetcher.impl.HashMapFeedInfoCache;
-import com.rometools.fetcher.impl.HttpURLFeedFetcher;
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.feed.synd.SyndFeed;
 
@@ -29,6 +36,9 @@ import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
 import gr.iti.mklab.framework.common.domain.feeds.RssFeed;
+import gr.iti.mklab.framework.retrievers.DaemonThreadFactory;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.QueueWorkers;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
 
@@ -40,14 +50,81 @@ import gr.iti.mklab.framework.retrievers.Retriever;
  */
 public class RssRetriever extends Retriever {
 	
+	private static final ExecutorService pollingExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("rss-poller"));
+	
+	// parsing is CPU bound, it runs in its own pool so that it never holds a connection
+	private static final ExecutorService parsingExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
+			new DaemonThreadFactory("rss-parser"));
+	
+	// a poller that waits longer than this for a busy host moves on to the next feed
+	private static final long HOST_WAIT = 50l;
+	
+	public final Logger logger = LogManager.getLogger(RssRetriever.class);
+	
+	private FeedFetcherCache cache;
+	private RssFetcher fetcher;
+	
+	private int pollingParallelism = 32;
+	private boolean streaming = false;
+	
 	public RssRetriever(Credentials credentials) {
-		super(credentials);	
+		this(credentials, HashMapFeedInfoCache.getInstance());
+	}
+	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param cacheFile the file that keeps the ETag and Last-Modified validators of the feeds across restarts
+	 */
+	public RssRetriever(Credentials credentials, File cacheFile) {
+		this(credentials, DiskFeedInfoCache.getInstance(cacheFile));
 	}
-
-	public final Logger logger = LogManager.getLogger(RssRetriever.class);
 	
-	private FeedFetcherCache cache = HashMapFeedInfoCache.getInstance();
-	private FeedFetcher feedFetcher = new HttpURLFeedFetcher(cache);
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param cache the cache of the conditional requests
+	 */
+	public RssRetriever(Credentials credentials, FeedFetcherCache cache) {
+		super(credentials);
+		
+		this.cache = cache;
+		this.fetcher = new RssFetcher(cache);
+	}
+	
+	public FeedFetcherCache getFeedFetcherCache() {
+		return cache;
+	}
+	
+	/**
+	 * @param pollingParallelism the number of feeds downloaded concurrently by retrieveFeeds, 32 by default
+	 */
+	public void setPollingParallelism(int pollingParallelism) {
+		this.pollingParallelism = Math.max(1, pollingParallelism);
+	}
+	
+	/**
+	 * @param maxConnectionsPerHost the maximum number of concurrent downloads from a host, 4 by default
+	 */
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		fetcher.setMaxConnectionsPerHost(maxConnectionsPerHost);
+	}
+	
+	/**
+	 * Enables the streaming parsing of the feeds. The entries are then parsed while the feed 
+	 * is downloaded, and the download stops at the first entry before the since date of the 
+	 * feed, instead of parsing the whole document with Rome.
+	 * 
+	 * @param streaming true to parse the feeds while they are downloaded
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+	
+	/**
+	 * @param maxDocumentSize the maximum size of a feed in bytes, larger feeds fail
+	 */
+	public void setMaxDocumentSize(long maxDocumentSize) {
+		fetcher.setMaxDocumentSize(maxDocumentSize);
+	}
 	
 	@Override
 	public Response retrieve(Feed feed) throws Exception {
@@ -56,11 +133,15 @@ public class RssRetriever extends Retriever {
 		
 	@Override
 	public Response retrieve(Feed feed, Integer maxRequests) throws Exception {
+		return retrieve(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieve(Feed feed, Integer maxRequests, PageConsumer consumer) throws Exception {
 
-		Response response = new Response();
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		if(RssFeed.class.isInstance(feed.getClass())) {
+		if(!RssFeed.class.isInstance(feed)) {
 			logger.error("Feed " + feed.getClass() + "is not instance of Rss Feed");
 			throw new Exception("Feed " + feed.getClass() + "is not instance of Rss Feed");
 		}
@@ -68,71 +149,179 @@ public class RssRetriever extends Retriever {
 		RssFeed rrsFeed = (RssFeed) feed;
 		logger.info("["+new Date()+"] Retrieving RSS Feed: " + rrsFeed.getURL());
 		
-		if(rrsFeed.getURL().equals("")) {
+		if(rrsFeed.getURL() == null || rrsFeed.getURL().equals("")) {
 			logger.error("URL is null");
-			response.setItems(items);
 			return response;
 		}
 		
-		StreamUser user = new StreamUser();
-		user.setId(rrsFeed.getSource() + "#" + rrsFeed.getId());
-		user.setUsername(rrsFeed.getURL());
-		user.setName(rrsFeed.getName());
-		user.setSource(rrsFeed.getSource());
-		user.setProfileImage("imgs/noprofile.gif");
-		
-		Date since = new Date(rrsFeed.getSinceDate());
 		try {
 			URL url = new URL(rrsFeed.getURL());
+			SyndFeed syndFeed = fetcher.retrieveFeed(url, getFilter(rrsFeed));
 			
-			SyndFeed syndFeed;
-			synchronized(feedFetcher) {
-				syndFeed = feedFetcher.retrieveFeed(url);
-			}
-			
-			List<SyndEntry> entries = syndFeed.getEntries();
-			for (SyndEntry entry : entries) {		
-				if(entry.getLink() != null) {
-					
-					Date publicationDate = entry.getPublishedDate();
-					if(publicationDate == null) {
-						continue;
-					}
-					
-					if(publicationDate.before(since)) {
-						logger.info(publicationDate + " before " + since);
-						break;
-					}
-					
-					Item item = new RSSItem(entry);
-					item.setUserId(rrsFeed.getSource() + "#" + rrsFeed.getId());
-					
-					URL pageUrl = new URL(entry.getLink());
-					user.setPageUrl(pageUrl.getProtocol() + "://" + pageUrl.getHost());
-					item.setStreamUser(user);
-					
-					String label = feed.getLabel();
-					if(label != null) {
-						item.addLabel(label);
-					}	
-					
-					items.add(item);			
-				}
-			}
+			response.addPage(getItems(rrsFeed, syndFeed));
+			// a feed is retrieved as a whole
+			response.setComplete(true);
 			
 		} catch (MalformedURLException e) {
 			logger.error(e);
 		} catch (IOException e) {
 			logger.error(e);
 		} catch (Exception e) {
-			e.printStackTrace();
 			logger.error(e);
 		}
-	
-		response.setItems(items);
+		
+		response.setRequests(1);
+		checkpoint(feed, response);
+		
 		return response;
 	}
 	
+	/**
+	 * Retrieves a number of RSS feeds concurrently. Up to pollingParallelism feeds are downloaded 
+	 * at once, with no more than maxConnectionsPerHost connections to the same host, and the 
+	 * downloaded feeds are parsed in a separate pool. A feed whose host is busy is put back in 
+	 * the queue, so that a host with many feeds does not hold up the rest.
+	 * 
+	 * @param feeds the feeds
+	 * @return the response of each feed. Feeds that failed have an empty response.
+	 */
+	public Map<RssFeed, Response> retrieveFeeds(List<RssFeed> feeds) {
+		final Map<RssFeed, Response> responses = new ConcurrentHashMap<RssFeed, Response>();
+		final Map<RssFeed, Future<SyndFeed>> parsed = new ConcurrentHashMap<RssFeed, Future<SyndFeed>>();
+		
+		final Queue<RssFeed> queue = new ConcurrentLinkedQueue<RssFeed>();
+		for(RssFeed feed : feeds) {
+			if(feed.getURL() == null || feed.getURL().equals("")) {
+				logger.error("URL of feed " + feed.getId() + " is null");
+				responses.put(feed, new Response());
+				continue;
+			}
+			queue.add(feed);
+		}
+		
+		// the calling thread is one of the pollers
+		try {
+			QueueWorkers.drain(queue, pollingParallelism, pollingExecutor, new QueueWorkers.Task<RssFeed>() {
+				@Override
+				public void process(RssFeed feed) throws InterruptedException {
+					try {
+						final RssFetcher.Download download = fetcher.download(new URL(feed.getURL()), HOST_WAIT, getFilter(feed));
+						if(download == null) {
+							queue.add(feed);
+							return;
+						}
+						
+						parsed.put(feed, parsingExecutor.submit(new Callable<SyndFeed>() {
+							@Override
+							public SyndFeed call() throws Exception {
+								return fetcher.parse(download);
+							}
+						}));
+					}
+					catch(InterruptedException e) {
+						throw e;
+					}
+					catch(Exception e) {
+						logger.error("Failed to retrieve RSS Feed " + feed.getURL() + ": " + e.getMessage());
+						Response response = new Response();
+						response.setRequests(1);
+						responses.put(feed, response);
+					}
+				}
+			});
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return responses;
+		}
+		
+		for(Map.Entry<RssFeed, Future<SyndFeed>> e : parsed.entrySet()) {
+			RssFeed feed = e.getKey();
+			Response response = new Response();
+			try {
+				response.addPage(getItems(feed, e.getValue().get()));
+				response.setComplete(true);
+			}
+			catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch(Exception ex) {
+				logger.error("Failed to parse RSS Feed " + feed.getURL() + ": " + ex.getMessage());
+			}
+			
+			response.setRequests(1);
+			checkpoint(feed, response);
+			responses.put(feed, response);
+		}
+		
+		return responses;
+	}
+	
+	/**
+	 * @return the filter that stops the streaming parsing at the since date of the feed, or null if streaming is disabled
+	 */
+	private RssStreamParser.EntryFilter getFilter(RssFeed feed) {
+		if(!streaming) {
+			return null;
+		}
+		
+		final Date since = new Date(getSinceDate(feed));
+		return new RssStreamParser.EntryFilter() {
+			@Override
+			public boolean accept(SyndEntry entry) {
+				// entries without a date are skipped when mapped, they do not stop the parsing
+				Date publicationDate = entry.getPublishedDate();
+				return publicationDate == null || !publicationDate.before(since);
+			}
+		};
+	}
+	
+	private List<Item> getItems(RssFeed rrsFeed, SyndFeed syndFeed) throws MalformedURLException {
+		List<Item> items = new ArrayList<Item>();
+		
+		StreamUser user = new StreamUser();
+		user.setId(rrsFeed.getSource() + "#" + rrsFeed.getId());
+		user.setUsername(rrsFeed.getURL());
+		user.setName(rrsFeed.getName());
+		user.setSource(rrsFeed.getSource());
+		user.setProfileImage("imgs/noprofile.gif");
+		
+		Date since = new Date(getSinceDate(rrsFeed));
+		
+		List<SyndEntry> entries = syndFeed.getEntries();
+		for (SyndEntry entry : entries) {		
+			if(entry.getLink() != null) {
+				
+				Date publicationDate = entry.getPublishedDate();
+				if(publicationDate == null) {
+					continue;
+				}
+				
+				if(publicationDate.before(since)) {
+					logger.info(publicationDate + " before " + since);
+					break;
+				}
+				
+				Item item = new RSSItem(entry);
+				item.setUserId(rrsFeed.getSource() + "#" + rrsFeed.getId());
+				
+				URL pageUrl = new URL(entry.getLink());
+				user.setPageUrl(pageUrl.getProtocol() + "://" + pageUrl.getHost());
+				item.setStreamUser(user);
+				
+				String label = rrsFeed.getLabel();
+				if(label != null) {
+					item.addLabel(label);
+				}	
+				
+				items.add(item);			
+			}
+		}
+		
+		return items;
+	}
+	
 	public static void main(String...args) throws Exception {
 		
 		String id = "unep";
@@ -146,7 +335,7 @@ public class RssRetriever extends Retriever {
 		Response response = retriever.retrieve(feed);
 		
 		System.out.println(response.getNumberOfItems() + " items");
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println("ID: " + item.getId());
 			System.out.println("Title: " + item.getTitle());
 			System.out.println(new Date(item.getPublicationTime()));
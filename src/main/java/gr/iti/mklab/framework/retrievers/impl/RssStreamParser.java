@@ -0,0 +1,350 @@
+package gr.iti.mklab.framework.retrievers.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.rometools.modules.content.ContentModule;
+import com.rometools.modules.content.ContentModuleImpl;
+import com.rometools.modules.mediarss.MediaEntryModuleImpl;
+import com.rometools.modules.mediarss.MediaModule;
+import com.rometools.modules.mediarss.types.MediaContent;
+import com.rometools.modules.mediarss.types.Metadata;
+import com.rometools.modules.mediarss.types.UrlReference;
+import com.rometools.modules.slash.Slash;
+import com.rometools.modules.slash.SlashImpl;
+import com.rometools.rome.feed.module.Module;
+import com.rometools.rome.feed.synd.SyndCategory;
+import com.rometools.rome.feed.synd.SyndCategoryImpl;
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEnclosure;
+import com.rometools.rome.feed.synd.SyndEnclosureImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import com.rometools.rome.io.XmlReader;
+import com.rometools.rome.io.impl.DateParser;
+
+/**
+ * Parses the entries of an RSS or Atom feed one at a time, while the document is read.
+ *
+ * The entries are mapped to SyndEntry objects with the properties and modules that RSSItem
+ * uses, i.e. title, link, description, publication date, author, categories, enclosures and
+ * the content, slash and media RSS modules. Each entry is handed to a filter as soon as it
+ * is read, and the parsing stops at the first entry that the filter rejects, without reading
+ * the rest of the document.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class RssStreamParser {
+
+	private static final String ATOM = "http://www.w3.org/2005/Atom";
+	private static final String DC = "http://purl.org/dc/elements/1.1/";
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+	static {
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	public interface EntryFilter {
+
+		/**
+		 * @param entry an entry of the feed, in document order
+		 * @return true to keep the entry and continue, false to stop parsing
+		 */
+		public boolean accept(SyndEntry entry);
+
+	}
+
+	/**
+	 * Parses the entries of a feed, until the filter rejects one or the document ends.
+	 *
+	 * @param input the document
+	 * @param contentType the HTTP content type of the document, used for its encoding
+	 * @param filter the filter of the entries
+	 * @return the accepted entries
+	 */
+	public List<SyndEntry> parse(InputStream input, String contentType, EntryFilter filter) throws IOException, XMLStreamException {
+		List<SyndEntry> entries = new ArrayList<SyndEntry>();
+
+		XmlReader reader = new XmlReader(input, contentType, true);
+		XMLStreamReader xml = factory.createXMLStreamReader(reader);
+		try {
+			while(xml.hasNext()) {
+				if(xml.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+
+				String name = xml.getLocalName();
+				if(!name.equals("item") && !name.equals("entry")) {
+					continue;
+				}
+
+				SyndEntry entry = readEntry(xml);
+				if(!filter.accept(entry)) {
+					break;
+				}
+				entries.add(entry);
+			}
+		}
+		finally {
+			xml.close();
+			reader.close();
+		}
+
+		return entries;
+	}
+
+	private SyndEntry readEntry(XMLStreamReader xml) throws XMLStreamException {
+		SyndEntry entry = new SyndEntryImpl();
+
+		String published = null, updated = null;
+		List<SyndCategory> categories = new ArrayList<SyndCategory>();
+		List<SyndEnclosure> enclosures = new ArrayList<SyndEnclosure>();
+		List<String> contents = new ArrayList<String>();
+		List<MediaContent> mediaContents = new ArrayList<MediaContent>();
+		Integer comments = null;
+		String atomContent = null;
+
+		int depth = 1;
+		while(depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				continue;
+			}
+			if(event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+
+			String ns = xml.getNamespaceURI();
+			String name = xml.getLocalName();
+			if(ContentModule.URI.equals(ns)) {
+				if(name.equals("encoded")) {
+					contents.add(readText(xml));
+					continue;
+				}
+			}
+			else if(Slash.URI.equals(ns)) {
+				if(name.equals("comments")) {
+					try {
+						comments = Integer.parseInt(readText(xml).trim());
+					}
+					catch(NumberFormatException e) {
+						// not a count
+					}
+					continue;
+				}
+			}
+			else if(MediaModule.URI.equals(ns)) {
+				if(name.equals("content")) {
+					MediaContent mediaContent = readMediaContent(xml);
+					if(mediaContent != null) {
+						mediaContents.add(mediaContent);
+					}
+				}
+				// media:group holds media:content elements, its children are visited
+				if(xml.isStartElement()) {
+					depth++;
+				}
+				continue;
+			}
+			else if(DC.equals(ns)) {
+				if(name.equals("date")) {
+					updated = readText(xml);
+				}
+				else if(name.equals("creator") && entry.getAuthor() == null) {
+					entry.setAuthor(readText(xml).trim());
+				}
+				else {
+					readText(xml);
+				}
+				continue;
+			}
+			else if(name.equals("title")) {
+				entry.setTitle(readText(xml).trim());
+				continue;
+			}
+			else if(name.equals("link")) {
+				String href = xml.getAttributeValue(null, "href");
+				if(href == null) {
+					entry.setLink(readText(xml).trim());
+					continue;
+				}
+
+				String rel = xml.getAttributeValue(null, "rel");
+				if("enclosure".equals(rel)) {
+					enclosures.add(enclosure(href, xml.getAttributeValue(null, "type")));
+				}
+				else if((rel == null || rel.equals("alternate")) && entry.getLink() == null) {
+					entry.setLink(href);
+				}
+				readText(xml);
+				continue;
+			}
+			else if(name.equals("description") || name.equals("summary")) {
+				SyndContent description = new SyndContentImpl();
+				description.setValue(readText(xml));
+				entry.setDescription(description);
+				continue;
+			}
+			else if(name.equals("content") && ATOM.equals(ns)) {
+				atomContent = readText(xml);
+				continue;
+			}
+			else if(name.equals("pubDate") || name.equals("published") || name.equals("issued")) {
+				published = readText(xml);
+				continue;
+			}
+			else if(name.equals("updated") || name.equals("modified")) {
+				updated = readText(xml);
+				continue;
+			}
+			else if(name.equals("author")) {
+				String author = ATOM.equals(ns) ? readAtomAuthor(xml) : readText(xml).trim();
+				if(entry.getAuthor() == null && author != null && !author.isEmpty()) {
+					entry.setAuthor(author);
+				}
+				continue;
+			}
+			else if(name.equals("category")) {
+				String term = xml.getAttributeValue(null, "term");
+				String text = readText(xml).trim();
+				SyndCategory category = new SyndCategoryImpl();
+				category.setName(term != null ? term : text);
+				categories.add(category);
+				continue;
+			}
+			else if(name.equals("enclosure")) {
+				enclosures.add(enclosure(xml.getAttributeValue(null, "url"), xml.getAttributeValue(null, "type")));
+				readText(xml);
+				continue;
+			}
+
+			// an element that is not mapped, its text is skipped
+			readText(xml);
+		}
+
+		String date = published != null ? published : updated;
+		if(date != null) {
+			Date publishedDate = DateParser.parseDate(date.trim(), Locale.US);
+			entry.setPublishedDate(publishedDate);
+		}
+
+		if(entry.getDescription() == null && atomContent != null) {
+			SyndContent description = new SyndContentImpl();
+			description.setValue(atomContent);
+			entry.setDescription(description);
+		}
+
+		entry.setCategories(categories);
+		entry.setEnclosures(enclosures);
+
+		List<Module> modules = new ArrayList<Module>();
+		if(!contents.isEmpty()) {
+			ContentModule contentModule = new ContentModuleImpl();
+			contentModule.setContents(contents);
+			modules.add(contentModule);
+		}
+		if(comments != null) {
+			Slash slashModule = new SlashImpl();
+			slashModule.setComments(comments);
+			modules.add(slashModule);
+		}
+		if(!mediaContents.isEmpty()) {
+			MediaEntryModuleImpl mediaModule = new MediaEntryModuleImpl();
+			mediaModule.setMediaContents(mediaContents.toArray(new MediaContent[mediaContents.size()]));
+			modules.add(mediaModule);
+		}
+		// the modules are added to the Dublin Core module of the entry, that holds its author and date
+		entry.getModules().addAll(modules);
+
+		return entry;
+	}
+
+	private MediaContent readMediaContent(XMLStreamReader xml) throws XMLStreamException {
+		String url = xml.getAttributeValue(null, "url");
+		String medium = xml.getAttributeValue(null, "medium");
+		String width = xml.getAttributeValue(null, "width");
+		String height = xml.getAttributeValue(null, "height");
+		readText(xml);
+
+		if(url == null) {
+			return null;
+		}
+
+		try {
+			MediaContent mediaContent = new MediaContent(new UrlReference(url));
+			mediaContent.setMedium(medium);
+			mediaContent.setMetadata(new Metadata());
+			if(width != null && height != null) {
+				mediaContent.setWidth(Integer.parseInt(width));
+				mediaContent.setHeight(Integer.parseInt(height));
+			}
+			return mediaContent;
+		}
+		catch(Exception e) {
+			// an invalid url or size
+			return null;
+		}
+	}
+
+	private String readAtomAuthor(XMLStreamReader xml) throws XMLStreamException {
+		String author = null;
+		int depth = 1;
+		while(depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				if(xml.getLocalName().equals("name")) {
+					author = readText(xml).trim();
+				}
+				else {
+					depth++;
+				}
+			}
+			else if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		return author;
+	}
+
+	/**
+	 * Reads the text of the current element and of its descendants, and moves to its end.
+	 */
+	private String readText(XMLStreamReader xml) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while(depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			}
+			else if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+			else if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+				text.append(xml.getText());
+			}
+		}
+		return text.toString();
+	}
+
+	private SyndEnclosure enclosure(String url, String type) {
+		SyndEnclosure enclosure = new SyndEnclosureImpl();
+		enclosure.setUrl(url);
+		enclosure.setType(type == null ? "" : type);
+		return enclosure;
+	}
+}
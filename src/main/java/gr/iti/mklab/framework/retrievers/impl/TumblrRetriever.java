@@ -1,14 +1,20 @@
 package gr.iti.mklab.framework.retrievers.impl;
 
 import java.net.MalformedURLException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -24,13 +30,19 @@ import gr.iti.mklab.framework.abstractions.socialmedia.items.TumblrItem;
 import gr.iti.mklab.framework.abstractions.socialmedia.users.TumblrStreamUser;
 import gr.iti.mklab.framework.common.domain.Item;
 import gr.iti.mklab.framework.common.domain.MediaItem;
+import gr.iti.mklab.framework.common.domain.Source;
 import gr.iti.mklab.framework.common.domain.StreamUser;
 import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.DaemonThreadFactory;
+import gr.iti.mklab.framework.retrievers.ErrorClassifier;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
+import gr.iti.mklab.framework.retrievers.StreamUserResolver;
+import gr.iti.mklab.framework.retrievers.WalkCursor;
 
 /**
  * Class responsible for retrieving Tumblr content based on keywords or tumblr users
@@ -42,28 +54,58 @@ public class TumblrRetriever extends Retriever {
 	
 	private Logger logger = LogManager.getLogger(TumblrRetriever.class);
 	
+	private static final int POSTS_PER_PAGE = 20;
+	
+	private static final ExecutorService backfillExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("tumblr-backfill"));
+	
+	// connection failures, rate limiting and server errors are retryable
+	private static final ErrorClassifier errorClassifier = new ErrorClassifier() {
+		@Override
+		public boolean isRetryable(Throwable error) {
+			if(error instanceof JumblrException) {
+				int responseCode = ((JumblrException) error).getResponseCode();
+				return responseCode == 429 || responseCode >= 500;
+			}
+			if(error instanceof OAuthConnectionException) {
+				return true;
+			}
+			return ErrorClassifier.DEFAULT.isRetryable(error);
+		}
+	};
+	
 	private JumblrClient client;
 	
+	private int backfillWindows = 1;
+	
+	private StreamUserResolver.Lookup blogLookup = new StreamUserResolver.Lookup() {
+		@Override
+		public StreamUser lookup(String blogName) throws Exception {
+			Blog blog = client.blogInfo(blogName);
+			return new TumblrStreamUser(blog);
+		}
+	};
+	
 	public TumblrRetriever(Credentials credentials) {
 		super(credentials);
 		client = new JumblrClient(credentials.getKey(), credentials.getSecret());
+		getResilience().setErrorClassifier(errorClassifier);
 	}
 
 	
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests) {
+		return retrieveAccountFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		Response response = new Response();
-		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S");
-		Date lastItemDate = new Date(feed.getSinceDate());
+		long sinceDate = getSinceDate(feed);
 		
 		int numberOfRequests = 0;
 		
-		boolean isFinished = false;
-
 		String uName = feed.getUsername();
 		
 		if(uName == null){
@@ -71,72 +113,153 @@ public class TumblrRetriever extends Retriever {
 			return response;
 		}
 		
-		Blog blog = client.blogInfo(uName);
-		TumblrStreamUser tumblrStreamUser = new TumblrStreamUser(blog);
-		List<Post> posts;
-		Map<String,String> options = new HashMap<String,String>();
+		TumblrStreamUser tumblrStreamUser = (TumblrStreamUser) getStreamUser(uName);
+		if(tumblrStreamUser == null) {
+			logger.error("#Tumblr : Blog " + uName + " not found");
+			return response;
+		}
 		
-		Integer offset = 0;
-		Integer limit = 20;
-		options.put("limit", limit.toString());
-	
-		while(true) {
-			
-			options.put("offset", offset.toString());
-			
-			posts = blog.posts(options);
-			if(posts == null || posts.isEmpty())
-				break;
-			
-			numberOfRequests++;
-			for(Post post : posts) {
-				if(post.getType().equals("photo") || post.getType().equals("video") || post.getType().equals("link")) {
-					String retrievedDate = post.getDateGMT().replace(" GMT", "") + ".0";
-					try {
-						Date publicationDate = (Date) formatter.parse(retrievedDate);	
-						if(publicationDate.after(lastItemDate) && post != null && post.getId() != null) {
-							Item tumblrItem = new TumblrItem(post,tumblrStreamUser);
+		// up to backfillWindows offset windows are requested at once, their pages are consumed in order.
+		// A walk that stopped early is continued from the offset of the first window it did not consume,
+		// the posts published since then shift the offsets and are retrieved again, not skipped
+		LinkedList<Future<List<Post>>> windows = new LinkedList<Future<List<Post>>>();
+		Set<Long> seen = new HashSet<Long>();
+		WalkCursor resumed = getWalkCursor(feed);
+		Long resumeOffset = resumed == null ? null : parsePosition(resumed);
+		int offset = resumeOffset == null ? 0 : resumeOffset.intValue();
+		int consumed = offset;
+		
+		try {
+			boolean isFinished = false;
+			while(!isFinished) {
+				while(windows.size() < backfillWindows && numberOfRequests < maxRequests) {
+					windows.add(fetchWindow(uName, offset));
+					offset += POSTS_PER_PAGE;
+					numberOfRequests++;
+				}
+				
+				if(windows.isEmpty()) {
+					break;
+				}
+				
+				List<Post> posts;
+				try {
+					posts = windows.removeFirst().get();
+				} catch (ExecutionException e) {
+					logger.error("#Tumblr : " + e.getCause());
+					break;
+				}
+				consumed += POSTS_PER_PAGE;
+				
+				if(posts == null || posts.isEmpty()) {
+					response.setComplete(true);
+					break;
+				}
+				
+				List<Item> items = new ArrayList<Item>();
+				for(Post post : posts) {
+					if(post == null || post.getId() == null || post.getTimestamp() == null) {
+						continue;
+					}
+					
+					if(post.getTimestamp() * 1000l <= sinceDate) {
+						isFinished = true;
+						continue;
+					}
+					
+					// posts published during the backfill shift the windows, skip the ones already seen
+					if(!seen.add(post.getId())) {
+						continue;
+					}
+					
+					if(post.getType().equals("photo") || post.getType().equals("video") || post.getType().equals("link")) {
+						try {
+							Item tumblrItem = new TumblrItem(post, tumblrStreamUser);
 							items.add(tumblrItem);
+						} catch (MalformedURLException e) {
+							logger.error("#Tumblr : " + e.getMessage());
 						}
-						else {
-							isFinished = true;
-						}
-					} catch (Exception e) {
-						response.setItems(items);
-						response.setRequests(numberOfRequests);
-						return response;
 					}
 				}
+				response.addPage(items);
+				
+				if(posts.size() < POSTS_PER_PAGE) {
+					isFinished = true;
+				}
+			}
+			response.setComplete(response.isComplete() || isFinished);
+			endWalk(feed, response, Integer.toString(consumed), resumed);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			// the windows past the since date are no longer needed
+			for(Future<List<Post>> window : windows) {
+				window.cancel(true);
 			}
-			
-			if(isFinished || numberOfRequests > maxRequests)
-				break;
-			
-			offset += limit;
 		}
 
-		response.setItems(items);
 		response.setRequests(numberOfRequests);
 		
 		return response;
 	}
 	
+	/**
+	 * Sets the number of offset windows of a blog that are fetched concurrently 
+	 * by the account retrieval. 1, the default, fetches them one after the other.
+	 * 
+	 * @param backfillWindows the number of concurrent windows
+	 */
+	public void setBackfillWindows(int backfillWindows) {
+		this.backfillWindows = Math.max(1, backfillWindows);
+	}
+	
+	/**
+	 * @return the offset or the timestamp a resumed walk continues from, or null if the cursor is not valid
+	 */
+	private Long parsePosition(WalkCursor resumed) {
+		try {
+			return Long.parseLong(resumed.getPosition());
+		}
+		catch(NumberFormatException e) {
+			logger.error("#Tumblr : Invalid cursor " + resumed);
+			return null;
+		}
+	}
+	
+	private Future<List<Post>> fetchWindow(final String blogName, final int offset) {
+		return backfillExecutor.submit(new Callable<List<Post>>() {
+			@Override
+			public List<Post> call() throws Exception {
+				final Map<String, Object> options = new HashMap<String, Object>();
+				options.put("limit", POSTS_PER_PAGE);
+				options.put("offset", offset);
+				
+				return getResilience().call("blog/posts", new Callable<List<Post>>() {
+					@Override
+					public List<Post> call() {
+						return client.blogPosts(blogName, options);
+					}
+				});
+			}
+		});
+	}
+	
 	@Override
 	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests) {
+		return retrieveKeywordsFeed(feed, maxRequests, null);
+	}
+	
+	@Override
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer maxRequests, PageConsumer consumer) {
 		
-		Response response = new Response();
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
-		SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S");
-		Date currentDate = new Date(System.currentTimeMillis());
-		Date indexDate = currentDate;
-		Date lastItemDate = new Date(feed.getSinceDate());
-		DateUtil dateUtil = new DateUtil();
+		long sinceDate = getSinceDate(feed);
 		
 		int numberOfRequests=0;
 		
-		boolean isFinished = false;
-		
 		List<String> keywords = feed.getKeywords();
 		
 		if(keywords == null || keywords.isEmpty()) {
@@ -153,88 +276,103 @@ public class TumblrRetriever extends Retriever {
 				}
 			}
 		}
-		
+		tags = tags.trim();
 		
 		if(tags.equals(""))
 			return response;
 		
-		while(indexDate.after(lastItemDate) || indexDate.equals(lastItemDate)){
+		final String query = tags;
+		
+		// tagged posts come newest first, each page continues before the oldest post of the previous one,
+		// and a walk that stopped early is continued before the oldest post it reached
+		WalkCursor resumed = getWalkCursor(feed);
+		Long before = resumed == null ? null : parsePosition(resumed);
+		while(numberOfRequests < maxRequests) {
+			
+			final Map<String,Object> options = new HashMap<String,Object>();
+			if(before != null) {
+				options.put("before", before);
+			}
 			
-			Map<String,String> options = new HashMap<String,String>();
-			Long checkTimestamp = indexDate.getTime();
-			Integer check = checkTimestamp.intValue();
-			options.put("featured_timestamp", check.toString());
 			List<Post> posts;
 			try{
-				posts = client.tagged(tags);
-			}catch(JumblrException e){
-				response.setItems(items);
-				response.setRequests(numberOfRequests);
-				return response;
-			}catch(OAuthConnectionException e1){
-				response.setItems(items);
-				response.setRequests(numberOfRequests);
-				return response;
+				numberOfRequests++;
+				posts = getResilience().call("tagged", new Callable<List<Post>>() {
+					@Override
+					public List<Post> call() {
+						return client.tagged(query, options);
+					}
+				});
+			}catch(Exception e){
+				// the retries are exhausted, keep the pages retrieved so far
+				logger.error("#Tumblr : " + e.getMessage());
+				break;
 			}
 			
-			if(posts == null || posts.isEmpty())
+			if(posts == null || posts.isEmpty()) {
+				response.setComplete(true);
 				break;
+			}
 			
-			numberOfRequests ++;
-			
-			for(Post post : posts){
+			boolean sinceDateReached = false;
+			Long oldest = null;
+			List<Post> newPosts = new ArrayList<Post>();
+			for(Post post : posts) {
+				if(post == null || post.getId() == null || post.getTimestamp() == null) {
+					continue;
+				}
 				
-				if(post.getType().equals("photo") || post.getType().equals("video") ||  post.getType().equals("link")) {
-					
-					String retrievedDate = post.getDateGMT().replace(" GMT", "");
-					retrievedDate+=".0";
-					Date publicationDate = null;
-					try {
-						publicationDate = (Date) formatter.parse(retrievedDate);
-						
-					} catch (ParseException e) {
-						response.setItems(items);
-						response.setRequests(numberOfRequests);
-						return response;
-					}
-					
-					if(publicationDate.after(lastItemDate) && post != null && post.getId() != null){
-						//Get the blog
-						String blogName = post.getBlogName();
-						Blog blog = client.blogInfo(blogName);
-						TumblrStreamUser tumblrStreamUser = new TumblrStreamUser(blog);
-						
-						TumblrItem tumblrItem = null;
-						try {
-							tumblrItem = new TumblrItem(post, tumblrStreamUser);
-						} catch (MalformedURLException e) {
-							response.setItems(items);
-							response.setRequests(numberOfRequests);
-							return response;
-						}
-						
-						if(tumblrItem != null){
-							items.add(tumblrItem);
-						}
-						
-					}
+				long timestamp = post.getTimestamp();
+				if(oldest == null || timestamp < oldest) {
+					oldest = timestamp;
+				}
 				
+				if(timestamp * 1000l <= sinceDate) {
+					sinceDateReached = true;
+					continue;
 				}
 				
-				if(numberOfRequests>=maxRequests){
-					isFinished = true;
-					break;
+				if(post.getType().equals("photo") || post.getType().equals("video") ||  post.getType().equals("link")) {
+					newPosts.add(post);
 				}
 			}
 			
-			if(isFinished)
-				break;
+			// the authors of a page repeat, each blog is looked up once
+			List<String> blogNames = new ArrayList<String>();
+			for(Post post : newPosts) {
+				blogNames.add(post.getBlogName());
+			}
+			Map<String, StreamUser> blogs = resolveStreamUsers(Source.Tumblr.toString(), blogNames, blogLookup);
 			
-			indexDate = dateUtil.addDays(indexDate, -1);
-				
+			List<Item> items = new ArrayList<Item>();
+			for(Post post : newPosts) {
+				TumblrStreamUser tumblrStreamUser = (TumblrStreamUser) blogs.get(post.getBlogName());
+				try {
+					TumblrItem tumblrItem;
+					if(tumblrStreamUser != null) {
+						tumblrItem = new TumblrItem(post, tumblrStreamUser);
+					}
+					else {
+						tumblrItem = new TumblrItem(post);
+					}
+					items.add(tumblrItem);
+				} catch (MalformedURLException e) {
+					logger.error("#Tumblr : " + e.getMessage());
+				}
+			}
+			response.addPage(items);
+			
+			if(sinceDateReached || oldest == null) {
+				response.setComplete(true);
+				break;
+			}
+			if(before != null && oldest >= before) {
+				break;
+			}
+			before = oldest;
 		}
+		endWalk(feed, response, before == null ? null : before.toString(), resumed);
 		
-		response.setItems(items);
 		response.setRequests(numberOfRequests);
 		
 		return response;
@@ -266,7 +404,18 @@ public class TumblrRetriever extends Retriever {
 
 	@Override
 	public StreamUser getStreamUser(String uid) {
-		return null;
+		StreamUser streamUser = getStreamUserCache().get(Source.Tumblr.toString(), uid);
+		if(streamUser == null) {
+			try {
+				streamUser = blogLookup.lookup(uid);
+				getStreamUserCache().put(Source.Tumblr.toString(), uid, streamUser);
+			}
+			catch(Exception e) {
+				logger.error(e);
+				return null;
+			}
+		}
+		return streamUser;
 	}
 
 
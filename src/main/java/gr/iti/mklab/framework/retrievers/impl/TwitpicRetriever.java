@@ -35,7 +35,7 @@ import gr.iti.mklab.framework.retrievers.Retriever;
  */
 public class TwitpicRetriever extends Retriever {
 
-	private static String requestPrefix = "http://api.twitpic.com/2/media/show.json?id=";
+	private String requestPrefix = "http://api.twitpic.com/2/media/show.json?id=";
 	
 	static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
 	static final JsonFactory JSON_FACTORY = new JacksonFactory();
@@ -55,6 +55,15 @@ public class TwitpicRetriever extends Retriever {
 				});
 	}
 	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param requestPrefix the url that short ids are appended to, e.g. http://localhost:8080/twitpic/2/media/show.json?id=
+	 */
+	public TwitpicRetriever(Credentials credentials, String requestPrefix) {
+		this(credentials);
+		this.requestPrefix = requestPrefix;
+	}
+	
 	public MediaItem getMediaItem(String shortId) {
 		
 		GenericUrl requestUrl = new GenericUrl(requestPrefix + shortId);
@@ -5,6 +5,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.Logger;
@@ -31,9 +33,16 @@ import gr.iti.mklab.framework.common.domain.Location;
 import gr.iti.mklab.framework.common.domain.MediaItem;
 import gr.iti.mklab.framework.common.domain.StreamUser;
 import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
+import gr.iti.mklab.framework.common.domain.feeds.Feed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.Checkpoint;
+import gr.iti.mklab.framework.retrievers.CheckpointStore;
+import gr.iti.mklab.framework.retrievers.ErrorClassifier;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.PageFetcher;
+import gr.iti.mklab.framework.retrievers.PagePrefetcher;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
 
@@ -47,10 +56,39 @@ public class TwitterRetriever extends Retriever {
 	
 	private Logger  logger = LogManager.getLogger(TwitterRetriever.class);
 	
+	private static final String SEARCH_ENDPOINT = "/search/tweets";
+	private static final String TIMELINE_ENDPOINT = "/statuses/user_timeline";
+	private static final String LIST_ENDPOINT = "/lists/statuses";
+	
+	// network failures and server errors are retryable, rate limiting is handled by the governor
+	private static final ErrorClassifier errorClassifier = new ErrorClassifier() {
+		@Override
+		public boolean isRetryable(Throwable error) {
+			if(error instanceof TwitterException) {
+				TwitterException e = (TwitterException) error;
+				return e.isCausedByNetworkIssue() || e.getStatusCode() >= 500;
+			}
+			return ErrorClassifier.DEFAULT.isRetryable(error);
+		}
+	};
+	
 	private Twitter twitter = null;
 	private TwitterFactory tf = null;
 	
+	// the id of the newest status seen per feed, used when there is no checkpoint store
+	private Map<String, Long> sinceIds = new ConcurrentHashMap<String, Long>();
+	// where the walks that stopped before the since id resume, per feed
+	private Map<String, String> cursors = new ConcurrentHashMap<String, String>();
+	
 	public TwitterRetriever(Credentials credentials) {
+		this(credentials, null);
+	}
+	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param apiUrl the base url of the REST API, e.g. http://localhost:8080/twitter/1.1/, or null for the Twitter API
+	 */
+	public TwitterRetriever(Credentials credentials, String apiUrl) {
 		super(credentials);
 		
 		ConfigurationBuilder cb = new ConfigurationBuilder();
@@ -59,49 +97,85 @@ public class TwitterRetriever extends Retriever {
 			.setOAuthConsumerSecret(credentials.getSecret())
 			.setOAuthAccessToken(credentials.getAccessToken())
 			.setOAuthAccessTokenSecret(credentials.getAccessTokenSecret());
+		if(apiUrl != null) {
+			cb.setRestBaseURL(apiUrl);
+		}
 		Configuration conf = cb.build();
 		
 		tf = new TwitterFactory(conf);
 		twitter = tf.getInstance();
 		
+		getResilience().setErrorClassifier(errorClassifier);
 	}
 	
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer requests) {
+		return retrieveAccountFeed(feed, requests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer requests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
 		int count = 200;
 		
 		Integer numberOfRequests = 0;
 		
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 
 		String screenName = feed.getUsername();
 		if(feed.getId() == null && screenName == null) {
 			logger.error("Uid and Username is null for feed [" + feed + "]");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		Long uid = Long.parseLong(feed.getId());
 		logger.info("Retrieve timeline for user @" + screenName + " (" + uid + ")");
 
-		int page = 1;
-		Paging paging = new Paging(page, count);
+		long sinceId = getSinceId(feed);
+		long newestId = sinceId;
+		
+		Paging paging = new Paging(1, count);
+		if(sinceId > 0) {
+			paging.setSinceId(sinceId);
+		}
+		
+		// continue the previous walk, if it stopped before the since id
+		long maxId = -1l;
+		long[] resumePoint = getResumePoint(feed);
+		if(resumePoint != null) {
+			maxId = resumePoint[0];
+			newestId = Math.max(newestId, resumePoint[1]);
+			paging.setMaxId(maxId);
+		}
+		
 		boolean sinceDateReached = false;
 		while(true) {
 			try {
 				ResponseList<Status> responseList = null;
 				if(uid != null) {
-					responseList = twitter.getUserTimeline(uid, paging);
+					responseList = userTimeline(uid, null, paging);
 				}
 				else {
-					responseList = twitter.getUserTimeline(screenName, paging);	
+					responseList = userTimeline(null, screenName, paging);	
 				}
 				
 				numberOfRequests++;
+				if(responseList == null) {
+					// no quota left, the walk resumes from maxId on the next retrieval
+					logger.info("Stop retriever. No quota left for @" + screenName + " (" + uid + ")");
+					break;
+				}
+				if(responseList.isEmpty()) {
+					logger.info("Stop retriever. No more statuses for @" + screenName + " (" + uid + ")");
+					response.setComplete(true);
+					break;
+				}
+				newestId = Math.max(newestId, maxId(responseList));
+				
+				List<Item> items = new ArrayList<Item>();
 				for(Status status : responseList) {
 					if(status != null) {
 						
@@ -121,74 +195,124 @@ public class TwitterRetriever extends Retriever {
 						items.add(twitterItem);
 					}
 				}
+				response.addPage(items);
+				
+				// walk back from the oldest status of the page
+				maxId = minId(responseList) - 1;
 				
-				if(numberOfRequests >= requests) {	
-					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for @" + screenName + " (" + uid + ")");
-					break;
-				}
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date " + sinceDate + " reached for user @" + screenName + " (" + uid + ")");
+					response.setComplete(true);
+					break;
+				}
+				if(numberOfRequests >= requests) {	
+					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for @" + screenName + " (" + uid + ")");
 					break;
 				}
-				paging.setPage(++page);
+				
+				paging.setMaxId(maxId);
 				
 			} catch (TwitterException e) {
 				logger.error(e);
 				break;
 			}
 		}
+		endWalk(feed, response, newestId, maxId, resumePoint != null);
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 	}
 	
 	@Override
 	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer requests) {
+		return retrieveKeywordsFeed(feed, requests, null);
+	}
+	
+	@Override
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer requests, PageConsumer consumer) {
 			
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
 		int count = 100;
 		int numberOfRequests = 0;
 
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		String label = feed.getLabel();
 		
 		List<String> keywords = feed.getKeywords();
 		if(keywords == null || keywords.isEmpty()) {
 			logger.error("#Twitter : No keywords feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		String textQuery = StringUtils.join(keywords, " OR ");
 		if(textQuery.equals("")) {
 			logger.error("Text Query is empty.");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		//Set the query
 		logger.info("Text Query: (" + textQuery + ")" + (label==null ? "" : ("with label=" + label)));
 		
-		Query query = new Query(textQuery);
+		final Query query = new Query(textQuery);
 	
 		//query.setUntil("2012-02-01");
 		query.count(count);
 		query.setResultType(Query.RECENT); //do not set last item date-causes problems!
 
+		final long sinceId = getSinceId(feed);
+		if(sinceId > 0) {
+			query.setSinceId(sinceId);
+		}
+		
+		// continue the previous walk, if it stopped before the since id
+		long maxId = -1l;
+		long[] resumePoint = getResumePoint(feed);
+		if(resumePoint != null) {
+			maxId = resumePoint[0];
+			query.setMaxId(maxId);
+		}
+		
+		PagePrefetcher<QueryResult> pages = prefetch(new PageFetcher<QueryResult>() {
+			@Override
+			public QueryResult fetch(QueryResult previous) throws TwitterException {
+				if(previous == null) {
+					return search(query);
+				}
+				
+				List<Status> statuses = previous.getTweets();
+				if(statuses == null || statuses.isEmpty()) {
+					return null;
+				}
+				
+				// walk back from the oldest status of the previous page, without overlap
+				Query nextQuery = new Query(query.getQuery());
+				nextQuery.count(query.getCount());
+				nextQuery.setResultType(Query.RECENT);
+				if(sinceId > 0) {
+					nextQuery.setSinceId(sinceId);
+				}
+				nextQuery.setMaxId(minId(statuses) - 1);
+				
+				return search(nextQuery);
+			}
+		}, requests);
+		
+		long newestId = resumePoint != null ? Math.max(sinceId, resumePoint[1]) : sinceId;
 		boolean sinceDateReached = false;
 		try {
-			QueryResult queryResult = twitter.search(query);
-			
-			while(queryResult != null) {
+			QueryResult queryResult;
+			while((queryResult = pages.next()) != null) {
 				numberOfRequests++;
 				
 				List<Status> statuses = queryResult.getTweets();
 				if(statuses == null || statuses.isEmpty()) {
 					logger.info("No more results for " + query);
+					response.setComplete(true);
 					break;
 				}
+				newestId = Math.max(newestId, maxId(statuses));
 				
+				List<Item> items = new ArrayList<Item>();
 				for(Status status : statuses) {
 					if(status != null) {
 						if(sinceDate != null) {
@@ -207,48 +331,52 @@ public class TwitterRetriever extends Retriever {
 						items.add(twitterItem);
 					}
 				}
-				
-				if(numberOfRequests >= requests) {
-					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + textQuery);
-					break;
-				}
+				response.addPage(items);
+				maxId = minId(statuses) - 1;
 				
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date reached " + sinceDate + " for " + textQuery);
+					response.setComplete(true);
 					break;
 				}
 				
-				query = queryResult.nextQuery();
-				if(query == null) {
+				if(numberOfRequests >= requests) {
+					logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + textQuery);
 					break;
 				}
-				queryResult = twitter.search(query);
 			}
 			
 		} catch (Exception e) {
 			logger.error(e);
-		}	
+		}
+		finally {
+			pages.close();
+		}
+		endWalk(feed, response, newestId, maxId, resumePoint != null);
 	
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, pages.getRequests());
 	}
 	
 	@Override
 	public Response retrieveLocationFeed(LocationFeed feed, Integer requests) {
+		return retrieveLocationFeed(feed, requests, null);
+	}
+	
+	@Override
+	public Response retrieveLocationFeed(LocationFeed feed, Integer requests, PageConsumer consumer) {
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		
 		int count = 100;
 		
 		Integer numberOfRequests = 0;
-		Date sinceDate = new Date(feed.getSinceDate());
+		Date sinceDate = new Date(getSinceDate(feed));
 		
 		String label = feed.getLabel();
 		
 		Location location = feed.getLocation();
 		if(location == null) {
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		//Set the query
@@ -268,9 +396,13 @@ public class TwitterRetriever extends Retriever {
 		while(true) {
 			try {
 				numberOfRequests++;
-				QueryResult queryResult = twitter.search(query);
+				QueryResult queryResult = search(query);
+				if(queryResult == null) {
+					break;
+				}
 				List<Status> statuses = queryResult.getTweets();
 				
+				List<Item> items = new ArrayList<Item>();
 				for(Status status : statuses) {
 					if(status != null) {
 						if(sinceDate != null) {
@@ -288,18 +420,21 @@ public class TwitterRetriever extends Retriever {
 						items.add(twitterItem);
 					}
 				}
+				response.addPage(items);
 				
 				if(!queryResult.hasNext()) {
 					logger.info("There is not next query for <" + location.getLatitude() + ", " + location.getLongitude() + ">");
+					response.setComplete(true);
 					break;
 				}
 				
-				if(numberOfRequests > requests) {
-						logger.info("Stop retriever. NumberOfRequests: " + numberOfRequests + " > " + requests + " for <" + location.getLatitude() + ", " + location.getLongitude() + ">");
-					break;
-				}
 				if(sinceDateReached) {
 					logger.info("Stop retriever. Since date reached: " + sinceDate + " for <" + location.getLatitude() + ", " + location.getLongitude() + ">");
+					response.setComplete(true);
+					break;
+				}
+				if(numberOfRequests > requests) {
+						logger.info("Stop retriever. NumberOfRequests: " + numberOfRequests + " > " + requests + " for <" + location.getLatitude() + ", " + location.getLongitude() + ">");
 					break;
 				}
 				
@@ -314,14 +449,18 @@ public class TwitterRetriever extends Retriever {
 			}
 		}
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 	}
 	
 	@Override
 	public Response retrieveGroupFeed(GroupFeed feed, Integer requests) {
+		return retrieveGroupFeed(feed, requests, null);
+	}
 	
-		List<Item> items = new ArrayList<Item>();
+	@Override
+	public Response retrieveGroupFeed(GroupFeed feed, Integer requests, PageConsumer consumer) {
+	
+		Response response = new Response(consumer);
 		
 		Integer numberOfRequests = 0;
 
@@ -332,12 +471,40 @@ public class TwitterRetriever extends Retriever {
 				
 		logger.info("Request for group(" + ownerScreenName + ", " + slug + ")");
 		
-		int page = 1;
-		Paging paging = new Paging(page, 200);
+		long sinceId = getSinceId(feed);
+		long newestId = sinceId;
+		
+		Paging paging = new Paging(1, 200);
+		if(sinceId > 0) {
+			paging.setSinceId(sinceId);
+		}
+		
+		// continue the previous walk, if it stopped before the since id
+		long maxId = -1l;
+		long[] resumePoint = getResumePoint(feed);
+		if(resumePoint != null) {
+			maxId = resumePoint[0];
+			newestId = Math.max(newestId, resumePoint[1]);
+			paging.setMaxId(maxId);
+		}
+		
 		while(true) {
 			try {
 				numberOfRequests++;
-				ResponseList<Status> responseList = twitter.getUserListStatuses(ownerScreenName, slug, paging);
+				ResponseList<Status> responseList = listStatuses(ownerScreenName, slug, paging);
+				if(responseList == null) {
+					// no quota left, the walk resumes from maxId on the next retrieval
+					logger.info("Stop Retriever. No quota left for group(" + ownerScreenName + ", " + slug + ")");
+					break;
+				}
+				if(responseList.isEmpty()) {
+					logger.info("Stop Retriever. No more statuses for group(" + ownerScreenName + ", " + slug + ")");
+					response.setComplete(true);
+					break;
+				}
+				newestId = Math.max(newestId, maxId(responseList));
+				
+				List<Item> items = new ArrayList<Item>();
 				for(Status status : responseList) {
 					if(status != null) {
 						Item twitterItem = new TwitterItem(status);
@@ -347,21 +514,154 @@ public class TwitterRetriever extends Retriever {
 						items.add(twitterItem);
 					}
 				}
+				response.addPage(items);
+				maxId = minId(responseList) - 1;
 					
 				if(numberOfRequests > requests) {
 					logger.info("Stop Retriever. NumberOfRequests: " + numberOfRequests + " > " + requests + " for group(" + ownerScreenName + ", " + slug + ")");
 					break;
 				}
 				
-				paging.setPage(++page);
+				paging.setMaxId(maxId);
 			} catch (TwitterException e) {
 				logger.error(e);	
 				break;
 			}
 		}
+		endWalk(feed, response, newestId, maxId, resumePoint != null);
+		
+		return getResponse(response, numberOfRequests);
+	}
+	
+	/**
+	 * Returns the id of the newest status retrieved for a feed, so that only newer statuses 
+	 * are requested. The checkpoint of the feed is used if there is a checkpoint store.
+	 * 
+	 * @param feed a feed
+	 * @return the since id, or -1 if the feed has not been retrieved before
+	 */
+	private long getSinceId(Feed feed) {
+		long sinceId = -1l;
+		if(feed.getId() == null) {
+			return sinceId;
+		}
+		
+		Checkpoint checkpoint = getCheckpoint(feed);
+		if(checkpoint != null && checkpoint.getNewestId() != null) {
+			try {
+				sinceId = Long.parseLong(checkpoint.getNewestId());
+			}
+			catch(NumberFormatException e) {
+				logger.error("Invalid status id in checkpoint " + checkpoint);
+			}
+		}
+		
+		Long lastId = sinceIds.get(feed.getId());
+		if(lastId != null && lastId > sinceId) {
+			sinceId = lastId;
+		}
+		
+		return sinceId;
+	}
+	
+	/**
+	 * Returns where the last walk of a feed stopped, if it did not reach the since id of the feed.
+	 * 
+	 * @param feed a feed
+	 * @return the max id to resume from and the newest id seen by the walk, or null if the last walk was complete
+	 */
+	private long[] getResumePoint(Feed feed) {
+		if(feed.getId() == null) {
+			return null;
+		}
+		
+		String cursor = cursors.get(feed.getId());
+		if(cursor == null) {
+			Checkpoint checkpoint = getCheckpoint(feed);
+			if(checkpoint != null) {
+				cursor = checkpoint.getCursor();
+			}
+		}
+		if(cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		
+		String[] ids = cursor.split(":");
+		try {
+			if(ids.length == 2) {
+				return new long[] {Long.parseLong(ids[0]), Long.parseLong(ids[1])};
+			}
+		}
+		catch(NumberFormatException e) {
+			// not a cursor of this retriever
+		}
+		logger.error("Invalid cursor " + cursor + " of feed " + feed.getId());
+		return null;
+	}
+	
+	/**
+	 * Ends the walk of a feed. A walk that reached the since id or the since date of the feed moves 
+	 * the since id to the newest status it has seen. A walk that stopped early, on an error, on the 
+	 * rate limit or on the maximum number of requests, keeps the since id, and the next walk resumes 
+	 * below the oldest status it has reached, so that the statuses in between are not skipped.
+	 * 
+	 * @param maxId the max id the walk would continue from, or -1 if it reached no statuses
+	 * @param resumed true if the walk continued an earlier one
+	 */
+	private void endWalk(Feed feed, Response response, long newestId, long maxId, boolean resumed) {
+		if(feed.getId() == null) {
+			return;
+		}
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		if(response.isComplete()) {
+			setSinceId(feed, newestId);
+			if(resumed) {
+				cursors.put(feed.getId(), "");
+				response.setCursor("");
+				
+				// the newest status of the walk was retrieved by the run it continued
+				CheckpointStore checkpointStore = getCheckpointStore();
+				if(checkpointStore != null) {
+					checkpointStore.update(new Checkpoint(feed.getId(), response.getLastTimestamp(), Long.toString(newestId), ""));
+				}
+			}
+		}
+		else if(maxId > 0) {
+			String cursor = maxId + ":" + newestId;
+			cursors.put(feed.getId(), cursor);
+			response.setCursor(cursor);
+		}
+	}
+	
+	private void setSinceId(Feed feed, long sinceId) {
+		if(feed.getId() == null || sinceId <= 0) {
+			return;
+		}
+		
+		Long lastId = sinceIds.get(feed.getId());
+		if(lastId == null || lastId < sinceId) {
+			sinceIds.put(feed.getId(), sinceId);
+		}
+	}
+	
+	private static long minId(List<Status> statuses) {
+		long minId = Long.MAX_VALUE;
+		for(Status status : statuses) {
+			if(status != null && status.getId() < minId) {
+				minId = status.getId();
+			}
+		}
+		return minId;
+	}
+	
+	private static long maxId(List<Status> statuses) {
+		long maxId = -1l;
+		for(Status status : statuses) {
+			if(status != null && status.getId() > maxId) {
+				maxId = status.getId();
+			}
+		}
+		return maxId;
 	}
 
 	@Override
@@ -407,18 +707,111 @@ public class TwitterRetriever extends Retriever {
 
 
 	
-	private void printAvailableReq() {
+	/**
+	 * Loads the rate limit status of all the endpoints into the rate limit governor.
+	 * Calls to the endpoints update their own status, so this is only needed once, 
+	 * e.g. to pick up the state of a window used by a previous process.
+	 */
+	public void refreshRateLimits() {
 		try {
 			Map<String, RateLimitStatus> rateLimits = twitter.getRateLimitStatus();
 			for(Entry<String, RateLimitStatus> e : rateLimits.entrySet()) {
-				System.out.println(e.getKey());
-				System.out.println(e.getValue());
-				System.out.println("===================================");
+				logger.debug(e.getKey() + ": " + e.getValue());
+				updateRateLimit(e.getKey(), e.getValue());
 			}
 		} catch (TwitterException e) {
-			e.printStackTrace();
+			logger.error(e);
+		}
+	}
+	
+	/**
+	 * Searches for statuses after waiting for the quota of the search endpoint.
+	 * 
+	 * @return the result, or null if there is no quota left for the rest of the window
+	 */
+	private QueryResult search(final Query query) throws TwitterException {
+		return call(SEARCH_ENDPOINT, new Callable<QueryResult>() {
+			@Override
+			public QueryResult call() throws TwitterException {
+				QueryResult result = twitter.search(query);
+				updateRateLimit(SEARCH_ENDPOINT, result.getRateLimitStatus());
+				return result;
+			}
+		});
+	}
+	
+	private ResponseList<Status> userTimeline(final Long uid, final String screenName, final Paging paging) throws TwitterException {
+		return call(TIMELINE_ENDPOINT, new Callable<ResponseList<Status>>() {
+			@Override
+			public ResponseList<Status> call() throws TwitterException {
+				ResponseList<Status> statuses = uid != null ? twitter.getUserTimeline(uid, paging) : twitter.getUserTimeline(screenName, paging);
+				updateRateLimit(TIMELINE_ENDPOINT, statuses.getRateLimitStatus());
+				return statuses;
+			}
+		});
+	}
+	
+	private ResponseList<Status> listStatuses(final String ownerScreenName, final String slug, final Paging paging) throws TwitterException {
+		return call(LIST_ENDPOINT, new Callable<ResponseList<Status>>() {
+			@Override
+			public ResponseList<Status> call() throws TwitterException {
+				ResponseList<Status> statuses = twitter.getUserListStatuses(ownerScreenName, slug, paging);
+				updateRateLimit(LIST_ENDPOINT, statuses.getRateLimitStatus());
+				return statuses;
+			}
+		});
+	}
+	
+	/**
+	 * Calls an endpoint after waiting for its quota. Transient failures are retried, 
+	 * and each retry waits for the quota again.
+	 * 
+	 * @return the result, or null if there is no quota left for the rest of the window
+	 */
+	private <T> T call(final String endpoint, final Callable<T> request) throws TwitterException {
+		try {
+			return getResilience().call(endpoint, new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					if(!getRateLimitGovernor().acquire(endpoint)) {
+						return null;
+					}
+					
+					try {
+						return request.call();
+					}
+					catch(TwitterException e) {
+						onError(endpoint, e);
+						throw e;
+					}
+				}
+			});
+		}
+		catch(TwitterException e) {
+			throw e;
+		}
+		catch(Exception e) {
+			throw new TwitterException(e);
+		}
+	}
+	
+	private void updateRateLimit(String endpoint, RateLimitStatus status) {
+		if(status != null) {
+			getRateLimitGovernor().update(endpoint, status.getLimit(), status.getRemaining(), status.getResetTimeInSeconds() * 1000l);
+		}
+	}
+	
+	private void onError(String endpoint, TwitterException e) {
+		if(e.exceededRateLimitation() || e.getStatusCode() == 429) {
+			RateLimitStatus status = e.getRateLimitStatus();
+			if(status != null) {
+				getRateLimitGovernor().exhaust(endpoint, status.getResetTimeInSeconds() * 1000l);
+			}
+			else {
+				// the default window of the Twitter API
+				getRateLimitGovernor().exhaust(endpoint, System.currentTimeMillis() + 15 * 60 * 1000l);
+			}
 		}
-		
 	}
 
 	@Override
@@ -452,7 +845,7 @@ public class TwitterRetriever extends Retriever {
 
 		Response response = retriever.retrieve(feed);
 		
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println(item.toString());
 		}
 		
@@ -467,14 +860,14 @@ public class TwitterRetriever extends Retriever {
 		KeywordsFeed feed = new KeywordsFeed("1", keywords, since.getTime(), "Twitter");
 		
 		Response response = retriever.retrieve(feed, 10);
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println(item.getTitle().replaceAll("\n", " "));
 			System.out.println(new Date(item.getPublicationTime()));
 			System.out.println("From: " + item.getStreamUser().getUsername());
 			System.out.println("==============================================");
 		}
 		
-		retriever.printAvailableReq();
+		retriever.refreshRateLimits();
 		*/
 	}
 }
@@ -1,23 +1,25 @@
 package gr.iti.mklab.framework.retrievers.impl;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import gr.iti.mklab.framework.Credentials;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.ArticleExtractor;
+import gr.iti.mklab.framework.abstractions.socialmedia.items.ArticleItem;
 import gr.iti.mklab.framework.common.domain.Item;
 import gr.iti.mklab.framework.common.domain.MediaItem;
 import gr.iti.mklab.framework.common.domain.StreamUser;
@@ -27,91 +29,284 @@ import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
 import gr.iti.mklab.framework.common.domain.feeds.URLFeed;
+import gr.iti.mklab.framework.retrievers.DaemonThreadFactory;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.QueueWorkers;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
 
 /**
- * Class for retrieving RSS feeds using Rome API.
- *  
+ * Class for retrieving the articles of web pages.
+ *
+ * The page of a feed is retrieved and its article, if any, is extracted. With more than one
+ * request, the pages linked from the page of the feed on the same host are crawled as well,
+ * up to crawlParallelism pages at once and no more than maxConnectionsPerHost from the same host.
+ *
  * @author Manos Schinas - manosetro@iti.gr
  */
 public class URLRetriever extends Retriever {
-	
+
+	private static final ExecutorService crawlingExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("url-crawler"));
+
+	// a crawler that waits longer than this for a busy host moves on to the next page
+	private static final long HOST_WAIT = 50l;
+
+	// links that are not web pages
+	private static final Pattern BINARY = Pattern.compile(
+			".*\\.(jpe?g|png|gif|webp|svg|ico|css|js|json|xml|rss|pdf|zip|gz|mp3|mp4|avi|mov|doc|docx|xls|xlsx|ppt)$",
+			Pattern.CASE_INSENSITIVE);
+
+	public final Logger logger = LogManager.getLogger(URLRetriever.class);
+
+	private WebPageFetcher fetcher = new WebPageFetcher();
+
+	private int crawlParallelism = 16;
+
 	public URLRetriever(Credentials credentials) {
 		super(credentials);
-		
+
+	}
+
+	/**
+	 * @param crawlParallelism the number of pages downloaded concurrently, 16 by default
+	 */
+	public void setCrawlParallelism(int crawlParallelism) {
+		this.crawlParallelism = Math.max(1, crawlParallelism);
+	}
+
+	/**
+	 * @param maxConnectionsPerHost the maximum number of concurrent downloads from a host, 2 by default
+	 */
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		fetcher.setMaxConnectionsPerHost(maxConnectionsPerHost);
+	}
+
+	/**
+	 * @param maxPageSize the maximum number of bytes read from a page, the rest of a larger page is dropped
+	 */
+	public void setMaxPageSize(int maxPageSize) {
+		fetcher.setMaxPageSize(maxPageSize);
 	}
 
-	public final Logger logger = LogManager.getLogger(URLRetriever.class);
-	
 	@Override
 	public Response retrieve(Feed feed) throws Exception {
 		return retrieve(feed, 1);
 	}
-		
+
 	@Override
 	public Response retrieve(Feed feed, Integer maxRequests) throws Exception {
+		return retrieve(feed, maxRequests, null);
+	}
 
-		Response response = new Response();
-		List<Item> items = new ArrayList<Item>();
-		
-		if(URLFeed.class.isInstance(feed.getClass())) {
+	/**
+	 * Retrieves the article of the page of the feed and, if maxRequests is larger than one,
+	 * the articles of up to maxRequests - 1 pages linked from it on the same host.
+	 */
+	@Override
+	public Response retrieve(Feed feed, Integer maxRequests, PageConsumer consumer) throws Exception {
+
+		Response response = new Response(consumer);
+
+		if(!URLFeed.class.isInstance(feed)) {
+			logger.error("Feed " + feed.getClass() + "is not instance of URLFeed");
 			throw new Exception("Feed " + feed.getClass() + "is not instance of URLFeed");
 		}
-		
+
 		URLFeed urlFeed = (URLFeed) feed;
-		logger.info("["+new Date()+"] Retrieving RSS Feed: " + urlFeed.getURL());
-		
-		if(urlFeed.getURL().equals("")) {
+		logger.info("["+new Date()+"] Retrieving URL: " + urlFeed.getURL());
+
+		if(urlFeed.getURL() == null || urlFeed.getURL().equals("")) {
 			logger.error("URL is null");
-			response.setItems(items);
 			return response;
 		}
-		
-		//Date since = new Date(urlFeed.getSinceDate());
+
+		List<Item> items = new ArrayList<Item>();
+		int requests = 0;
+		List<URL> links = Collections.emptyList();
+		boolean complete = false;
 		try {
 			URL url = new URL(urlFeed.getURL());
-			
-			String content = getContent(url);
-			System.out.println(content);
-			
-			Document doc = Jsoup.parse(content);
-			getArticles(doc);
-			
+
+			WebPageFetcher.Page page = fetcher.download(url, 0);
+			requests++;
+			response.addBytesReceived(page.getBytes());
+
+			if(page.getDocument() != null) {
+				ArticleExtractor.Article article = ArticleExtractor.extract(page.getDocument());
+				Item item = getItem(urlFeed, article);
+				if(item != null) {
+					items.add(item);
+				}
+
+				if(maxRequests != null && maxRequests > 1) {
+					links = getLinks(article, page.getUrl(), maxRequests - 1);
+				}
+			}
+			complete = true;
+
 		} catch (MalformedURLException e) {
 			logger.error(e);
 		} catch (Exception e) {
-			logger.error(e);
+			logger.error("Failed to retrieve URL " + urlFeed.getURL() + ": " + e.getMessage());
+		}
+
+		if(!links.isEmpty()) {
+			Response crawled = crawl(links, urlFeed);
+			items.addAll(crawled.getItemsView());
+			requests += crawled.getRequests();
+			response.addBytesReceived(crawled.getBytesReceived());
+		}
+
+		response.addPage(items);
+		response.setRequests(requests);
+		response.setComplete(complete);
+		checkpoint(feed, response);
+
+		return response;
+	}
+
+	/**
+	 * Retrieves the articles of a number of pages concurrently. Up to crawlParallelism pages are
+	 * downloaded at once, with no more than maxConnectionsPerHost connections to the same host.
+	 * A page whose host is busy is put back in the queue, so that a host with many pages does
+	 * not hold up the rest.
+	 *
+	 * @param urls the urls of the pages
+	 * @return the articles of the pages. Pages that failed or are not articles have no items.
+	 */
+	public Response retrieveArticles(List<URL> urls) {
+		return crawl(urls, null);
+	}
+
+	private Response crawl(List<URL> urls, final URLFeed feed) {
+		final List<Item> items = Collections.synchronizedList(new ArrayList<Item>());
+		final AtomicInteger requests = new AtomicInteger(0);
+		final AtomicLong bytes = new AtomicLong(0);
+
+		final Queue<URL> queue = new ConcurrentLinkedQueue<URL>(urls);
+
+		// the calling thread is one of the crawlers
+		try {
+			QueueWorkers.drain(queue, crawlParallelism, crawlingExecutor, new QueueWorkers.Task<URL>() {
+				@Override
+				public void process(URL url) throws InterruptedException {
+					try {
+						WebPageFetcher.Page page = fetcher.download(url, HOST_WAIT);
+						if(page == null) {
+							queue.add(url);
+							return;
+						}
+
+						requests.incrementAndGet();
+						bytes.addAndGet(page.getBytes());
+						if(page.getDocument() == null) {
+							return;
+						}
+
+						// the document is dropped as soon as the article is extracted
+						Item item = getItem(feed, ArticleExtractor.extract(page.getDocument()));
+						if(item != null) {
+							items.add(item);
+						}
+					}
+					catch(InterruptedException e) {
+						throw e;
+					}
+					catch(Exception e) {
+						requests.incrementAndGet();
+						logger.error("Failed to retrieve URL " + url + ": " + e.getMessage());
+					}
+				}
+			});
 		}
-	
-		response.setItems(items);
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		Response response = new Response();
+		synchronized(items) {
+			response.addPage(new ArrayList<Item>(items));
+		}
+		response.setRequests(requests.get());
+		response.addBytesReceived(bytes.get());
+
 		return response;
 	}
 
-	private String getContent(URL url) throws IOException {
-		StringBuffer content = new StringBuffer();
-		
-		URLConnection connection = url.openConnection();
-		BufferedReader input = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+	/**
+	 * @return the links of the page to other pages on the same host, up to max links
+	 */
+	private List<URL> getLinks(ArticleExtractor.Article article, URL pageUrl, int max) {
+		List<URL> links = new ArrayList<URL>();
+		for(String link : article.getLinks()) {
+			if(links.size() >= max) {
+				break;
+			}
 
-        String inputLine;
-		while ((inputLine = input.readLine()) != null) {
-			content.append(inputLine);
+			try {
+				URL url = new URL(link);
+				if(url.getHost().equalsIgnoreCase(pageUrl.getHost()) && !BINARY.matcher(url.getPath()).matches()
+						&& !url.getPath().equals(pageUrl.getPath())) {
+					links.add(url);
+				}
+			}
+			catch(MalformedURLException e) {
+				// not a valid link
+			}
 		}
-        input.close();
-        
-        return content.toString();
+		return links;
 	}
-	
-	private List<Item> getArticles(Document doc) {
-		List<Item> items = new ArrayList<Item>();
-		
-		Elements articleElements = doc.getElementsByTag("article");
-		for(Element articleNode : articleElements) {
-			articleNode.getElementById("");
+
+	/**
+	 * @return the item of the article, or null if the page is not an article or it is published before the since date of the feed.
+	 * Articles without a date have no publication time and are kept, as there is no way to tell whether they are new.
+	 */
+	private Item getItem(URLFeed feed, ArticleExtractor.Article article) {
+		if(!article.isArticle()) {
+			return null;
+		}
+
+		Item item = new ArticleItem(article);
+		if(feed == null) {
+			return item;
+		}
+
+		if(item.getPublicationTime() > 0 && item.getPublicationTime() < getSinceDate(feed)) {
+			return null;
+		}
+
+		item.setUserId(feed.getSource() + "#" + feed.getId());
+		String label = feed.getLabel();
+		if(label != null) {
+			item.addLabel(label);
+		}
+
+		return item;
+	}
+
+	public static void main(String...args) throws Exception {
+
+		// the urls of some article pages
+		List<URL> urls = new ArrayList<URL>();
+		for(String url : args) {
+			urls.add(new URL(url));
+		}
+
+		URLRetriever retriever = new URLRetriever(null);
+
+		long t = System.currentTimeMillis();
+		Response response = retriever.retrieveArticles(urls);
+		System.out.println(response.getNumberOfItems() + " articles from " + response.getRequests() + " pages, "
+				+ response.getBytesReceived() + " bytes in " + (System.currentTimeMillis() - t) + " ms");
+
+		for(Item item : response.getItemsView()) {
+			System.out.println("ID: " + item.getId());
+			System.out.println("Title: " + item.getTitle());
+			System.out.println(new Date(item.getPublicationTime()));
+			System.out.println("Description: " + item.getDescription());
+			System.out.println("MediaIds: " + item.getMediaIds());
+			System.out.println("====================================");
 		}
-		
-		return items;
 	}
 
 	@Override
@@ -164,5 +359,5 @@ public class URLRetriever extends Retriever {
 		// TODO Auto-generated method stub
 		return null;
 	}
-	
+
 }
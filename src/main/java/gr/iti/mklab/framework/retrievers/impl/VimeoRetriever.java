@@ -53,6 +53,15 @@ public class VimeoRetriever extends Retriever {
 				});
 	}
 	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param requestPrefix the url that video ids are appended to, e.g. http://localhost:8080/vimeo/api/v2/video/
+	 */
+	public VimeoRetriever(Credentials credentials, String requestPrefix) {
+		this(credentials);
+		this.requestPrefix = requestPrefix;
+	}
+	
 	public MediaItem getMediaItem(String id) {
 	
 		GenericUrl url = new GenericUrl(requestPrefix + id + ".json");
@@ -0,0 +1,341 @@
+package gr.iti.mklab.framework.retrievers.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * Fetches and parses HTML pages, with no more than maxConnectionsPerHost concurrent downloads
+ * from the same host.
+ *
+ * A page is read through a channel into a buffer of the fetching thread, that is reused across
+ * pages, and only the first maxPageSize bytes of a page are read. The charset of the page is
+ * taken from the Content-Type header, its byte order mark or its meta tags, in that order, and
+ * defaults to UTF-8. The connection is released before the page is parsed, and responses that
+ * are not HTML are not read at all.
+ *
+ * @author Manos Schinas - manosetro@iti.gr
+ */
+public class WebPageFetcher {
+
+	private static final String USER_AGENT = "Mozilla/5.0 (compatible; mklab-socialmedia-abstractions WebPageFetcher)";
+
+	private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+	private static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+	// the meta tags that declare the charset must be within the first 1024 bytes of a page
+	private static final int SNIFF_LENGTH = 1024;
+	private static final Pattern CHARSET = Pattern.compile("charset\\s*=\\s*[\"']?\\s*([-_.:a-zA-Z0-9]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern META = Pattern.compile("<meta[^>]+charset\\s*=[^>]*>", Pattern.CASE_INSENSITIVE);
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	// larger buffers are not kept by the threads after use
+	private static final int MAX_RETAINED_BUFFER_SIZE = 512 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+	private int maxConnectionsPerHost = 2;
+	private int connectTimeout = 10000;
+	private int readTimeout = 30000;
+	private int maxPageSize = 2 * 1024 * 1024;
+
+	private Map<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+	/**
+	 * @param maxConnectionsPerHost the maximum number of concurrent downloads from a host, 2 by default
+	 */
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		hosts.clear();
+	}
+
+	/**
+	 * @param connectTimeout the connect timeout in milliseconds
+	 * @param readTimeout the read timeout in milliseconds
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @param maxPageSize the maximum number of bytes read from a page, after decompression, 2MB by default.
+	 * The rest of a larger page is dropped.
+	 */
+	public void setMaxPageSize(int maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	/**
+	 * Downloads and parses a page, waiting up to maxWait milliseconds for a connection to its host.
+	 *
+	 * @param url the url of the page
+	 * @param maxWait the maximum wait in milliseconds, 0 to wait as long as needed
+	 * @return the page, or null if no connection to the host was available in time
+	 */
+	public Page download(URL url, long maxWait) throws Exception {
+		Semaphore connections = getConnections(url.getHost());
+		if(maxWait > 0) {
+			if(!connections.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				return null;
+			}
+		}
+		else {
+			connections.acquire();
+		}
+
+		Page page;
+		ByteBuffer buffer;
+		try {
+			page = new Page(url);
+			buffer = get(page);
+		}
+		finally {
+			connections.release();
+		}
+
+		if(buffer != null) {
+			try {
+				Charset charset = getCharset(page.contentType, buffer);
+				InputStream input = new ByteArrayInputStream(buffer.array(), 0, buffer.position());
+				page.document = Jsoup.parse(input, charset.name(), page.url.toString());
+			}
+			finally {
+				release(buffer);
+			}
+		}
+
+		return page;
+	}
+
+	private ByteBuffer get(Page page) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) page.url.openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setRequestProperty("User-Agent", USER_AGENT);
+		connection.setRequestProperty("Accept", "text/html,application/xhtml+xml;q=0.9,*/*;q=0.1");
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+
+		int responseCode = connection.getResponseCode();
+		if(responseCode != HttpURLConnection.HTTP_OK) {
+			connection.disconnect();
+			throw new IOException("HTTP " + responseCode + " for " + page.url);
+		}
+
+		// the url of the page after the redirects
+		page.url = connection.getURL();
+		page.contentType = connection.getContentType();
+		page.lastModified = connection.getLastModified();
+
+		if(!isHtml(page.contentType)) {
+			// there is no point in reading a binary file, the connection is dropped
+			connection.disconnect();
+			return null;
+		}
+
+		InputStream input = connection.getInputStream();
+		if("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			input = new GZIPInputStream(input);
+		}
+
+		ReadableByteChannel channel = Channels.newChannel(input);
+		ByteBuffer buffer = acquire();
+		try {
+			while(true) {
+				if(!buffer.hasRemaining()) {
+					if(buffer.position() >= maxPageSize) {
+						// the page is truncated, the rest of it is not read
+						page.truncated = true;
+						connection.disconnect();
+						break;
+					}
+					buffer = grow(buffer);
+				}
+
+				int n = channel.read(buffer);
+				if(n == -1) {
+					break;
+				}
+				page.bytes += n;
+			}
+		}
+		catch(IOException e) {
+			release(buffer);
+			throw e;
+		}
+		finally {
+			channel.close();
+		}
+
+		return buffer;
+	}
+
+	private boolean isHtml(String contentType) {
+		if(contentType == null) {
+			return true;
+		}
+
+		String type = contentType.toLowerCase();
+		return type.contains("html");
+	}
+
+	private ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.get();
+		if(buffer == null) {
+			buffer = ByteBuffer.allocate(Math.min(INITIAL_BUFFER_SIZE, maxPageSize));
+		}
+		else {
+			buffers.remove();
+		}
+		buffer.clear();
+		buffer.limit(Math.min(buffer.capacity(), maxPageSize));
+		return buffer;
+	}
+
+	private void release(ByteBuffer buffer) {
+		if(buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+			buffers.set(buffer);
+		}
+	}
+
+	private ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer larger = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() * 2, maxPageSize));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * @return the charset of the Content-Type header, of the byte order mark or of the meta tags of the page
+	 */
+	private static Charset getCharset(String contentType, ByteBuffer buffer) {
+		Charset charset = null;
+		if(contentType != null) {
+			charset = forName(contentType);
+		}
+
+		byte[] bytes = buffer.array();
+		int length = buffer.position();
+		if(charset == null && length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf) {
+			charset = DEFAULT_CHARSET;
+		}
+		if(charset == null && length >= 2 && (bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff) {
+			charset = Charset.forName("UTF-16BE");
+		}
+		if(charset == null && length >= 2 && (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xfe) {
+			charset = Charset.forName("UTF-16LE");
+		}
+
+		if(charset == null) {
+			String head = new String(bytes, 0, Math.min(length, SNIFF_LENGTH), ASCII);
+			Matcher meta = META.matcher(head);
+			while(charset == null && meta.find()) {
+				charset = forName(meta.group());
+			}
+		}
+
+		return charset != null ? charset : DEFAULT_CHARSET;
+	}
+
+	private static Charset forName(String declaration) {
+		Matcher matcher = CHARSET.matcher(declaration);
+		if(!matcher.find()) {
+			return null;
+		}
+
+		try {
+			String name = matcher.group(1);
+			if(name.equalsIgnoreCase("iso-8859-1") || name.equalsIgnoreCase("us-ascii")) {
+				// browsers read both as windows-1252
+				name = "windows-1252";
+			}
+			return Charset.isSupported(name) ? Charset.forName(name) : null;
+		}
+		catch(IllegalArgumentException e) {
+			// an illegal charset name
+			return null;
+		}
+	}
+
+	private Semaphore getConnections(String host) {
+		Semaphore connections = hosts.get(host);
+		if(connections == null) {
+			connections = new Semaphore(maxConnectionsPerHost);
+			Semaphore existing = hosts.putIfAbsent(host, connections);
+			if(existing != null) {
+				connections = existing;
+			}
+		}
+		return connections;
+	}
+
+	/**
+	 * A downloaded page. The document is null if the page is not HTML.
+	 */
+	public static class Page {
+
+		private URL url;
+		private String contentType;
+		private long lastModified;
+		private long bytes = 0;
+		private boolean truncated = false;
+
+		private Document document;
+
+		private Page(URL url) {
+			this.url = url;
+		}
+
+		/**
+		 * @return the url of the page, after the redirects
+		 */
+		public URL getUrl() {
+			return url;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @return the Last-Modified time of the page, or 0 if it is unknown
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the number of bytes read, after decompression
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return true if the page was larger than the maximum page size
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		public Document getDocument() {
+			return document;
+		}
+	}
+}
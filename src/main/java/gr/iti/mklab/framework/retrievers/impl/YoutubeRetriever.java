@@ -2,29 +2,43 @@ package gr.iti.mklab.framework.retrievers.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.YouTubeRequest;
 import com.google.api.services.youtube.model.Channel;
 import com.google.api.services.youtube.model.ChannelListResponse;
 import com.google.api.services.youtube.model.SearchListResponse;
 import com.google.api.services.youtube.model.SearchResult;
 import com.google.api.services.youtube.model.Video;
 import com.google.api.services.youtube.model.VideoListResponse;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.DateTime;
@@ -35,13 +49,21 @@ import gr.iti.mklab.framework.abstractions.socialmedia.items.YoutubeItem;
 import gr.iti.mklab.framework.abstractions.socialmedia.users.YoutubeStreamUser;
 import gr.iti.mklab.framework.common.domain.Item;
 import gr.iti.mklab.framework.common.domain.MediaItem;
+import gr.iti.mklab.framework.common.domain.Source;
 import gr.iti.mklab.framework.common.domain.StreamUser;
 import gr.iti.mklab.framework.common.domain.feeds.AccountFeed;
 import gr.iti.mklab.framework.common.domain.feeds.GroupFeed;
 import gr.iti.mklab.framework.common.domain.feeds.KeywordsFeed;
 import gr.iti.mklab.framework.common.domain.feeds.LocationFeed;
+import gr.iti.mklab.framework.retrievers.DaemonThreadFactory;
+import gr.iti.mklab.framework.retrievers.ItemComments;
+import gr.iti.mklab.framework.retrievers.PageConsumer;
+import gr.iti.mklab.framework.retrievers.PageFetcher;
+import gr.iti.mklab.framework.retrievers.PagePrefetcher;
+import gr.iti.mklab.framework.retrievers.Projection;
 import gr.iti.mklab.framework.retrievers.Response;
 import gr.iti.mklab.framework.retrievers.Retriever;
+import gr.iti.mklab.framework.retrievers.WalkCursor;
 
 public class YoutubeRetriever extends Retriever {
 
@@ -49,37 +71,137 @@ public class YoutubeRetriever extends Retriever {
 
 	private String apiKey;
 	
-	private static YouTube youtubeService;
+	private YouTube youtubeService;
 	
 	public static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
 	public static final JsonFactory JSON_FACTORY = new JacksonFactory();
 	
 	private static final long NUMBER_OF_RESULTS_RETURNED = 50;
 	
+	// YouTube Data API quota units, shared by all the requests of a project
+	private static final String QUOTA_UNITS = "units";
+	private static final int DEFAULT_DAILY_QUOTA = 10000;
+	private static final int SEARCH_COST = 100;
+	private static final int LIST_COST = 1;
+	
+	private static final int MAX_BATCH_SIZE = 50;
+	
+	// the minimal projection also trims the snippet to the id, time, text and channel of the videos
+	private static final String MINIMAL_FIELDS = "items(id,snippet(publishedAt,channelId,title,description))";
+	// the search results of keyword feeds hold the channels of the videos, so that both are requested together
+	private static final String SEARCH_CHANNEL_FIELDS = "nextPageToken,items(id/videoId,snippet/channelId)";
+	private static final int COMMENTS_PER_PAGE = 100;
+	
+	// runs the videos and channels requests of the search pages
+	private static final ExecutorService hydrationExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("youtube-hydration"));
+	
 	public YoutubeRetriever(Credentials credentials) {
+		this(credentials, null);
+	}
+	
+	/**
+	 * @param credentials the credentials of the retriever
+	 * @param apiUrl the root url of the API, e.g. http://localhost:8080/youtube/, or null for the YouTube Data API
+	 */
+	public YoutubeRetriever(Credentials credentials, String apiUrl) {
 		super(credentials);
 		
 		apiKey = credentials.getKey();
 		
 		// This object is used to make YouTube Data API requests. The last argument is required, but since we don't need anything
         // initialized when the HttpRequest is initialized, we override the interface and provide a no-op function.
-		youtubeService = new YouTube.Builder(
+		YouTube.Builder builder = new YouTube.Builder(
 				HTTP_TRANSPORT, 
 				JSON_FACTORY, 
 				new HttpRequestInitializer() {
 					public void initialize(HttpRequest request) throws IOException {
 				}
-        }).setApplicationName("youtube-search-module").build();
+        }).setApplicationName("youtube-search-module");
+		if(apiUrl != null) {
+			builder.setRootUrl(apiUrl);
+		}
+		youtubeService = builder.build();
 		
+		setDailyQuota(DEFAULT_DAILY_QUOTA);
+		getResilience().setErrorClassifier(GoogleErrorClassifier.INSTANCE);
+	}
+	
+	/**
+	 * Sets the number of quota units per day available to the API key of the retriever.
+	 * 
+	 * @param units the daily quota
+	 */
+	public void setDailyQuota(int units) {
+		getRateLimitGovernor().setBudget(QUOTA_UNITS, units, 24 * 3600 * 1000l);
+	}
+	
+	/**
+	 * Executes a request after waiting for the quota units it costs. Transient failures 
+	 * are retried, and each retry costs the quota units again.
+	 * 
+	 * @return the response of the request, or null if there is no quota left
+	 */
+	private <T> T execute(final YouTubeRequest<T> request, final int cost) throws IOException {
+		try {
+			return getResilience().call(request.getUriTemplate(), new Callable<T>() {
+				@Override
+				public T call() throws IOException {
+					if(!getRateLimitGovernor().acquire(QUOTA_UNITS, cost)) {
+						return null;
+					}
+					
+					try {
+						return request.execute();
+					}
+					catch(GoogleJsonResponseException e) {
+						onQuotaError(e);
+						throw e;
+					}
+				}
+			});
+		}
+		catch(IOException e) {
+			throw e;
+		}
+		catch(Exception e) {
+			throw new IOException(e);
+		}
+	}
+	
+	private void onQuotaError(GoogleJsonResponseException e) {
+		GoogleJsonError details = e.getDetails();
+		if(details == null || details.getErrors() == null || details.getErrors().isEmpty()) {
+			return;
+		}
+		
+		String reason = details.getErrors().get(0).getReason();
+		if("quotaExceeded".equals(reason) || "dailyLimitExceeded".equals(reason)) {
+			// the daily quota is reset at midnight Pacific Time
+			Calendar midnight = Calendar.getInstance(TimeZone.getTimeZone("America/Los_Angeles"));
+			midnight.add(Calendar.DAY_OF_MONTH, 1);
+			midnight.set(Calendar.HOUR_OF_DAY, 0);
+			midnight.set(Calendar.MINUTE, 0);
+			midnight.set(Calendar.SECOND, 0);
+			midnight.set(Calendar.MILLISECOND, 0);
+			getRateLimitGovernor().exhaust(QUOTA_UNITS, midnight.getTimeInMillis());
+		}
+		else if("rateLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason)) {
+			getRateLimitGovernor().exhaust(QUOTA_UNITS, System.currentTimeMillis() + 60000l);
+		}
 	}
 
 	@Override
 	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer requests) throws Exception {
+		return retrieveKeywordsFeed(feed, requests, null);
+	}
+	
+	@Override
+	public Response retrieveKeywordsFeed(KeywordsFeed feed, Integer requests, PageConsumer consumer) throws Exception {
 				
 		String label = feed.getLabel();
-		long sinceDate = feed.getSinceDate();
+		long sinceDate = getSinceDate(feed);
 		
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		int numberOfRequests = 0;
 		
 		// Define the API request for retrieving search results.
@@ -91,15 +213,13 @@ public class YoutubeRetriever extends Retriever {
         List<String> keywords = feed.getKeywords();
 		if(keywords == null || keywords.isEmpty()) {
 			logger.error("#Youtube : No keywords feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		String textQuery = StringUtils.join(keywords, " OR ");
 		if(textQuery == null || textQuery.equals("")) {
 			logger.error("Text Query is empty.");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		
 		logger.info("Text Query: (" + textQuery + ")" + (label==null ? "" : ("with label=" + label)));
@@ -107,65 +227,64 @@ public class YoutubeRetriever extends Retriever {
         search.setQ(textQuery);
         search.setType("video");
         search.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
-        search.setPublishedBefore(new DateTime(System.currentTimeMillis()));
-		search.setPublishedAfter(new DateTime(feed.getSinceDate()));
+		search.setPublishedAfter(new DateTime(sinceDate));
+		
+		WalkCursor resumed = getWalkCursor(feed);
+		long publishedBefore = resume(search, resumed);
+		String nextPageToken = search.getPageToken();
 
-        Set<String> uids = new HashSet<String>();
+		// every page costs a search and a videos request
+		AtomicInteger hydrationRequests = new AtomicInteger(0);
+		List<Future<Hydration>> hydrations = new ArrayList<Future<Hydration>>();
+		// with the minimal projection the items keep the channel id of the video as their author
+		Projection projection = getProjection(feed);
+		boolean withChannels = projection != Projection.MINIMAL;
+		if(withChannels) {
+			search.setPart("id,snippet");
+			search.setFields(SEARCH_CHANNEL_FIELDS);
+		}
+		PagePrefetcher<SearchPage> pages = searchPages(search, Math.max(1, (requests + 1) / 2), projection, 
+				withChannels, hydrationRequests, hydrations);
+		
         boolean sinceDateReached = false;
-        String nextPageToken = null;
+        // the search pages also stop when the quota runs out, the last one has no next page token
+        boolean lastPage = false;
         while(true) {
         	try {
-        		
-        		if(nextPageToken != null) {
-        			search.setPageToken(nextPageToken);
+        		SearchPage searchPage = pages.next();
+        		if(searchPage == null) {
+        			logger.info("Stop retriever. There is no more pages to fetch for query (" + textQuery + ")");
+        			response.setComplete(lastPage);
+        			break;
         		}
-        		
-        		SearchListResponse searchResponse = search.execute();
         		numberOfRequests++;
+        		lastPage = searchPage.search.getNextPageToken() == null;
         	
-        		List<SearchResult> searchResultList = searchResponse.getItems();
-        		if (searchResultList != null) {
- 
-        			List<String> videoIds = new ArrayList<String>();
-        			for (SearchResult searchResult : searchResultList) {
-        				videoIds.add(searchResult.getId().getVideoId());
+        		Hydration hydration = searchPage.await();
+        		if(hydration == null) {
+        			break;
+        		}
+        		numberOfRequests++;
+        		
+        		List<Item> items = new ArrayList<Item>();
+        		for(Video video : hydration.videos) {
+        			Item item = new YoutubeItem(video);
+        			if(item.getPublicationTime() < sinceDate) {
+        				sinceDateReached = true;
+        				continue;
         			}
-        			Joiner stringJoiner = Joiner.on(',');
-        			String videoId = stringJoiner.join(videoIds);
         			
-        			YouTube.Videos.List listVideosRequest = youtubeService.videos().list("snippet,statistics,recordingDetails,player");
-        			listVideosRequest.setId(videoId);
-        			listVideosRequest.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
-        			listVideosRequest.setKey(apiKey);
+        			if(label != null) {
+        				item.addLabel(label);
+        			}
         			
-                	VideoListResponse listResponse = listVideosRequest.execute();
-                	numberOfRequests++;
-                
-                	List<Video> videoList = listResponse.getItems();
-                	if (videoList != null) {
-                		for(Video video : videoList) {
-                			uids.add(video.getSnippet().getChannelId());
-                			Item item = new YoutubeItem(video);
-                			if(item.getPublicationTime() < sinceDate) {
-                				sinceDateReached = true;
-								continue;
-                			}
-                			
-							if(label != null) {
-								item.addLabel(label);
-							}
-						
-                			items.add(item);
-                		}
-                	}
-        		}
-        	
-        		nextPageToken = searchResponse.getNextPageToken();
-        		if(nextPageToken == null) {
-        			logger.info("Stop retriever. There is no more pages to fetch for query (" + textQuery + ")");
-        			break;
+        			// the channels of the page are resolved along with its videos
+        			item.setStreamUser(hydration.users.get(item.getUserId()));
+        			items.add(item);
         		}
-        				
+        		response.addPage(items);
+        		nextPageToken = searchPage.search.getNextPageToken();
+        		
 			} catch (GoogleJsonResponseException e) {
 				logger.error("There was a service error: " + e.getDetails().getCode() + " : " + e.getDetails().getMessage(), e);
 				break;
@@ -178,36 +297,40 @@ public class YoutubeRetriever extends Retriever {
 				break;
 			}
         
-        	if(numberOfRequests >= requests) {
-        		logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + textQuery);
+			if(sinceDateReached) {
+				logger.info("Stop retriever. Since date " + new Date(sinceDate) + " reached for query " + textQuery);
+				response.setComplete(true);
 				break;
 			}
         	
-			if(sinceDateReached) {
-				logger.info("Stop retriever. Since date " + new Date(sinceDate) + " reached for query " + textQuery);
+        	if(numberOfRequests >= requests) {
+        		logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + textQuery);
 				break;
 			}
 			
         }
+        pages.close();
+        cancel(hydrations);
+        endWalk(feed, response, nextPageToken == null ? null : publishedBefore + "," + nextPageToken, resumed);
         
-        Map<String, StreamUser> users = getStreamUsers(uids);
-        for(Item item : items) {
-        	String uid = item.getUserId();
-        	StreamUser streamUser = users.get(uid);
-        	item.setStreamUser(streamUser);
-        }
+        // all the issued requests, including the prefetched pages and their hydrations
+        numberOfRequests = pages.getRequests() + hydrationRequests.get();
         
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		return getResponse(response, numberOfRequests);
 	}
 
 	@Override
 	public Response retrieveAccountFeed(AccountFeed feed, Integer requests) throws Exception {
+		return retrieveAccountFeed(feed, requests, null);
+	}
+	
+	@Override
+	public Response retrieveAccountFeed(AccountFeed feed, Integer requests, PageConsumer consumer) throws Exception {
 
-		List<Item> items = new ArrayList<Item>();
+		Response response = new Response(consumer);
 		int numberOfRequests = 0;
 		
-		long sinceDate = feed.getSinceDate();
+		long sinceDate = getSinceDate(feed);
 		String label = feed.getLabel();
 		
 		String uid = feed.getId();
@@ -225,8 +348,7 @@ public class YoutubeRetriever extends Retriever {
 		numberOfRequests++;
 		if(streamUser == null) {
 			logger.error("#YouTube : No account feed");
-			Response response = getResponse(items, numberOfRequests);
-			return response;
+			return getResponse(response, numberOfRequests);
 		}
 		logger.info("#YouTube: Retrieving User Feed " + streamUser.getUserid());
 		
@@ -236,65 +358,62 @@ public class YoutubeRetriever extends Retriever {
         search.setChannelId(streamUser.getUserid());
         //search.setOrder("date");
         search.setType("video");
-        search.setPublishedBefore(new DateTime(System.currentTimeMillis()));
-		search.setPublishedAfter(new DateTime(feed.getSinceDate()));
+		search.setPublishedAfter(new DateTime(sinceDate));
         search.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
         
+		WalkCursor resumed = getWalkCursor(feed);
+		long publishedBefore = resume(search, resumed);
+		String nextPageToken = search.getPageToken();
+        
+		// the channel lookup is already counted and every page costs a search and a videos request
+		AtomicInteger hydrationRequests = new AtomicInteger(0);
+		List<Future<Hydration>> hydrations = new ArrayList<Future<Hydration>>();
+		PagePrefetcher<SearchPage> pages = searchPages(search, Math.max(1, requests / 2), getProjection(feed), false, 
+				hydrationRequests, hydrations);
+		
 		boolean sinceDateReached = false;
-		String nextPageToken = null;
+		// the search pages also stop when the quota runs out, the last one has no next page token
+		boolean lastPage = false;
 		while(true) {
 			try {
-				if(nextPageToken != null) {
-					search.setPageToken(nextPageToken);
+				SearchPage searchPage = pages.next();
+				if(searchPage == null) {
+					logger.info("Stop retriever. There is no more pages to fetch for " + uName);
+					response.setComplete(lastPage);
+					break;
+				}
+				numberOfRequests++;
+				lastPage = searchPage.search.getNextPageToken() == null;
+				
+				List<SearchResult> searchResultList = searchPage.search.getItems();
+				if (searchResultList == null || searchResultList.isEmpty()) {
+					logger.info("Stop retriever. No more results in response.");
+					response.setComplete(true);
+					break;
 				}
 				
-				SearchListResponse searchResponse = search.execute();
+				Hydration hydration = searchPage.await();
+				if(hydration == null) {
+					break;
+				}
 				numberOfRequests++;
-								
-				List<SearchResult> searchResultList = searchResponse.getItems();
-        		if (searchResultList != null && !searchResultList.isEmpty()) {
-        			Set<String> videoIds = new HashSet<String>();
-        			for (SearchResult searchResult : searchResultList) {
-        				if(searchResult.getId().getVideoId() != null) {
-        					videoIds.add(searchResult.getId().getVideoId());
-        				}
-        			}
-        			Joiner stringJoiner = Joiner.on(',');
-        			String videoId = stringJoiner.join(videoIds);
-        			
-        			YouTube.Videos.List listVideosRequest = youtubeService.videos().list("snippet,statistics,recordingDetails,player");
-        			listVideosRequest.setId(videoId);
-        			listVideosRequest.setKey(apiKey);
-        			listVideosRequest.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
-                	VideoListResponse listResponse = listVideosRequest.execute();
-                	numberOfRequests++;
-                	
-                	List<Video> videoList = listResponse.getItems();
-                	if (videoList != null) {
-                		for(Video video : videoList) {
-                			Item item = new YoutubeItem(video, streamUser);
-                			if(item.getPublicationTime() < sinceDate) {
-                				sinceDateReached = true;
-								continue;
-                			}
-                			
-							if(label != null) {
-								item.addLabel(label);
-							}
-                			items.add(item);
-                		}
-                	}
-                	
-                	nextPageToken = searchResponse.getNextPageToken();
-    				if(nextPageToken == null) {
-    					logger.info("Stop retriever. There is no more pages to fetch for " + uName);
-            			break;
-    				}
-        		}
-        		else {
-        			logger.info("Stop retriever. No more results in response.");
-        			break;
-        		}
+				
+				List<Item> items = new ArrayList<Item>();
+				for(Video video : hydration.videos) {
+					Item item = new YoutubeItem(video, streamUser);
+					if(item.getPublicationTime() < sinceDate) {
+						sinceDateReached = true;
+						continue;
+					}
+					
+					if(label != null) {
+						item.addLabel(label);
+					}
+					items.add(item);
+				}
+				response.addPage(items);
+				nextPageToken = searchPage.search.getNextPageToken();
+				
 			} catch (GoogleJsonResponseException e) {
 				logger.error("There was a service error: " + e.getDetails().getCode() + " : " + e.getDetails().getMessage(), e);
 				break;
@@ -307,19 +426,212 @@ public class YoutubeRetriever extends Retriever {
 				break;
 			}
 		
-			if(numberOfRequests >= requests) {
-        		logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + uName);
+			if(sinceDateReached) {
+				logger.info("Stop retriever. Since date " + new Date(sinceDate) + " reached for " + uName);
+				response.setComplete(true);
 				break;
 			}
         	
-			if(sinceDateReached) {
-				logger.info("Stop retriever. Since date " + new Date(sinceDate) + " reached for " + uName);
+			if(numberOfRequests >= requests) {
+        		logger.info("Stop retriever. Number of requests (" + numberOfRequests + ") has reached for " + uName);
 				break;
 			}
 		}
+		pages.close();
+		cancel(hydrations);
+		endWalk(feed, response, nextPageToken == null ? null : publishedBefore + "," + nextPageToken, resumed);
 		
-		Response response = getResponse(items, numberOfRequests);
-		return response;
+		// the channel lookup, the search pages including the prefetched ones, and the videos requests
+		numberOfRequests = 1 + pages.getRequests() + hydrationRequests.get();
+		
+		return getResponse(response, numberOfRequests);
+	}
+	
+	/**
+	 * Sets the publishedBefore of a search. A walk that stopped early is continued from the page token
+	 * of its next page, which is only valid for the same request, so the search keeps the publishedBefore
+	 * of the walk it continues.
+	 * 
+	 * @param search the search request
+	 * @param resumed the cursor of the walk to continue, or null to start from the newest videos
+	 * @return the publishedBefore of the search
+	 */
+	private long resume(YouTube.Search.List search, WalkCursor resumed) {
+		long publishedBefore = System.currentTimeMillis();
+		if(resumed != null) {
+			String[] position = resumed.getPosition().split(",", 2);
+			try {
+				if(position.length == 2) {
+					publishedBefore = Long.parseLong(position[0]);
+					search.setPageToken(position[1]);
+				}
+				else {
+					logger.error("#YouTube : Invalid cursor " + resumed);
+				}
+			}
+			catch(NumberFormatException e) {
+				logger.error("#YouTube : Invalid cursor " + resumed);
+			}
+		}
+		
+		search.setPublishedBefore(new DateTime(publishedBefore));
+		return publishedBefore;
+	}
+	
+	/**
+	 * Walks the result pages of a search request by following the next page tokens. 
+	 * 
+	 * The videos of every page, and optionally their channels, are requested in the background 
+	 * as soon as the page arrives, while the next search page is being requested. At least one 
+	 * page is requested ahead, so that the hydration of a page overlaps with the next search.
+	 * 
+	 * @param search the search request
+	 * @param maxPages the maximum number of search pages
+	 * @param projection the projection of the videos
+	 * @param withChannels whether to look up the channels of the videos of every page, taken from the snippets of the search results
+	 * @param requests the counter of the requests issued by the hydrations
+	 * @param hydrations the hydrations that have been started, to be cancelled when the retrieval ends
+	 */
+	private PagePrefetcher<SearchPage> searchPages(final YouTube.Search.List search, int maxPages, final Projection projection, 
+			final boolean withChannels, final AtomicInteger requests, final List<Future<Hydration>> hydrations) {
+		
+		PageFetcher<SearchPage> fetcher = new PageFetcher<SearchPage>() {
+			@Override
+			public SearchPage fetch(SearchPage previous) throws IOException {
+				if(previous != null) {
+					String nextPageToken = previous.search.getNextPageToken();
+					if(nextPageToken == null) {
+						return null;
+					}
+					search.setPageToken(nextPageToken);
+				}
+				
+				SearchListResponse searchResponse = execute(search, SEARCH_COST);
+				if(searchResponse == null) {
+					return null;
+				}
+				
+				final List<String> videoIds = new ArrayList<String>();
+				final Set<String> channelIds = withChannels ? new HashSet<String>() : null;
+				if(searchResponse.getItems() != null) {
+					for (SearchResult searchResult : searchResponse.getItems()) {
+						String videoId = searchResult.getId().getVideoId();
+						if(videoId != null && !videoIds.contains(videoId)) {
+							videoIds.add(videoId);
+						}
+						if(channelIds != null && searchResult.getSnippet() != null && searchResult.getSnippet().getChannelId() != null) {
+							channelIds.add(searchResult.getSnippet().getChannelId());
+						}
+					}
+				}
+				
+				Future<Hydration> hydration = null;
+				if(!videoIds.isEmpty()) {
+					hydration = hydrationExecutor.submit(new Callable<Hydration>() {
+						@Override
+						public Hydration call() throws IOException {
+							return hydrate(videoIds, channelIds, projection, requests);
+						}
+					});
+					synchronized(hydrations) {
+						hydrations.add(hydration);
+					}
+				}
+				
+				return new SearchPage(searchResponse, hydration);
+			}
+		};
+		
+		return new PagePrefetcher<SearchPage>(fetcher, maxPages, Math.max(1, getPrefetchDepth()));
+	}
+	
+	/**
+	 * @return the parts of the videos for a projection
+	 */
+	private String getParts(Projection projection) {
+		switch(projection) {
+			case MINIMAL:
+				return "snippet";
+			case STANDARD:
+				return "snippet,statistics";
+			default:
+				return "snippet,statistics,recordingDetails,player";
+		}
+	}
+	
+	/**
+	 * Requests the videos of a search page and the channels they belong to. The channels that 
+	 * are not cached are requested along with the videos, in a single batch request.
+	 * 
+	 * @param channelIds the channels of the videos, or null if they are not looked up
+	 * @return the videos and their channels, or null if there is no quota left
+	 */
+	private Hydration hydrate(List<String> videoIds, Set<String> channelIds, Projection projection, AtomicInteger requests) throws IOException {
+		YouTube.Videos.List listVideosRequest = youtubeService.videos().list(getParts(projection));
+		if(projection == Projection.MINIMAL) {
+			listVideosRequest.setFields(MINIMAL_FIELDS);
+		}
+		listVideosRequest.setId(Joiner.on(',').join(videoIds));
+		listVideosRequest.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
+		listVideosRequest.setKey(apiKey);
+		
+		final Hydration hydration = new Hydration();
+		List<YouTube.Channels.List> channelRequests = new ArrayList<YouTube.Channels.List>();
+		if(channelIds != null && !Thread.currentThread().isInterrupted()) {
+			channelRequests = getChannelRequests(channelIds, hydration.users);
+		}
+		
+		if(channelRequests.isEmpty()) {
+			requests.incrementAndGet();
+			VideoListResponse listResponse = execute(listVideosRequest, LIST_COST);
+			if(listResponse == null) {
+				return null;
+			}
+			
+			if(listResponse.getItems() != null) {
+				hydration.videos = listResponse.getItems();
+			}
+			return hydration;
+		}
+		
+		// every request of a batch is charged separately
+		if(!getRateLimitGovernor().acquire(QUOTA_UNITS, LIST_COST)) {
+			return null;
+		}
+		
+		final List<GoogleJsonError> errors = new ArrayList<GoogleJsonError>();
+		BatchRequest batch = youtubeService.batch();
+		listVideosRequest.queue(batch, new JsonBatchCallback<VideoListResponse>() {
+			@Override
+			public void onSuccess(VideoListResponse response, HttpHeaders responseHeaders) {
+				if(response.getItems() != null) {
+					hydration.videos = response.getItems();
+				}
+			}
+
+			@Override
+			public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+				errors.add(error);
+			}
+		});
+		queueChannels(channelRequests, batch, hydration.users);
+		
+		requests.incrementAndGet();
+		batch.execute();
+		
+		if(!errors.isEmpty()) {
+			GoogleJsonError error = errors.get(0);
+			throw new IOException("Videos request failed: " + error.getCode() + " : " + error.getMessage());
+		}
+		return hydration;
+	}
+	
+	private void cancel(List<Future<Hydration>> hydrations) {
+		synchronized(hydrations) {
+			for(Future<Hydration> hydration : hydrations) {
+				hydration.cancel(true);
+			}
+		}
 	}
 
 	@Override
@@ -344,7 +656,10 @@ public class YoutubeRetriever extends Retriever {
 			channelListResponse.setKey(apiKey);
 			channelListResponse.setForUsername(uName);
 			 
-			ChannelListResponse response = channelListResponse.execute();
+			ChannelListResponse response = execute(channelListResponse, LIST_COST);
+			if(response == null) {
+				return null;
+			}
 			List<Channel> channels = response.getItems();
 			if(channels != null) {
 				Channel channel = channels.get(0);
@@ -363,6 +678,11 @@ public class YoutubeRetriever extends Retriever {
 	}
 
 	public StreamUser getStreamUser(String uid) {
+		StreamUser cached = getStreamUserCache().get(Source.Youtube.toString(), uid);
+		if(cached != null) {
+			return cached;
+		}
+		
 		try {
 			YouTube.Channels.List channelListResponse = youtubeService.channels()
 					.list("id,snippet,statistics");
@@ -371,12 +691,16 @@ public class YoutubeRetriever extends Retriever {
 			channelListResponse.setId(uid);
 			channelListResponse.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
 			
-			ChannelListResponse response = channelListResponse.execute();
+			ChannelListResponse response = execute(channelListResponse, LIST_COST);
+			if(response == null) {
+				return null;
+			}
 			List<Channel> channels = response.getItems();
 			if(channels != null) {
 				Channel channel = channels.get(0);
 				YoutubeStreamUser user = new YoutubeStreamUser(channel);
-
+				getStreamUserCache().put(Source.Youtube.toString(), uid, user);
+				
 				return user;
 			}
 			
@@ -388,32 +712,35 @@ public class YoutubeRetriever extends Retriever {
 	}
 
 	public Map<String, StreamUser> getStreamUsers(Set<String> uids) {
-		List<String> list = new ArrayList<String>(uids);
-		Map<String, StreamUser> users = new HashMap<String, StreamUser>();
+		return getStreamUsers(uids, new AtomicInteger(0));
+	}
+	
+	/**
+	 * Looks up channels in chunks of 50 ids. A single chunk is requested directly, 
+	 * more chunks are sent together in a batch request.
+	 * 
+	 * @param uids the ids of the channels
+	 * @param requests the counter of the issued requests
+	 * @return the channels that were found, by id
+	 */
+	private Map<String, StreamUser> getStreamUsers(Set<String> uids, AtomicInteger requests) {
+		final Map<String, StreamUser> users = new HashMap<String, StreamUser>();
+		
 		try {
-			int fromIndex = 0;
-			while(fromIndex <= uids.size()) {
-				int toIndex = Math.min(fromIndex+50, uids.size());
-				List<String> sublist = list.subList(fromIndex, toIndex);
-			
-				Joiner stringJoiner = Joiner.on(',');
-				String userIds = stringJoiner.join(sublist);
-			
-				YouTube.Channels.List channelListResponse = youtubeService.channels().list("id,snippet,statistics");
-				channelListResponse.setKey(apiKey);
-				channelListResponse.setId(userIds);
-				channelListResponse.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
-
-				ChannelListResponse response = channelListResponse.execute();
-				List<Channel> channels = response.getItems();
-				if(channels != null) {
-					for(Channel channel : channels) {
-						YoutubeStreamUser user = new YoutubeStreamUser(channel);
-						users.put(user.getId(), user);
-					}
-				}
+			List<YouTube.Channels.List> channelRequests = getChannelRequests(uids, users);
+			if(channelRequests.size() == 1) {
+				requests.incrementAndGet();
+				ChannelListResponse response = execute(channelRequests.get(0), LIST_COST);
+				addChannels(response, users);
+			}
+			else if(channelRequests.size() > 1) {
+				BatchRequest batch = youtubeService.batch();
+				queueChannels(channelRequests, batch, users);
 				
-				fromIndex += 50;
+				if(batch.size() > 0) {
+					requests.incrementAndGet();
+					batch.execute();
+				}
 			}
 			
 		} catch (IOException e) {
@@ -423,6 +750,85 @@ public class YoutubeRetriever extends Retriever {
 		return users;
 	}
 	
+	/**
+	 * Creates the requests of the channels that are not cached, in chunks of 50 ids. 
+	 * The cached channels are added to the users.
+	 */
+	private List<YouTube.Channels.List> getChannelRequests(Set<String> uids, Map<String, StreamUser> users) throws IOException {
+		// only the channels that are not cached are requested
+		List<String> list = new ArrayList<String>();
+		for(String uid : uids) {
+			StreamUser user = getStreamUserCache().get(Source.Youtube.toString(), uid);
+			if(user != null) {
+				users.put(user.getId(), user);
+			}
+			else {
+				list.add(uid);
+			}
+		}
+		
+		List<YouTube.Channels.List> channelRequests = new ArrayList<YouTube.Channels.List>();
+		int fromIndex = 0;
+		while(fromIndex < list.size()) {
+			int toIndex = Math.min(fromIndex+50, list.size());
+			List<String> sublist = list.subList(fromIndex, toIndex);
+		
+			Joiner stringJoiner = Joiner.on(',');
+			String userIds = stringJoiner.join(sublist);
+		
+			YouTube.Channels.List channelListResponse = youtubeService.channels().list("id,snippet,statistics");
+			channelListResponse.setKey(apiKey);
+			channelListResponse.setId(userIds);
+			channelListResponse.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
+			channelRequests.add(channelListResponse);
+			
+			fromIndex += 50;
+		}
+		return channelRequests;
+	}
+	
+	/**
+	 * Adds the channel requests to a batch, as long as there is quota left for them. 
+	 * The channels are added to the users when the batch is executed.
+	 */
+	private void queueChannels(List<YouTube.Channels.List> channelRequests, BatchRequest batch, 
+			final Map<String, StreamUser> users) throws IOException {
+		
+		JsonBatchCallback<ChannelListResponse> callback = new JsonBatchCallback<ChannelListResponse>() {
+			@Override
+			public void onSuccess(ChannelListResponse response, HttpHeaders responseHeaders) {
+				addChannels(response, users);
+			}
+
+			@Override
+			public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+				logger.error("Channels request failed: " + error.getCode() + " : " + error.getMessage());
+			}
+		};
+		
+		for(YouTube.Channels.List channelRequest : channelRequests) {
+			// every request of a batch is charged separately
+			if(!getRateLimitGovernor().acquire(QUOTA_UNITS, LIST_COST)) {
+				break;
+			}
+			channelRequest.queue(batch, callback);
+		}
+	}
+	
+	private void addChannels(ChannelListResponse response, Map<String, StreamUser> users) {
+		if(response == null || response.getItems() == null) {
+			return;
+		}
+		
+		synchronized(users) {
+			for(Channel channel : response.getItems()) {
+				YoutubeStreamUser user = new YoutubeStreamUser(channel);
+				users.put(user.getId(), user);
+				getStreamUserCache().put(Source.Youtube.toString(), channel.getId(), user);
+			}
+		}
+	}
+	
 	@Override
 	public MediaItem getMediaItem(String id) {
 		return null;
@@ -432,13 +838,16 @@ public class YoutubeRetriever extends Retriever {
 	public Item getItem(String id) {
 		YouTube.Videos.List listVideosRequest;
 		try {
-			listVideosRequest = youtubeService.videos().list("snippet,statistics,recordingDetails,player");
+			listVideosRequest = youtubeService.videos().list(getParts(Projection.FULL));
 			
 			listVideosRequest.setId(id);
 			listVideosRequest.setMaxResults(NUMBER_OF_RESULTS_RETURNED);
 			listVideosRequest.setKey(apiKey);
 			
-	    	VideoListResponse listResponse = listVideosRequest.execute();
+	    	VideoListResponse listResponse = execute(listVideosRequest, LIST_COST);
+	    	if(listResponse == null) {
+	    		return null;
+	    	}
 	    	
 	    	List<Video> videos = listResponse.getItems();
 	    	for(Video v : videos) {
@@ -457,8 +866,168 @@ public class YoutubeRetriever extends Retriever {
 	
 	@Override
 	public List<Item> getItemComments(Item item, long since) {
-
-		return null;
+		Map<Item, Long> items = new HashMap<Item, Long>();
+		items.put(item, since);
+		
+		return getItemsComments(items).get(item.getId());
+	}
+	
+	@Override
+	public Map<String, List<Item>> getItemsComments(Map<Item, Long> items) {
+		Map<String, List<Item>> comments = new HashMap<String, List<Item>>();
+		for(Map.Entry<String, ItemComments> e : getItemsComments(items, new HashMap<String, String>()).entrySet()) {
+			comments.put(e.getKey(), e.getValue().getComments());
+		}
+		return comments;
+	}
+	
+	/**
+	 * Requests the latest commentThreads of the videos in batches of up to 50 requests. 
+	 * Videos whose first page does not reach the since time are paginated further, 
+	 * up to getMaxCommentPages() pages per video. The truncated walks are resumed 
+	 * from the token of their next page.
+	 */
+	@Override
+	public Map<String, ItemComments> getItemsComments(final Map<Item, Long> items, Map<String, String> cursors) {
+		final Map<String, ItemComments> comments = new HashMap<String, ItemComments>();
+		
+		try {
+			BatchRequest batch = youtubeService.batch();
+			for(final Item item : items.keySet()) {
+				// every request of a batch is charged separately
+				if(!getRateLimitGovernor().acquire(QUOTA_UNITS, LIST_COST)) {
+					break;
+				}
+				
+				final String videoId = item.getId().substring(item.getId().indexOf('#') + 1);
+				commentThreads(videoId, cursors.get(item.getId())).queue(batch, new JsonBatchCallback<GenericJson>() {
+					@Override
+					public void onSuccess(GenericJson response, HttpHeaders responseHeaders) throws IOException {
+						comments.put(item.getId(), getComments(videoId, response, items.get(item)));
+					}
+					
+					@Override
+					public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+						logger.error("CommentThreads request of " + videoId + " failed: " + error.getCode() + " : " + error.getMessage());
+					}
+				});
+				
+				if(batch.size() >= MAX_BATCH_SIZE) {
+					batch.execute();
+					batch = youtubeService.batch();
+				}
+			}
+			
+			if(batch.size() > 0) {
+				batch.execute();
+			}
+		}
+		catch(IOException e) {
+			logger.error(e);
+		}
+		
+		return comments;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private ItemComments getComments(String videoId, GenericJson response, long since) throws IOException {
+		List<Item> itemComments = new ArrayList<Item>();
+		
+		int pages = 1;
+		while(true) {
+			List<Map<String, Object>> threads = (List<Map<String, Object>>) response.get("items");
+			if(threads != null) {
+				for(Map<String, Object> thread : threads) {
+					YoutubeItem comment = new YoutubeItem(thread);
+					if(comment.getId() == null) {
+						continue;
+					}
+					// the threads are ordered by time, newest first
+					if(comment.getPublicationTime() < since) {
+						return new ItemComments(itemComments, null);
+					}
+					itemComments.add(comment);
+				}
+			}
+			
+			Object nextPageToken = response.get("nextPageToken");
+			if(nextPageToken == null) {
+				return new ItemComments(itemComments, null);
+			}
+			
+			// the walk is truncated, a later one resumes from the next page
+			if(pages >= getMaxCommentPages()) {
+				return new ItemComments(itemComments, nextPageToken.toString());
+			}
+			
+			pages++;
+			GenericJson next = execute(commentThreads(videoId, nextPageToken.toString()), LIST_COST);
+			if(next == null) {
+				// no quota left
+				return new ItemComments(itemComments, nextPageToken.toString());
+			}
+			response = next;
+		}
+	}
+	
+	/**
+	 * The commentThreads.list request of a video. The resource is not part of the generated 
+	 * client of this revision of the Data API, so the response is parsed as generic json.
+	 */
+	private YouTubeRequest<GenericJson> commentThreads(String videoId, String pageToken) {
+		YouTubeRequest<GenericJson> request = new YouTubeRequest<GenericJson>(youtubeService, "GET", "commentThreads", null, GenericJson.class);
+		request.set("part", "snippet");
+		request.set("videoId", videoId);
+		request.set("order", "time");
+		request.set("textFormat", "plainText");
+		request.set("maxResults", COMMENTS_PER_PAGE);
+		request.set("key", apiKey);
+		if(pageToken != null) {
+			request.set("pageToken", pageToken);
+		}
+		return request;
+	}
+	
+	/**
+	 * A page of search results and the hydration of its videos, that runs in the background.
+	 */
+	private static class SearchPage {
+		
+		private SearchListResponse search;
+		private Future<Hydration> hydration;
+		
+		public SearchPage(SearchListResponse search, Future<Hydration> hydration) {
+			this.search = search;
+			this.hydration = hydration;
+		}
+		
+		/**
+		 * Waits for the hydration of the page.
+		 * 
+		 * @return the hydration, or null if there was no quota left for it
+		 * @throws IOException the exception thrown by the requests of the hydration
+		 */
+		public Hydration await() throws IOException, InterruptedException {
+			if(hydration == null) {
+				return new Hydration();
+			}
+			
+			try {
+				return hydration.get();
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+	
+	private static class Hydration {
+		
+		private List<Video> videos = new ArrayList<Video>();
+		private Map<String, StreamUser> users = new HashMap<String, StreamUser>();
+		
 	}
 	
 	public static void main(String...args) throws Exception {
@@ -475,7 +1044,7 @@ public class YoutubeRetriever extends Retriever {
 		Response response = retriever.retrieve(feed, 6);
 		System.out.println(response.getNumberOfItems());
 	
-		for(Item item : response.getItems()) {
+		for(Item item : response.getItemsView()) {
 			System.out.println(item.getTitle());
 		}
 		